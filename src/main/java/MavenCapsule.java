@@ -6,8 +6,17 @@
  * http://www.eclipse.org/legal/epl-v10.html
  */
 
+import capsule.BomCache;
+import capsule.Coordinates;
 import capsule.DependencyManager;
+import capsule.Lockfile;
+import capsule.MissingCache;
 import capsule.Pom;
+import capsule.PomCache;
+import capsule.RepositoryStats;
+import capsule.ResolutionCache;
+import capsule.VersionCache;
+import capsule.ZipIndex;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.AccessibleObject;
@@ -15,14 +24,20 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Map.Entry;
 import static java.util.Arrays.asList;
 import java.util.Collection;
+import java.util.Collections;
 import static java.util.Collections.emptyList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import org.eclipse.aether.graph.Dependency;
 
 /**
@@ -38,6 +53,12 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
     private static final String PROP_TREE = OPTION("capsule.tree", "false", "printDependencyTree", "Prints the capsule's dependency tree.");
     private static final String PROP_RESOLVE = OPTION("capsule.resolve", "false", "resolve", "Downloads all un-cached dependencies.");
     private static final String PROP_USE_LOCAL_REPO = OPTION("capsule.local", null, null, "Sets the path of the local Maven repository to use.");
+    private static final String PROP_RANGE_TTL = OPTION("capsule.range.ttl", "86400", null, "The time, in seconds, before a resolved version range is checked again; negative for never.");
+    private static final String PROP_CLEAR_MISSING = OPTION("capsule.clear.missing", "false", "clearMissing", "Forgets which artifacts were found missing from which repositories.");
+    private static final String PROP_MISSING_TTL = OPTION("capsule.missing.ttl", "86400", null, "The time, in seconds, an artifact found missing from a repository is not looked for there again; negative for ever, 0 to always look.");
+    private static final String PROP_UPDATE_POLICY = OPTION("capsule.update.policy", null, null, "The update policy -- never, always, daily or interval:MINUTES -- of all repositories' metadata and SNAPSHOTs; capsule.update.policy.REPO sets that of a single repository.");
+    private static final String PROP_REPOSITORY_ROUTES = OPTION("capsule.repository.routes", null, null, "A whitespace-separated list of routes, each formatted as PATTERN=REPO-IDS, overriding the Repository-Routes attribute.");
+    private static final String PROP_REPOSITORY_ORDER = OPTION("capsule.repository.order", "adaptive", null, "Whether mirrors (repositories sharing an id) are tried in the order of their observed performance (adaptive), or in the order they are listed (fixed).");
     private static final String PROP_RESET = "capsule.reset";
     private static final String PROP_USER_HOME = "user.home";
 
@@ -46,21 +67,55 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
 
     private static final Entry<String, List<String>> ATTR_REPOSITORIES = ATTRIBUTE("Repositories", T_LIST(T_STRING()), asList("central"), true, "A list of Maven repositories, each formatted as URL or NAME(URL)");
     private static final Entry<String, List<String>> ATTR_MANAGED_DEPENDENCIES = ATTRIBUTE("Managed-Dependencies", T_LIST(T_STRING()), null, true, "A list of managed dependencies, forcing versions in transitive dependencies, each formatted as group:artifact:type:classifier:version");
+    private static final Entry<String, Boolean> ATTR_DEPENDENCIES_FLATTENED = ATTRIBUTE("Dependencies-Flattened", T_BOOL(), false, true, "Whether the dependencies are already the complete, conflict-resolved list of artifacts, so that each is resolved directly, without its transitive dependencies");
+    private static final Entry<String, Map<String, String>> ATTR_REPOSITORY_ROUTES = ATTRIBUTE("Repository-Routes", T_MAP(T_STRING(), T_STRING(), null), null, true, "A map from groupId patterns -- GROUP, GROUP.* or * -- to the comma-separated ids of the only repositories their artifacts are looked for in");
     private static final Entry<String, Boolean> ATTR_ALLOW_SNAPSHOTS = ATTRIBUTE("Allow-Snapshots", T_BOOL(), false, true, "Whether or not SNAPSHOT dependencies are allowed");
+    private static final Entry<String, Map<String, String>> ATTR_UPDATE_POLICY = ATTRIBUTE("Update-Policy", T_MAP(T_STRING(), T_STRING(), null), null, true, "A map from repository ids (or * for all repositories) to the update policy -- never, always, daily or interval:MINUTES -- of their metadata and SNAPSHOTs");
+    private static final Entry<String, Boolean> ATTR_BACKGROUND_UPDATE = ATTRIBUTE("Background-Update", T_BOOL(), false, true, "Whether a ranged, LATEST or RELEASE application artifact whose cached version has expired is launched at that version, while a newer one is looked for and downloaded in the background for the next launch");
 
     private static final String ENV_CAPSULE_REPOS = "CAPSULE_REPOS";
     private static final String ENV_CAPSULE_LOCAL_REPO = "CAPSULE_LOCAL_REPO";
 
     private static final String POM_FILE = "pom.xml";
     private static final String DEPS_CACHE_NAME = "deps";
+    private static final String METADATA_DIR_NAME = ".capsule";
+    private static final String RESOLUTION_CACHE_NAME = "resolved";
+    private static final String VERSION_CACHE_NAME = "versions";
+    private static final String POM_CACHE_NAME = "poms";
+    private static final String BOM_CACHE_NAME = "boms";
+    private static final String MISSING_CACHE_NAME = "missing";
+    private static final String REPOSITORY_STATS_NAME = "repository-stats";
+    private static final String REPOSITORY_ORDER_FIXED = "fixed";
+    private static final String REPOSITORY_ORDER_ADAPTIVE = "adaptive";
+    private static final long DEFAULT_RANGE_TTL = 24 * 60 * 60;
+    private static final long DEFAULT_MISSING_TTL = 24 * 60 * 60;
+    private static final String ALL_REPOS = "*";
+    private static final String UPDATE_POLICY_NEVER = "never"; // see org.eclipse.aether.repository.RepositoryPolicy
+    private static final String UPDATE_POLICY_ALWAYS = "always";
+    private static final String UPDATE_POLICY_DAILY = "daily";
+    private static final String UPDATE_POLICY_INTERVAL = "interval:";
 
     private DependencyManager dependencyManager;
+    private DependencyManager sharedDependencyManager; // set in the caplet chain's last MavenCapsule, and shared by the whole chain
+    private Path sharedLocalRepo;
     private Pom pom;
     private Path localRepo;
+    private ResolutionCache resolutionCache;
+    private VersionCache versionCache;
+    private PomCache pomCache;
+    private BomCache bomCache;
+    private Pom.ParentCache parentCache; // set in the caplet chain's last MavenCapsule, and shared by the whole chain
+    private MissingCache missingCache; // set in the caplet chain's last MavenCapsule, and shared by the whole chain
+    private RepositoryStats repositoryStats; // set in the caplet chain's last MavenCapsule, and shared by the whole chain
+    private int embeddedLookupDepth;
+    private final Map<Coordinates, String> latestVersions = new HashMap<>();
+    private Lockfile lockfile;
+    private boolean lockfileRead;
     private String version; // app version cache
 
     private static final List<Path> UNRESOLVED = new ArrayList<>();
-    private final Map<Dependency, List<Path>> dependencies = new HashMap<>();
+    private final Map<Coordinates, List<Path>> dependencies = new LinkedHashMap<>(); // in lookup order, which is the collection's order
+    private int resolutionRounds;
 
     //<editor-fold defaultstate="collapsed" desc="Constructors">
     /////////// Constructors ///////////////////////////////////
@@ -76,6 +131,7 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
     protected void finalizeCapsule() {
         this.pom = createPomReader(getJarFile(), POM_FILE, null);
         if (dependencyManager != null) {
+            setUpdatePolicies();
             setDependencyRepositories(getAttribute(ATTR_REPOSITORIES));
             setManagedDependencies();
         }
@@ -94,13 +150,21 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
         if (dependencies.isEmpty())
             STDOUT.println("No external dependencies.");
         else
-            getDependencyManager().printDependencyTree(getUnresolved(), STDOUT);
+            getDependencyManager().printDependencyTree(new ArrayList<>(toDependencies(getUnresolved()).keySet()), STDOUT);
+    }
+
+    void clearMissing(List<String> args) throws IOException {
+        final Path repo = getLocalRepo();
+        if (repo != null)
+            new MissingCache(repo.toAbsolutePath().resolve(METADATA_DIR_NAME).resolve(MISSING_CACHE_NAME), 0).clear();
+        log(LOG_QUIET, "Capsule cleared the record of missing artifacts");
     }
 
     void resolve(List<String> args) throws IOException, InterruptedException {
         verifyNonEmpty("Cannot resolve a wrapper capsule.");
         lookupAllDependencies();
-        getDependencyManager().resolveDependencies(getUnresolved());
+        getDependencyManager().resolveDependencies(new ArrayList<>(toDependencies(getUnresolved()).keySet()));
+        saveRepositoryStats();
         log(LOG_QUIET, "Capsule resolved");
     }
 
@@ -127,9 +191,9 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
 //            getAttribute(attr);
     }
 
-    private List<Dependency> getUnresolved() {
-        final List<Dependency> unresolved = new ArrayList<>();
-        for (Map.Entry<Dependency, List<Path>> e : dependencies.entrySet()) {
+    private List<Coordinates> getUnresolved() {
+        final List<Coordinates> unresolved = new ArrayList<>();
+        for (Map.Entry<Coordinates, List<Path>> e : dependencies.entrySet()) {
             if (e.getValue() == UNRESOLVED)
                 unresolved.add(e.getKey());
         }
@@ -153,14 +217,26 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
             String ver = super.attribute(ATTR_APP_VERSION);
             if (ver == null && version != null)
                 ver = version;
-            if (ver == null && hasAttribute(ATTR_APP_ARTIFACT) && isDependency(getAttribute(ATTR_APP_ARTIFACT)))
-                ver = getAppArtifactVersion(getDependencyManager().getLatestVersion(getAttribute(ATTR_APP_ARTIFACT), "jar"));
+            if (ver == null && hasAttribute(ATTR_APP_ARTIFACT) && isDependency(getAttribute(ATTR_APP_ARTIFACT))) {
+                final String app = getAttribute(ATTR_APP_ARTIFACT);
+                ver = isSnapshot(app) ? getAppArtifactVersion(getDependencyManager().getLatestVersion(app, "jar")) : getAppArtifactVersion(app);
+            }
             if (ver == null && pom != null)
                 ver = pom.getVersion();
             this.version = ver; // cache
             return (T) ver;
         }
 
+        if (ATTR_APP_ARTIFACT.equals(attr)) {
+            String app = super.attribute(ATTR_APP_ARTIFACT);
+            if (app != null && isDependency(app)) {
+                final Coordinates c = new Coordinates(app, "jar");
+                if (c.isDynamic()) // pin, so that a cached resolution of the latest version can be used
+                    app = c.withVersion(getLatestVersion(c)).getCoordinates();
+            }
+            return (T) app;
+        }
+
         if (ATTR_DEPENDENCIES.equals(attr)) {
             List<Object> deps = super.attribute(ATTR_DEPENDENCIES);
             
@@ -214,7 +290,7 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
         if (res == null && x instanceof String) {
             final String s = (String) x;
             if (isDependency(s)) {
-                final Dependency dep = DependencyManager.toDependency(s, type.isEmpty() ? "jar" : type);
+                final Coordinates dep = new Coordinates(s, type.isEmpty() ? "jar" : type);
                 if (!dependencies.containsKey(dep))
                     dependencies.put(dep, UNRESOLVED);
                 return super.lookup0(dep, type, attrContext, context);
@@ -223,13 +299,16 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
             final String s = (String) x;
             final List<Object> ret = new ArrayList<>();
             ret.add(res);
-            if (isDependency(s)) {
+            if (isDependency(s) && !getAttribute(ATTR_DEPENDENCIES_FLATTENED)) { // a flattened list already includes the transitive deps
                 type = type.isEmpty() ? "jar" : type;
-                final Dependency dep = DependencyManager.toDependency(s, type);
-                final Pom pom1 = createPomReader(getWritableAppCache().resolve((Path) res), getPomJarEntryName(dep), pom);
-                if (pom1 != null) {
-                    for (String d : pom1.getDependencies(type))
+                final Coordinates dep = new Coordinates(s, type);
+                embeddedLookupDepth++;
+                try {
+                    for (String d : getEmbeddedDependencies(getWritableAppCache().resolve((Path) res), dep, type))
                         addFlat(lookup0(d, type, attrContext, null), ret);
+                } finally {
+                    if (--embeddedLookupDepth == 0)
+                        savePomCache();
                 }
             }
             return ret;
@@ -237,17 +316,21 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
         return res;
     }
 
+    @Override
+    protected ProcessBuilder prelaunch(List<String> jvmArgs, List<String> args) {
+        // by now all attributes' dependencies have been looked up (see lookupAllDependencies), so they are resolved in a single round,
+        // before any of them is asked for
+        resolveAll();
+        ZipIndex.clear(); // the lookups are done; don't keep the indices of the JARs for as long as the application runs
+        return super.prelaunch(jvmArgs, args);
+    }
+
     @Override
     protected List<Path> resolve0(final Object x) {
-        if (x instanceof Dependency) {
-            final Dependency d = (Dependency) x;
-            if (dependencies.get(d) == UNRESOLVED) {
-                long start = clock();
-                Map<Dependency, List<Path>> resolved = getDependencyManager().resolveDependencies(getUnresolved());
-                log(LOG_DEBUG, "Maven resolved: " + resolved);
-                dependencies.putAll(resolved);
-                time("resolveAll", start);
-            }
+        if (x instanceof Coordinates) {
+            final Coordinates d = (Coordinates) x;
+            if (dependencies.get(d) == UNRESOLVED)
+                resolveAll();
             assert dependencies.get(d) != UNRESOLVED : d;
             final Object y = dependencies.get(d);
             if (y == null) // there's another MavenCapsule in the chain
@@ -260,10 +343,47 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
 
     //<editor-fold defaultstate="collapsed" desc="Internal Methods">
     /////////// Internal Methods ///////////////////////////////////
+
+    /**
+     * Resolves all dependencies looked up so far, whatever their attribute and type, in a single request.
+     */
+    private void resolveAll() {
+        final List<Coordinates> unresolved = getUnresolved();
+        if (unresolved.isEmpty())
+            return;
+        if (resolutionRounds++ > 0)
+            log(LOG_VERBOSE, "Resolving dependencies looked up after the first resolution round: " + unresolved);
+        final long start = clock();
+        final Map<Coordinates, List<Path>> resolved = resolveDependencies(unresolved);
+        log(LOG_DEBUG, "Maven resolved: " + resolved);
+        dependencies.putAll(resolved);
+        time("resolveAll", start);
+        final MissingCache missing = getLastMavenCapsule().missingCache;
+        if (isLogging(PROFILE) && missing != null)
+            log(PROFILE, "PROFILE missing cache: " + missing.getHits() + " hits " + missing.getMisses() + " misses");
+        saveRepositoryStats();
+    }
     
     @Override
-    public List<Path> lookupAndResolve(String x, String type) {
-        return resolve(lookup(x, type, null, null));
+    public Path resolveArtifact(String coords, String type) {
+        final Object embedded = lookupEmbedded(coords, type);
+        if (embedded instanceof Path)
+            return (Path) embedded;
+
+        final Coordinates c = new Coordinates(coords, type);
+        if (!isSnapshot(coords) && c.getVersion() != null && !c.isDynamic() && !systemPropertyEmptyOrTrue(PROP_RESET)) {
+            // released artifacts never change, so a copy in the local repository can be used without loading Aether
+            final Path local = c.getLocalPath(getLocalRepo().toAbsolutePath());
+            if (Files.isRegularFile(local))
+                return local;
+        }
+        return getDependencyManager().resolveArtifact(coords, type);
+    }
+
+    @SuppressWarnings("deprecation")
+    private Object lookupEmbedded(String coords, String type) {
+        // not lookup, which would also register the artifact as one of the capsule's dependencies
+        return super.lookup0(coords, type, null, null);
     }
     
     @Override
@@ -282,13 +402,576 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
     }
     
     private Pom createPomReader(Path jarFile, String entry, Pom root) {
-        try (InputStream is = getEntryInputStream(jarFile, entry)) {
+        try (InputStream is = openEntry(jarFile, entry)) {
             return is != null ? new Pom(is, root, this) : null;
         } catch (IOException e) {
             throw new RuntimeException("Could not read " + entry, e);
         }
     }
 
+    /**
+     * Returns the dependencies listed in the POM embedded in the given JAR, using the POM cache if possible.
+     */
+    private List<String> getEmbeddedDependencies(Path jar, Coordinates dep, String type) {
+        final PomCache cache = getPomCache();
+        String key = null;
+        if (cache != null) {
+            try {
+                key = PomCache.key(jar, type);
+                final List<String> cached = systemPropertyEmptyOrTrue(PROP_RESET) ? null : cache.get(key);
+                if (cached != null)
+                    return cached;
+            } catch (IOException e) {
+                log(LOG_VERBOSE, "Could not read cached POM of " + jar + ": " + e.getMessage());
+            }
+        }
+
+        final Pom pom1 = createPomReader(jar, getPomJarEntryName(dep), pom);
+        final List<String> deps = pom1 != null ? pom1.getDependencies(type) : Collections.<String>emptyList();
+        if (key != null) {
+            try {
+                cache.put(key, deps);
+            } catch (IOException e) {
+                log(LOG_VERBOSE, "Could not cache POM of " + jar + ": " + e.getMessage());
+            }
+        }
+        return deps;
+    }
+
+    private void savePomCache() {
+        if (pomCache == null)
+            return;
+        try {
+            pomCache.save();
+        } catch (IOException e) {
+            log(LOG_VERBOSE, "Could not write POM cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Resolves the given dependencies, using the embedded lockfile and the resolution cache if possible.
+     * The {@link DependencyManager} is only created (and Aether only loaded) if there are artifacts to fetch, and then only once:
+     * missing locked artifacts are fetched in the same round as the collection of the dependencies not in the lockfile.
+     */
+    private Map<Coordinates, List<Path>> resolveDependencies(List<Coordinates> deps) {
+        final Map<Coordinates, List<Path>> resolved = new HashMap<>();
+        final Set<Lockfile.Artifact> missing = new LinkedHashSet<>();
+        final List<Coordinates> unlocked = getUnlocked(deps, missing);
+        final boolean cached = !unlocked.isEmpty() && resolveCached(unlocked, resolved);
+
+        final Map<Lockfile.Artifact, Path> fetched = new HashMap<>();
+        if (!unlocked.isEmpty() && !cached)
+            resolved.putAll(resolveUnlocked(unlocked, new ArrayList<>(missing), fetched));
+        else if (!missing.isEmpty()) {
+            final List<Lockfile.Artifact> ms = new ArrayList<>(missing);
+            final List<Path> ps = getDependencyManager().resolveArtifacts(ms);
+            for (int i = 0; i < ms.size(); i++)
+                fetched.put(ms.get(i), ps.get(i));
+        }
+        resolveLocked(deps, fetched, resolved);
+        return resolved;
+    }
+
+    /**
+     * Finds the locked artifacts of the given dependencies that are missing from the local repository.
+     *
+     * @return the dependencies not found in the lockfile
+     */
+    private List<Coordinates> getUnlocked(List<Coordinates> deps, Set<Lockfile.Artifact> missing) {
+        final Lockfile lock = getLockfile();
+        if (lock == null)
+            return deps;
+
+        final Path repo = getLocalRepo().toAbsolutePath();
+        final List<Coordinates> unlocked = new ArrayList<>();
+        for (Coordinates d : deps) {
+            final List<Lockfile.Artifact> as = lock.get(d.getCoordinates(), d.getType());
+            if (as == null) {
+                unlocked.add(d);
+                continue;
+            }
+            for (Lockfile.Artifact a : as) {
+                if (!Files.isRegularFile(a.getLocalPath(repo)))
+                    missing.add(a);
+            }
+        }
+        if (!missing.isEmpty())
+            log(LOG_VERBOSE, "Fetching " + missing.size() + " locked artifacts");
+        return unlocked;
+    }
+
+    /**
+     * Resolves those of the given dependencies that are found in the lockfile, after verifying the fetched locked artifacts.
+     */
+    private void resolveLocked(List<Coordinates> deps, Map<Lockfile.Artifact, Path> fetched, Map<Coordinates, List<Path>> resolved) {
+        final Lockfile lock = getLockfile();
+        if (lock == null)
+            return;
+
+        for (Map.Entry<Lockfile.Artifact, Path> e : fetched.entrySet()) {
+            final Lockfile.Artifact a = e.getKey();
+            final Path p = e.getValue();
+            try {
+                if (!a.matches(p)) {
+                    Files.delete(p);
+                    throw new RuntimeException("SHA-256 of " + p + " does not match that of the locked artifact " + a);
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException("Could not verify locked artifact " + a, ex);
+            }
+        }
+
+        final Path repo = getLocalRepo().toAbsolutePath();
+        for (Coordinates d : deps) {
+            final List<Lockfile.Artifact> as = lock.get(d.getCoordinates(), d.getType());
+            if (as == null)
+                continue;
+            final List<Path> ps = new ArrayList<>(as.size());
+            for (Lockfile.Artifact a : as)
+                ps.add(fetched.containsKey(a) ? fetched.get(a) : a.getLocalPath(repo));
+            resolved.put(d, ps);
+        }
+    }
+
+    /**
+     * Resolves the given dependencies from the resolution cache, if they're all found there and up to date.
+     *
+     * @return whether the dependencies have been resolved
+     */
+    private boolean resolveCached(List<Coordinates> deps, Map<Coordinates, List<Path>> resolved) {
+        final ResolutionCache cache = getResolutionCache();
+        if (cache == null || systemPropertyEmptyOrTrue(PROP_RESET))
+            return false;
+        final String key = ResolutionCache.key(getResolutionInputs(deps));
+        try {
+            final Map<String, List<Path>> cached = cache.get(key);
+            if (cached != null && cached.keySet().containsAll(toKeys(deps)) && isUpToDate(cache.getTimestamp(key))) {
+                log(LOG_VERBOSE, "Using cached dependency resolution " + key);
+                for (Coordinates d : deps)
+                    resolved.put(d, cached.get(toKey(d)));
+                return true;
+            }
+        } catch (IOException e) {
+            log(LOG_VERBOSE, "Could not read cached dependency resolution " + key + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Resolves the given dependencies with the {@link DependencyManager}, along with the given locked artifacts, and caches the result.
+     *
+     * @param fetched receives the locked artifacts' files
+     */
+    private Map<Coordinates, List<Path>> resolveUnlocked(List<Coordinates> deps, List<Lockfile.Artifact> locked, Map<Lockfile.Artifact, Path> fetched) {
+        final Map<Dependency, Coordinates> ds = toDependencies(deps);
+        final Map<Dependency, List<Path>> resolved0 = getAttribute(ATTR_DEPENDENCIES_FLATTENED)
+                ? getDependencyManager().resolveFlattenedDependencies(new ArrayList<>(ds.keySet()), locked, fetched)
+                : getDependencyManager().resolveDependencies(new ArrayList<>(ds.keySet()), locked, fetched);
+        final Map<Coordinates, List<Path>> resolved = new HashMap<>();
+        for (Map.Entry<Dependency, List<Path>> e : resolved0.entrySet()) {
+            if (ds.containsKey(e.getKey()))
+                resolved.put(ds.get(e.getKey()), e.getValue());
+        }
+
+        final ResolutionCache cache = getResolutionCache();
+        if (cache != null && resolved.keySet().containsAll(deps)) { // don't cache partial results
+            final String key = ResolutionCache.key(getResolutionInputs(deps));
+            final Map<String, List<Path>> toCache = new LinkedHashMap<>();
+            for (Coordinates d : deps)
+                toCache.put(toKey(d), resolved.get(d));
+            try {
+                cache.put(key, toCache);
+            } catch (IOException e) {
+                log(LOG_VERBOSE, "Could not cache dependency resolution " + key + ": " + e.getMessage());
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns the version the given dynamic (ranged, {@code LATEST} or {@code RELEASE}) coordinates resolve to.
+     * A version resolved within the last {@code capsule.range.ttl} seconds is taken from the version cache, without loading Aether;
+     * an older one is used if the repositories cannot be reached.
+     */
+    private String getLatestVersion(Coordinates dep) {
+        String version = latestVersions.get(dep);
+        if (version == null) {
+            version = getLatestVersion0(dep);
+            latestVersions.put(dep, version); // use the same version throughout the launch
+        }
+        return version;
+    }
+
+    private String getLatestVersion0(Coordinates dep) {
+        final VersionCache cache = getVersionCache();
+        final String key = cache != null ? ResolutionCache.key(getVersionInputs(dep)) : null;
+        VersionCache.Entry cached = null;
+        if (cache != null) {
+            try {
+                cached = cache.get(key);
+            } catch (IOException e) {
+                log(LOG_VERBOSE, "Could not read cached version of " + dep + ": " + e.getMessage());
+            }
+        }
+        if (cached != null && !systemPropertyEmptyOrTrue(PROP_RESET)) {
+            if (!cached.isExpired(getRangeTtl(), System.currentTimeMillis())) {
+                log(LOG_VERBOSE, "Using cached version " + cached + " of " + dep);
+                return cached.getVersion();
+            }
+            if (getAttribute(ATTR_BACKGROUND_UPDATE)) {
+                log(LOG_VERBOSE, "Using cached version " + cached + " of " + dep + " while checking for a newer one");
+                updateInBackground(dep, key, cached.getVersion());
+                return cached.getVersion();
+            }
+        }
+
+        final String version;
+        try {
+            // if we've resolved the version before, the repositories' metadata must be checked again
+            version = new Coordinates(getDependencyManager().getLatestVersion(dep.getCoordinates(), dep.getType(), cached != null), dep.getType()).getVersion();
+        } catch (RuntimeException e) {
+            if (cached == null)
+                throw e;
+            log(LOG_QUIET, "Could not check for a newer version of " + dep + " (" + e.getMessage() + "); using " + cached);
+            return cached.getVersion();
+        }
+        putCachedVersion(key, dep, version);
+        return version;
+    }
+
+    /**
+     * Looks for a newer version of the given dependency in a background thread and, if one is found, downloads it along with all of its dependencies.
+     * The version cache is only updated once the download is complete, so the next launch can use the new version without waiting for it.
+     */
+    private void updateInBackground(final Coordinates dep, final String key, final String current) {
+        final Path repo = getLocalRepo().toAbsolutePath();
+        final int logLevel = getLogLevel();
+        final List<String> repos = getAttribute(ATTR_REPOSITORIES);
+        final boolean allowSnapshots = getAttribute(ATTR_ALLOW_SNAPSHOTS);
+        final List<String> managed = getAttribute(ATTR_MANAGED_DEPENDENCIES);
+        final Map<String, String> policies = getUpdatePolicies();
+        final Map<String, String> routes = getRepositoryRoutes();
+        final MissingCache missing = getMissingCache();
+        final RepositoryStats stats = getRepositoryStats();
+        final boolean adaptive = isAdaptiveRepositoryOrder();
+
+        final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // a separate dependency manager, so as not to share a session with the launch
+                    final DependencyManager dm = createDependencyManager(repo, false, logLevel);
+                    dm.setUpdatePolicies(policies);
+                    dm.setRepositoryRoutes(routes);
+                    dm.setMissingCache(missing);
+                    dm.setRepositoryStats(stats, adaptive);
+                    dm.setRepositories(repos, allowSnapshots);
+                    if (managed != null)
+                        dm.setManagedDependencies(managed);
+
+                    final String latest = new Coordinates(dm.getLatestVersion(dep.getCoordinates(), dep.getType(), true), dep.getType()).getVersion();
+                    if (!latest.equals(current)) {
+                        dm.resolveDependency(dep.withVersion(latest).getCoordinates(), dep.getType());
+                        log(LOG_VERBOSE, "Downloaded version " + latest + " of " + dep + "; it will be used on the next launch");
+                    }
+                    putCachedVersion(key, dep, latest);
+                    if (stats != null)
+                        stats.save();
+                } catch (Throwable e) {
+                    log(LOG_VERBOSE, "Could not update " + dep + " in the background: " + e.getMessage());
+                }
+            }
+        }, "capsule-maven-update");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void putCachedVersion(String key, Coordinates dep, String version) {
+        final VersionCache cache = getVersionCache();
+        if (cache == null)
+            return;
+        try {
+            cache.put(key, version, System.currentTimeMillis());
+        } catch (IOException e) {
+            log(LOG_VERBOSE, "Could not cache version of " + dep + ": " + e.getMessage());
+        }
+    }
+
+    private List<String> getVersionInputs(Coordinates dep) {
+        final List<String> inputs = new ArrayList<>();
+        inputs.add("version " + toKey(dep));
+        for (String r : nullToEmpty(getAttribute(ATTR_REPOSITORIES)))
+            inputs.add("repository " + r);
+        inputs.add("allow-snapshots " + getAttribute(ATTR_ALLOW_SNAPSHOTS));
+        return inputs;
+    }
+
+    private static long getMissingTtl() {
+        final String ttl = emptyToNull(getProperty(PROP_MISSING_TTL));
+        try {
+            return ttl != null ? Long.parseLong(ttl) : DEFAULT_MISSING_TTL;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Illegal value for " + PROP_MISSING_TTL + ": " + ttl);
+        }
+    }
+
+    private static long getRangeTtl() {
+        final String ttl = emptyToNull(getProperty(PROP_RANGE_TTL));
+        try {
+            return ttl != null ? Long.parseLong(ttl) : DEFAULT_RANGE_TTL;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Illegal value for " + PROP_RANGE_TTL + ": " + ttl);
+        }
+    }
+
+    /**
+     * The update policies of the repositories, set by the {@code Update-Policy} attribute, and overridden by the
+     * {@code capsule.update.policy} (for all repositories) and {@code capsule.update.policy.REPO} (for a single one) properties.
+     */
+    private Map<String, String> getUpdatePolicies() {
+        final Map<String, String> policies = new HashMap<>();
+        final Map<String, String> attr = getAttribute(ATTR_UPDATE_POLICY);
+        if (attr != null)
+            policies.putAll(attr);
+        final String all = emptyToNull(getProperty(PROP_UPDATE_POLICY));
+        if (all != null) {
+            policies.clear();
+            policies.put(ALL_REPOS, all);
+        }
+        for (String p : System.getProperties().stringPropertyNames()) {
+            if (p.startsWith(PROP_UPDATE_POLICY + ".") && emptyToNull(System.getProperty(p)) != null)
+                policies.put(p.substring(PROP_UPDATE_POLICY.length() + 1), System.getProperty(p));
+        }
+        for (String policy : policies.values())
+            validateUpdatePolicy(policy);
+        return policies;
+    }
+
+    // like DependencyManager.validateUpdatePolicy, but without loading Aether
+    private static void validateUpdatePolicy(String policy) {
+        if (UPDATE_POLICY_NEVER.equals(policy) || UPDATE_POLICY_ALWAYS.equals(policy) || UPDATE_POLICY_DAILY.equals(policy))
+            return;
+        if (policy.startsWith(UPDATE_POLICY_INTERVAL)) {
+            try {
+                if (Integer.parseInt(policy.substring(UPDATE_POLICY_INTERVAL.length())) >= 0)
+                    return;
+            } catch (NumberFormatException e) {
+            }
+        }
+        throw new IllegalArgumentException("Illegal update policy: " + policy + " (must be never, always, daily or interval:MINUTES)");
+    }
+
+    /**
+     * The ids of the repositories in use, as {@code DependencyManager} parses them, but without loading Aether.
+     */
+    private Set<String> getRepositoryIds() {
+        final Set<String> ids = new HashSet<>();
+        for (String r : nullToEmpty(getAttribute(ATTR_REPOSITORIES))) {
+            final int i = r.indexOf('(');
+            final String id = i >= 0 ? r.substring(0, i) : r;
+            if (i < 0 && (id.equals("central-http") || id.equals("jcenter-http"))) // see DependencyManager.WELL_KNOWN_REPOS
+                ids.add(id.substring(0, id.length() - "-http".length()));
+            else
+                ids.add(id);
+        }
+        return ids;
+    }
+
+    private Map<String, String> getRepositoryRoutes() {
+        final String prop = emptyToNull(getProperty(PROP_REPOSITORY_ROUTES));
+        if (prop == null) {
+            final Map<String, String> attr = getAttribute(ATTR_REPOSITORY_ROUTES);
+            return attr != null ? attr : Collections.<String, String>emptyMap();
+        }
+        final Map<String, String> routes = new LinkedHashMap<>();
+        for (String route : prop.trim().split("\\s+")) {
+            final int i = route.indexOf('=');
+            if (i <= 0)
+                throw new IllegalArgumentException("Illegal repository route: " + route + " (must be PATTERN=REPO-IDS)");
+            routes.put(route.substring(0, i), route.substring(i + 1));
+        }
+        return routes;
+    }
+
+    /**
+     * Whether a resolution made at the given time needn't be checked for updates under the repositories' update policies.
+     */
+    private boolean isUpToDate(long timestamp) {
+        final long now = System.currentTimeMillis();
+        final Map<String, String> policies = getUpdatePolicies();
+        for (String id : getRepositoryIds()) {
+            final String policy = policies.containsKey(id) ? policies.get(id) : policies.get(ALL_REPOS);
+            if (policy == null || UPDATE_POLICY_NEVER.equals(policy))
+                continue;
+            if (UPDATE_POLICY_ALWAYS.equals(policy))
+                return false;
+            if (UPDATE_POLICY_DAILY.equals(policy)) {
+                final Calendar midnight = Calendar.getInstance();
+                midnight.set(Calendar.HOUR_OF_DAY, 0);
+                midnight.set(Calendar.MINUTE, 0);
+                midnight.set(Calendar.SECOND, 0);
+                midnight.set(Calendar.MILLISECOND, 0);
+                if (timestamp < midnight.getTimeInMillis())
+                    return false;
+            } else if (policy.startsWith(UPDATE_POLICY_INTERVAL)) {
+                final long minutes = Integer.parseInt(policy.substring(UPDATE_POLICY_INTERVAL.length()));
+                if (now - timestamp >= minutes * 60 * 1000)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * All inputs that may affect the result of resolving the given dependencies.
+     */
+    private List<String> getResolutionInputs(List<Coordinates> deps) {
+        final List<String> inputs = new ArrayList<>();
+        for (String d : toKeys(deps))
+            inputs.add("dependency " + d);
+        Collections.sort(inputs);
+        for (String md : nullToEmpty(getAttribute(ATTR_MANAGED_DEPENDENCIES)))
+            inputs.add("managed " + md);
+        for (String r : nullToEmpty(getAttribute(ATTR_REPOSITORIES)))
+            inputs.add("repository " + r);
+        for (Map.Entry<String, String> route : new TreeMap<>(getRepositoryRoutes()).entrySet())
+            inputs.add("route " + route.getKey() + "=" + route.getValue());
+        inputs.add("allow-snapshots " + getAttribute(ATTR_ALLOW_SNAPSHOTS));
+        if (getAttribute(ATTR_DEPENDENCIES_FLATTENED))
+            inputs.add("flattened");
+        return inputs;
+    }
+
+    private static List<String> toKeys(List<Coordinates> deps) {
+        final List<String> keys = new ArrayList<>(deps.size());
+        for (Coordinates d : deps)
+            keys.add(toKey(d));
+        return keys;
+    }
+
+    private static String toKey(Coordinates d) {
+        return d.getCoordinates() + " " + d.getType();
+    }
+
+    private static Map<Dependency, Coordinates> toDependencies(List<Coordinates> deps) {
+        final Map<Dependency, Coordinates> ds = new LinkedHashMap<>();
+        for (Coordinates d : deps)
+            ds.put(DependencyManager.toDependency(d), d);
+        return ds;
+    }
+
+    private Lockfile getLockfile() {
+        if (!lockfileRead) {
+            lockfileRead = true;
+            try (InputStream is = openEntry(getJarFile(), Lockfile.ENTRY_NAME)) {
+                if (is != null) {
+                    lockfile = Lockfile.read(is);
+                    log(LOG_VERBOSE, "Using lockfile " + Lockfile.ENTRY_NAME);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read " + Lockfile.ENTRY_NAME, e);
+            }
+        }
+        return lockfile;
+    }
+
+    private ResolutionCache getResolutionCache() {
+        if (resolutionCache == null) {
+            final Path repo = getLocalRepo();
+            if (repo != null)
+                resolutionCache = new ResolutionCache(repo.toAbsolutePath().resolve(METADATA_DIR_NAME).resolve(RESOLUTION_CACHE_NAME));
+        }
+        return resolutionCache;
+    }
+
+    private VersionCache getVersionCache() {
+        if (versionCache == null) {
+            final Path repo = getLocalRepo();
+            if (repo != null)
+                versionCache = new VersionCache(repo.toAbsolutePath().resolve(METADATA_DIR_NAME).resolve(VERSION_CACHE_NAME));
+        }
+        return versionCache;
+    }
+
+    private PomCache getPomCache() {
+        if (pomCache == null) {
+            final Path repo = getLocalRepo();
+            if (repo != null) {
+                try {
+                    final Path jar = getJarFile().toAbsolutePath();
+                    pomCache = new PomCache(repo.toAbsolutePath().resolve(METADATA_DIR_NAME).resolve(POM_CACHE_NAME)
+                            .resolve(ResolutionCache.key(Collections.singleton(jar.toString()))), PomCache.stamp(jar));
+                } catch (IOException e) {
+                    log(LOG_VERBOSE, "Could not open POM cache: " + e.getMessage());
+                }
+            }
+        }
+        return pomCache;
+    }
+
+    @Override
+    public BomCache getBomCache() {
+        if (bomCache == null) {
+            final Path repo = getLocalRepo();
+            if (repo != null)
+                bomCache = new BomCache(repo.toAbsolutePath().resolve(METADATA_DIR_NAME).resolve(BOM_CACHE_NAME), systemPropertyEmptyOrTrue(PROP_RESET));
+        }
+        return bomCache;
+    }
+
+    @Override
+    public Pom.ParentCache getParentCache() {
+        final MavenCapsule last = getLastMavenCapsule();
+        if (last.parentCache == null)
+            last.parentCache = new Pom.ParentCache();
+        return last.parentCache;
+    }
+
+    private MissingCache getMissingCache() {
+        final MavenCapsule last = getLastMavenCapsule();
+        if (last.missingCache == null) {
+            final Path repo = getLocalRepo();
+            final long ttl = getMissingTtl();
+            if (repo != null && ttl != 0)
+                last.missingCache = new MissingCache(repo.toAbsolutePath().resolve(METADATA_DIR_NAME).resolve(MISSING_CACHE_NAME), ttl < 0 ? -1 : ttl * 1000);
+        }
+        return last.missingCache;
+    }
+
+    private RepositoryStats getRepositoryStats() {
+        final MavenCapsule last = getLastMavenCapsule();
+        if (last.repositoryStats == null) {
+            final Path repo = getLocalRepo();
+            if (repo != null)
+                last.repositoryStats = new RepositoryStats(repo.toAbsolutePath().resolve(METADATA_DIR_NAME).resolve(REPOSITORY_STATS_NAME));
+        }
+        return last.repositoryStats;
+    }
+
+    private void saveRepositoryStats() {
+        final RepositoryStats stats = getLastMavenCapsule().repositoryStats;
+        if (stats == null)
+            return;
+        if (isLogging(PROFILE)) {
+            for (Map.Entry<String, String> e : stats.summary().entrySet())
+                log(PROFILE, "PROFILE repository " + e.getKey() + ": " + e.getValue());
+        }
+        try {
+            stats.save();
+        } catch (IOException e) {
+            log(LOG_VERBOSE, "Could not save repository statistics: " + e.getMessage());
+        }
+    }
+
+    private static boolean isAdaptiveRepositoryOrder() {
+        final String order = emptyToNull(getProperty(PROP_REPOSITORY_ORDER));
+        if (order == null || REPOSITORY_ORDER_ADAPTIVE.equals(order))
+            return true;
+        if (REPOSITORY_ORDER_FIXED.equals(order))
+            return false;
+        throw new IllegalArgumentException("Illegal value for " + PROP_REPOSITORY_ORDER + ": " + order + " (must be adaptive or fixed)");
+    }
+
     private DependencyManager getDependencyManager() {
         final DependencyManager dm = initDependencyManager();
         if (dm == null)
@@ -300,6 +983,10 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
         if (dependencyManager == null) {
             dependencyManager = createDependencyManager();
             if (dependencyManager != null) {
+                setUpdatePolicies();
+                setRepositoryRoutes();
+                getDependencyManager().setMissingCache(getMissingCache());
+                getDependencyManager().setRepositoryStats(getRepositoryStats(), isAdaptiveRepositoryOrder());
                 setDependencyRepositories(getAttribute(ATTR_REPOSITORIES));
                 setManagedDependencies();
             }
@@ -309,7 +996,26 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
 
     private DependencyManager createDependencyManager() {
         final boolean reset = systemPropertyEmptyOrTrue(PROP_RESET);
-        return createDependencyManager(getLocalRepo().toAbsolutePath(), reset, getLogLevel());
+        final Path repo = getLocalRepo().toAbsolutePath();
+
+        // all capsules in the caplet chain share a single repository system, session cache, and resolution results
+        final MavenCapsule last = getLastMavenCapsule();
+        if (last.sharedDependencyManager != null && repo.equals(last.sharedLocalRepo))
+            return new DependencyManager(last.sharedDependencyManager, getLogLevel());
+
+        final DependencyManager dm = createDependencyManager(repo, reset, getLogLevel());
+        if (dm != null && last.sharedDependencyManager == null) {
+            last.sharedDependencyManager = dm;
+            last.sharedLocalRepo = repo;
+        }
+        return dm;
+    }
+
+    private MavenCapsule getLastMavenCapsule() {
+        MavenCapsule last = this;
+        for (MavenCapsule ct; (ct = last.getCallTarget(MavenCapsule.class)) != null;)
+            last = ct;
+        return last;
     }
 
     protected DependencyManager createDependencyManager(Path localRepo, boolean reset, int logLevel) {
@@ -322,6 +1028,14 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
         return new DependencyManager(localRepo, reset, logLevel);
     }
 
+    private void setUpdatePolicies() {
+        getDependencyManager().setUpdatePolicies(getUpdatePolicies());
+    }
+
+    private void setRepositoryRoutes() {
+        getDependencyManager().setRepositoryRoutes(getRepositoryRoutes());
+    }
+
     private void setDependencyRepositories(List<String> repositories) {
         getDependencyManager().setRepositories(repositories, getAttribute(ATTR_ALLOW_SNAPSHOTS));
     }
@@ -354,10 +1068,18 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
         return localRepo;
     }
 
-    private static String getPomJarEntryName(Dependency dep) {
+    /**
+     * Like {@code getEntryInputStream}, but looks the entry up in the JAR's (shared) central-directory index rather than scanning the JAR.
+     */
+    private static InputStream openEntry(Path jarFile, String entry) throws IOException {
+        final ZipIndex index = ZipIndex.of(jarFile);
+        return index != null ? index.getInputStream(entry) : getEntryInputStream(jarFile, entry);
+    }
+
+    private static String getPomJarEntryName(Coordinates dep) {
         return "META-INF/maven/"
-               + dep.getArtifact().getGroupId() + "/"
-               + dep.getArtifact().getArtifactId() + "/"
+               + dep.getGroupId() + "/"
+               + dep.getArtifactId() + "/"
                + POM_FILE;
     }
 
@@ -368,6 +1090,11 @@ public class MavenCapsule extends Capsule implements capsule.MavenCapsule {
             ret.add(o);
     }
 
+    private static boolean isSnapshot(String coords) {
+        final String version = new Coordinates(coords, "jar").getVersion();
+        return version == null || version.endsWith("-SNAPSHOT");
+    }
+
     private static boolean isDependency(String lib) {
         return lib.contains(":") && !lib.contains(":\\");
     }
@@ -0,0 +1,133 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import capsule.PomReader.Dependency;
+
+/**
+ * A persistent cache of the (interpolated) managed dependencies of {@code import}-scope BOMs, keyed by the BOMs' coordinates.
+ * <p>
+ * Released BOMs never change, so entries never expire; SNAPSHOT BOMs are not cached.
+ * This class only uses JDK classes, so that a cache hit does not load any of the Aether machinery, nor read the BOM's POM.
+ */
+public final class BomCache {
+    private static final String HEADER = "capsule-maven-bom 1";
+    private static final char SEP = '\t';
+    private static final int FIELDS = 8;
+
+    private final Path dir;
+    private final boolean refresh;
+
+    /**
+     * @param dir     the cache directory
+     * @param refresh whether cached entries are ignored (and replaced)
+     */
+    public BomCache(Path dir, boolean refresh) {
+        this.dir = dir;
+        this.refresh = refresh;
+    }
+
+    /**
+     * Returns the cached managed dependencies of the given BOM, or {@code null} if there are none.
+     */
+    List<Dependency> get(String coords) throws IOException {
+        if (refresh || !isCacheable(coords))
+            return null;
+        final List<Dependency> deps = new ArrayList<>();
+        try (BufferedReader r = Files.newBufferedReader(file(coords), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(r.readLine()) || !coords.equals(r.readLine()))
+                return null;
+            for (String line; (line = r.readLine()) != null;) {
+                if (line.isEmpty())
+                    continue;
+                final String[] fs = split(line);
+                if (fs == null)
+                    return null;
+                deps.add(new Dependency(fs[0], fs[1], emptyToNull(fs[2]), fs[3], emptyToNull(fs[4]), emptyToNull(fs[5]), Boolean.parseBoolean(fs[6]),
+                        fs[7].isEmpty() ? Collections.<String>emptyList() : Collections.unmodifiableList(Arrays.asList(fs[7].split(",")))));
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return Collections.unmodifiableList(deps);
+    }
+
+    /**
+     * Stores the managed dependencies of the given BOM, replacing any existing entry.
+     */
+    void put(String coords, Collection<Dependency> deps) throws IOException {
+        if (!isCacheable(coords))
+            return;
+        Files.createDirectories(dir);
+        final Path file = file(coords);
+        final Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(HEADER);
+                w.newLine();
+                w.write(coords);
+                w.newLine();
+                for (Dependency d : deps) {
+                    final StringBuilder exclusions = new StringBuilder();
+                    for (String ex : d.exclusions)
+                        exclusions.append(exclusions.length() > 0 ? "," : "").append(ex);
+                    final String[] fs = {d.groupId, d.artifactId, d.version, d.type, d.classifier, d.scope, Boolean.toString(d.optional), exclusions.toString()};
+                    for (int i = 0; i < fs.length; i++) {
+                        if (i > 0)
+                            w.write(SEP);
+                        w.write(fs[i] != null ? fs[i] : "");
+                    }
+                    w.newLine();
+                }
+            }
+            ResolutionCache.move(tmp, file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path file(String coords) {
+        return dir.resolve(ResolutionCache.key(Collections.singleton(coords)));
+    }
+
+    private static boolean isCacheable(String coords) {
+        return !coords.endsWith("-SNAPSHOT") && !coords.contains("${");
+    }
+
+    private static String[] split(String line) {
+        final String[] fs = new String[FIELDS];
+        int start = 0;
+        for (int i = 0; i < FIELDS - 1; i++) {
+            final int end = line.indexOf(SEP, start);
+            if (end < 0)
+                return null;
+            fs[i] = line.substring(start, end);
+            start = end + 1;
+        }
+        fs[FIELDS - 1] = line.substring(start);
+        return fs;
+    }
+
+    private static String emptyToNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.net.ssl.SSLContext;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.aether.ConfigurationProperties;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
+import org.eclipse.aether.repository.AuthenticationContext;
+import org.eclipse.aether.repository.Proxy;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.ArtifactDownload;
+import org.eclipse.aether.spi.connector.ArtifactUpload;
+import org.eclipse.aether.spi.connector.MetadataDownload;
+import org.eclipse.aether.spi.connector.MetadataUpload;
+import org.eclipse.aether.spi.connector.RepositoryConnector;
+import org.eclipse.aether.spi.connector.layout.RepositoryLayout;
+import org.eclipse.aether.spi.connector.transport.AbstractTransporter;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.PeekTask;
+import org.eclipse.aether.spi.connector.transport.PutTask;
+import org.eclipse.aether.spi.connector.transport.Transporter;
+import org.eclipse.aether.util.ConfigUtils;
+
+/**
+ * An HTTP transporter that revalidates artifacts and metadata already in the local repository with conditional requests.
+ * <p>
+ * The validators ({@code ETag} and {@code Last-Modified}) returned with an artifact or metadata file are stored next to it, in a
+ * {@code .validators} file, together with the SHA-1 of the content they describe, the first time the file is downloaded again (e.g. a
+ * SNAPSHOT, or metadata whose update interval has passed). On later downloads they are sent with the request, and if the server responds
+ * with {@code 304 Not Modified}, the content is taken from the local file rather than transferred again. Files not yet in the local
+ * repository are downloaded by the regular HTTP transporter.
+ * <p>
+ * The HTTP client (and its connection pool) used for revalidation is only created once there is something to revalidate, and is shared
+ * by all transporters of the session to the same repository (with the same proxy and authentication).
+ * <p>
+ * The transporter only knows the local files of downloads that go through a connector {@link #track(RepositoryConnector, RepositorySystemSession, RemoteRepository, RepositoryLayout) tracked}
+ * by it. Everything else (checksums, uploads, and requests to repositories using authentication other than a username and password)
+ * goes through the regular HTTP transporter.
+ */
+final class ConditionalHttpTransporter extends AbstractTransporter {
+    private static final String TARGETS = ConditionalHttpTransporter.class.getName() + ".targets";
+    private static final String CLIENTS = ConditionalHttpTransporter.class.getName() + ".clients";
+    private static final Object NO_CLIENT = new Object(); // the repository's authentication is not supported
+    static final String CONFIG_PROP_STATS = "capsule.repository.stats";
+    private static final String CONFIG_PROP_THREADS = "aether.connector.basic.threads"; // see BasicRepositoryConnector
+    private static final int DEFAULT_THREADS = 5;
+    private static final String VALIDATORS_SUFFIX = ".validators";
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String SHA1 = "SHA-1";
+
+    private final Transporter delegate;
+    private final RepositorySystemSession session;
+    private final RemoteRepository repository;
+    private final URI base;
+    private final Map<String, File> targets;
+    private final RepositoryStats stats;
+
+    ConditionalHttpTransporter(Transporter delegate, RepositorySystemSession session, RemoteRepository repository) {
+        this.delegate = delegate;
+        this.session = session;
+        this.repository = repository;
+        this.base = URI.create(repository.getUrl().endsWith("/") ? repository.getUrl() : repository.getUrl() + "/");
+        this.targets = sessionMap(session, TARGETS);
+        final Object stats = session.getConfigProperties().get(CONFIG_PROP_STATS);
+        this.stats = stats instanceof RepositoryStats ? (RepositoryStats) stats : null;
+    }
+
+    /**
+     * Wraps a connector so that the transporters of its repository know where its downloads are stored.
+     */
+    static RepositoryConnector track(final RepositoryConnector connector, RepositorySystemSession session,
+                                     final RemoteRepository repository, final RepositoryLayout layout) {
+        final ConcurrentMap<String, File> targets = sessionMap(session, TARGETS);
+        return new RepositoryConnector() {
+            @Override
+            public void get(Collection<? extends ArtifactDownload> artifactDownloads, Collection<? extends MetadataDownload> metadataDownloads) {
+                final Map<String, File> ts = new HashMap<>();
+                if (artifactDownloads != null) {
+                    for (ArtifactDownload d : artifactDownloads) {
+                        if (!d.isExistenceCheck())
+                            ts.put(key(repository, layout.getLocation(d.getArtifact(), false)), d.getFile());
+                    }
+                }
+                if (metadataDownloads != null) {
+                    for (MetadataDownload d : metadataDownloads)
+                        ts.put(key(repository, layout.getLocation(d.getMetadata(), false)), d.getFile());
+                }
+                targets.putAll(ts);
+                try {
+                    connector.get(artifactDownloads, metadataDownloads);
+                } finally {
+                    for (Map.Entry<String, File> e : ts.entrySet())
+                        targets.remove(e.getKey(), e.getValue());
+                }
+            }
+
+            @Override
+            public void put(Collection<? extends ArtifactUpload> artifactUploads, Collection<? extends MetadataUpload> metadataUploads) {
+                connector.put(artifactUploads, metadataUploads);
+            }
+
+            @Override
+            public void close() {
+                connector.close();
+            }
+
+            @Override
+            public String toString() {
+                return connector.toString();
+            }
+        };
+    }
+
+    @Override
+    public int classify(Throwable error) {
+        return delegate.classify(error);
+    }
+
+    @Override
+    protected void implPeek(PeekTask task) throws Exception {
+        final long start = System.nanoTime();
+        boolean error = true;
+        try {
+            delegate.peek(task);
+            error = false;
+        } catch (Exception e) {
+            error = classify(e) != ERROR_NOT_FOUND;
+            throw e;
+        } finally {
+            record(start, error);
+        }
+    }
+
+    @Override
+    protected void implPut(PutTask task) throws Exception {
+        delegate.put(task);
+    }
+
+    @Override
+    protected void implGet(GetTask task) throws Exception {
+        final long start = System.nanoTime();
+        boolean error = true;
+        try {
+            get0(task);
+            error = false;
+        } catch (Exception e) {
+            error = classify(e) != ERROR_NOT_FOUND;
+            throw e;
+        } finally {
+            record(start, error);
+        }
+    }
+
+    private void record(long start, boolean error) {
+        if (stats != null)
+            stats.record(repository.getUrl(), (System.nanoTime() - start) / 1_000_000, error);
+    }
+
+    private void get0(GetTask task) throws Exception {
+        // first downloads (e.g. of release artifacts) go through the regular transporter; only files downloaded again are revalidated
+        final File target = targets.get(key(repository, task.getLocation()));
+        final CloseableHttpClient client = target != null && target.isFile() ? client() : null;
+        if (client == null) {
+            delegate.get(task);
+            return;
+        }
+        final Validators cached = Validators.read(validatorsFile(target));
+        if (cached == null || !get(client, task, target, cached))
+            get(client, task, target, null);
+    }
+
+    /**
+     * Downloads the task's resource, conditionally if {@code cached} is not {@code null}.
+     *
+     * @return {@code false} if the resource has not been modified, but the local file no longer matches the validators
+     */
+    private boolean get(CloseableHttpClient client, GetTask task, File target, Validators cached) throws Exception {
+        final HttpGet request = new HttpGet(base.resolve(task.getLocation()));
+        request.setHeader("Accept-Encoding", "identity");
+        request.setHeader("Cache-Control", "no-cache, no-store");
+        request.setHeader("Pragma", "no-cache");
+        if (cached != null) {
+            if (cached.etag != null)
+                request.setHeader("If-None-Match", cached.etag);
+            if (cached.lastModified != null)
+                request.setHeader("If-Modified-Since", cached.lastModified);
+        }
+        try (CloseableHttpResponse response = client.execute(request)) {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                return copy(task, target, cached.sha1);
+            }
+            if (status >= 300) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                throw new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
+            }
+
+            final HttpEntity entity = response.getEntity();
+            final MessageDigest sha1 = MessageDigest.getInstance(SHA1);
+            utilGet(task, new DigestInputStream(entity.getContent(), sha1), true, entity.getContentLength(), false);
+            store(target, new Validators(header(response.getFirstHeader(ETAG)), header(response.getFirstHeader(LAST_MODIFIED)), hex(sha1.digest())));
+            return true;
+        }
+    }
+
+    /**
+     * Hands the contents of the (unmodified) local file to the task, provided it is what the validators describe.
+     */
+    private boolean copy(GetTask task, File target, String sha1) throws Exception {
+        if (!sha1.equals(hex(digest(target))))
+            return false;
+        utilGet(task, Files.newInputStream(target.toPath()), true, target.length(), false);
+        task.setChecksum(SHA1, sha1);
+        return true;
+    }
+
+    @Override
+    protected void implClose() {
+        delegate.close(); // the client is shared by the session's transporters
+    }
+
+    //<editor-fold defaultstate="collapsed" desc="HTTP Client">
+    /////////// HTTP Client ///////////////////////////////////
+    /**
+     * Returns the session's client for the repository, or {@code null} if its authentication is not supported.
+     */
+    private CloseableHttpClient client() {
+        final ConcurrentMap<Object, Object> clients = sessionMap(session, CLIENTS);
+        final Object key = Arrays.asList(repository.getUrl(), repository.getProxy(), repository.getAuthentication());
+        Object client = clients.get(key);
+        if (client == null) {
+            final CloseableHttpClient c = newClient(session, repository);
+            client = clients.putIfAbsent(key, c != null ? c : NO_CLIENT);
+            if (client == null)
+                client = c != null ? c : NO_CLIENT;
+            else if (c != null)
+                close(c);
+        }
+        return client != NO_CLIENT ? (CloseableHttpClient) client : null;
+    }
+
+    private static void close(CloseableHttpClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static CloseableHttpClient newClient(RepositorySystemSession session, RemoteRepository repository) {
+        final CredentialsProvider credentials = new BasicCredentialsProvider();
+        final URI uri = URI.create(repository.getUrl());
+        if (!addCredentials(credentials, AuthenticationContext.forRepository(session, repository), new AuthScope(uri.getHost(), uri.getPort())))
+            return null;
+
+        final Proxy proxy = repository.getProxy();
+        final HttpHost proxyHost = proxy != null ? new HttpHost(proxy.getHost(), proxy.getPort()) : null;
+        if (proxy != null && !addCredentials(credentials, AuthenticationContext.forProxy(session, repository), new AuthScope(proxy.getHost(), proxy.getPort())))
+            return null;
+
+        final String id = repository.getId();
+        final int connectTimeout = ConfigUtils.getInteger(session, ConfigurationProperties.DEFAULT_CONNECT_TIMEOUT,
+                ConfigurationProperties.CONNECT_TIMEOUT + "." + id, ConfigurationProperties.CONNECT_TIMEOUT);
+        final int requestTimeout = ConfigUtils.getInteger(session, ConfigurationProperties.DEFAULT_REQUEST_TIMEOUT,
+                ConfigurationProperties.REQUEST_TIMEOUT + "." + id, ConfigurationProperties.REQUEST_TIMEOUT);
+        final List<Header> headers = new ArrayList<>();
+        for (Map.Entry<?, ?> e : ConfigUtils.getMap(session, Collections.emptyMap(), ConfigurationProperties.HTTP_HEADERS + "." + id, ConfigurationProperties.HTTP_HEADERS).entrySet()) {
+            if (e.getKey() instanceof String && e.getValue() instanceof String)
+                headers.add(new BasicHeader((String) e.getKey(), (String) e.getValue()));
+        }
+
+        final int threads = ConfigUtils.getInteger(session, DEFAULT_THREADS, CONFIG_PROP_THREADS);
+        return HttpClientBuilder.create()
+                .setMaxConnPerRoute(threads)
+                .setMaxConnTotal(threads)
+                .setUserAgent(ConfigUtils.getString(session, ConfigurationProperties.DEFAULT_USER_AGENT, ConfigurationProperties.USER_AGENT))
+                .setDefaultHeaders(headers)
+                .setDefaultCredentialsProvider(credentials)
+                .setProxy(proxyHost)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setConnectionRequestTimeout(connectTimeout)
+                        .setSocketTimeout(requestTimeout)
+                        .build())
+                .build();
+    }
+
+    /**
+     * Adds the username and password (if any) in the given authentication context to the credentials.
+     *
+     * @return {@code false} if the authentication requires anything else
+     */
+    private static boolean addCredentials(CredentialsProvider credentials, AuthenticationContext auth, AuthScope scope) {
+        if (auth == null)
+            return true;
+        try {
+            if (auth.get(AuthenticationContext.SSL_CONTEXT, SSLContext.class) != null
+                    || auth.get(AuthenticationContext.NTLM_DOMAIN) != null
+                    || auth.get(AuthenticationContext.NTLM_WORKSTATION) != null)
+                return false;
+            final String username = auth.get(AuthenticationContext.USERNAME);
+            if (username != null)
+                credentials.setCredentials(scope, new UsernamePasswordCredentials(username, auth.get(AuthenticationContext.PASSWORD)));
+            return true;
+        } finally {
+            AuthenticationContext.close(auth);
+        }
+    }
+
+    private static String header(Header header) {
+        return header != null ? header.getValue() : null;
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Validators">
+    /////////// Validators ///////////////////////////////////
+    private static final class Validators {
+        final String etag;
+        final String lastModified;
+        final String sha1;
+
+        Validators(String etag, String lastModified, String sha1) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.sha1 = sha1;
+        }
+
+        static Validators read(Path file) {
+            final Properties ps = new Properties();
+            try (InputStream is = Files.newInputStream(file)) {
+                ps.load(is);
+            } catch (IOException e) {
+                return null;
+            }
+            final Validators v = new Validators(ps.getProperty(ETAG), ps.getProperty(LAST_MODIFIED), ps.getProperty(SHA1));
+            return v.sha1 != null && (v.etag != null || v.lastModified != null) ? v : null;
+        }
+    }
+
+    private static void store(File target, Validators v) throws IOException {
+        final Path file = validatorsFile(target);
+        if (v.etag == null && v.lastModified == null) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        final Properties ps = new Properties();
+        if (v.etag != null)
+            ps.setProperty(ETAG, v.etag);
+        if (v.lastModified != null)
+            ps.setProperty(LAST_MODIFIED, v.lastModified);
+        ps.setProperty(SHA1, v.sha1);
+
+        Files.createDirectories(file.getParent());
+        final Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                ps.store(os, null);
+            }
+            ResolutionCache.move(tmp, file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Path validatorsFile(File target) {
+        return target.toPath().resolveSibling(target.getName() + VALIDATORS_SUFFIX);
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Utils">
+    /////////// Utils ///////////////////////////////////
+    @SuppressWarnings("unchecked")
+    private static <K, V> ConcurrentMap<K, V> sessionMap(RepositorySystemSession session, String key) {
+        final SessionData data = session.getData();
+        for (;;) {
+            final Object map = data.get(key);
+            if (map != null)
+                return (ConcurrentMap<K, V>) map;
+            data.set(key, null, new ConcurrentHashMap<K, V>());
+        }
+    }
+
+    private static String key(RemoteRepository repository, URI location) {
+        return repository.getUrl() + '|' + location;
+    }
+
+    private static byte[] digest(File file) throws Exception {
+        final MessageDigest md = MessageDigest.getInstance(SHA1);
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            final byte[] buf = new byte[8192];
+            for (int n; (n = is.read(buf)) >= 0;)
+                md.update(buf, 0, n);
+        }
+        return md.digest();
+    }
+
+    private static String hex(byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,225 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The coordinates of a Maven dependency, as given in a capsule attribute or POM, together with the requested artifact type.
+ * <p>
+ * The coordinates are parsed once, when constructed, and kept as offsets into the coordinates string, and the hash code is
+ * computed once, so instances serve as cheap map keys.
+ * This class only uses JDK classes, so that dependencies can be looked up -- and, if their resolution is cached,
+ * resolved -- without loading {@link DependencyManager} or Aether.
+ */
+public final class Coordinates {
+    private static final String LATEST = "LATEST";
+    private static final String RELEASE = "RELEASE";
+
+    private final String coords;
+    private final String type;
+    private final int hash;
+    // offsets into coords; -1 if the part is absent, or, in artifactEnd, if the coordinates could not be parsed
+    private final int artifactEnd;
+    private final int versionStart;
+    private final int versionEnd;
+    private final int classifierStart;
+    private final int classifierEnd;
+    private final int exclusionsStart;
+
+    public Coordinates(String coords, String type) {
+        if (coords == null || type == null)
+            throw new NullPointerException();
+        this.coords = coords;
+        this.type = type;
+        this.hash = 31 * coords.hashCode() + type.hashCode();
+
+        // group:artifact[:version[:classifier]][(exclusions)], where a version may begin with '(' (an open range)
+        int[] parts = parse(coords, true);
+        if (parts == null)
+            parts = parse(coords, false); // e.g. group:artifact:(exclusions)
+        if (parts == null)
+            parts = new int[]{-1, -1, -1, -1, -1, -1};
+        this.artifactEnd = parts[0];
+        this.versionStart = parts[1];
+        this.versionEnd = parts[2];
+        this.classifierStart = parts[3];
+        this.classifierEnd = parts[4];
+        this.exclusionsStart = parts[5];
+    }
+
+    private static int[] parse(String s, boolean rangeVersion) {
+        final int n = s.length();
+        final int groupEnd = name(s, 0);
+        if (groupEnd == 0 || groupEnd == n || s.charAt(groupEnd) != ':')
+            return null;
+        final int artifactEnd = name(s, groupEnd + 1);
+        if (artifactEnd == groupEnd + 1)
+            return null;
+
+        int versionStart = -1, versionEnd = -1, classifierStart = -1, classifierEnd = -1, exclusionsStart = -1;
+        int pos = artifactEnd;
+        if (pos < n && s.charAt(pos) == ':') {
+            versionStart = pos + 1;
+            pos = versionStart;
+            if (rangeVersion && pos < n && s.charAt(pos) == '(')
+                pos++;
+            pos = versionEnd = name(s, pos);
+            if (pos < n && s.charAt(pos) == ':') {
+                classifierStart = pos + 1;
+                pos = classifierEnd = name(s, classifierStart);
+                if (classifierEnd == classifierStart)
+                    return null;
+            }
+        }
+        if (pos < n) {
+            if (s.charAt(pos) != '(')
+                return null;
+            exclusionsStart = pos + 1;
+            pos++;
+            while (pos < n && s.charAt(pos) != '(' && s.charAt(pos) != ')')
+                pos++;
+            if (pos != n - 1 || s.charAt(pos) != ')')
+                return null;
+        }
+        return new int[]{artifactEnd, versionStart, versionEnd, classifierStart, classifierEnd, exclusionsStart};
+    }
+
+    private static int name(String s, int pos) {
+        while (pos < s.length() && s.charAt(pos) != ':' && s.charAt(pos) != '(')
+            pos++;
+        return pos;
+    }
+
+    /**
+     * The coordinates in Capsule's dependency format, {@code group:artifact:version:classifier(exclusions)}.
+     */
+    public String getCoordinates() {
+        return coords;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getGroupId() {
+        return coords.substring(0, coords.indexOf(':'));
+    }
+
+    public String getArtifactId() {
+        final int start = coords.indexOf(':') + 1;
+        return coords.substring(start, artifactEnd >= 0 ? artifactEnd : name(coords, start));
+    }
+
+    /**
+     * The requested version, which may be a range, or {@code null} if none.
+     */
+    public String getVersion() {
+        check();
+        return versionEnd > versionStart ? coords.substring(versionStart, versionEnd) : null;
+    }
+
+    /**
+     * The classifier, or {@code null} if none.
+     */
+    public String getClassifier() {
+        check();
+        return classifierStart >= 0 ? coords.substring(classifierStart, classifierEnd) : null;
+    }
+
+    /**
+     * The exclusion patterns, each formatted as {@code group:artifact} (but not validated), or an empty list if none.
+     */
+    public List<String> getExclusions() {
+        check();
+        if (exclusionsStart < 0 || exclusionsStart == coords.length() - 1)
+            return Collections.emptyList();
+        final List<String> exclusions = new ArrayList<>();
+        int start = exclusionsStart;
+        for (int i = start; i < coords.length() - 1; i++) {
+            if (coords.charAt(i) == ',') {
+                exclusions.add(coords.substring(start, i));
+                start = i + 1;
+            }
+        }
+        exclusions.add(coords.substring(start, coords.length() - 1));
+        while (!exclusions.isEmpty() && exclusions.get(exclusions.size() - 1).isEmpty()) // like String.split
+            exclusions.remove(exclusions.size() - 1);
+        for (int i = 0; i < exclusions.size(); i++)
+            exclusions.set(i, exclusions.get(i).trim());
+        return exclusions;
+    }
+
+    /**
+     * Whether the requested version is a range, {@code LATEST} or {@code RELEASE},
+     * i.e., whether the version these coordinates resolve to may change over time.
+     */
+    public boolean isDynamic() {
+        final String version = getVersion();
+        return version != null
+               && (version.startsWith("[") || version.startsWith("(") || LATEST.equals(version) || RELEASE.equals(version));
+    }
+
+    /**
+     * Returns these coordinates with the requested version replaced by the given one.
+     */
+    public Coordinates withVersion(String version) {
+        check();
+        final String classifier = getClassifier();
+        return new Coordinates(getGroupId() + ":" + getArtifactId() + ":" + version
+                               + (classifier != null ? ":" + classifier : "")
+                               + (exclusionsStart >= 0 ? coords.substring(exclusionsStart - 1) : ""), type);
+    }
+
+    /**
+     * The artifact's location in a local repository with the default Maven layout. As in {@link DependencyManager}, the type is taken to
+     * be the artifact's extension.
+     *
+     * @throws IllegalStateException if the requested version is absent or {@link #isDynamic() dynamic}
+     */
+    public Path getLocalPath(Path localRepo) {
+        final String version = getVersion();
+        if (version == null || isDynamic())
+            throw new IllegalStateException("Not a fixed version: " + coords);
+        final String classifier = getClassifier();
+        return localRepo
+                .resolve(getGroupId().replace('.', '/'))
+                .resolve(getArtifactId())
+                .resolve(version)
+                .resolve(getArtifactId() + "-" + version + (classifier != null ? "-" + classifier : "") + "." + type);
+    }
+
+    private void check() {
+        if (artifactEnd < 0)
+            throw new IllegalArgumentException("Could not parse dependency: " + coords);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof Coordinates))
+            return false;
+        final Coordinates other = (Coordinates) obj;
+        return hash == other.hash && coords.equals(other.coords) && type.equals(other.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return coords + " (" + type + ")";
+    }
+}
@@ -8,13 +8,17 @@
  */
 package capsule;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.graph.Dependency;
 import org.eclipse.aether.graph.Exclusion;
 
 import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactResult;
 
 /**
  * Used by build tool plugins
@@ -41,6 +45,33 @@ public class Dependencies {
         return toCapsuleArtifactString(d.getArtifact()) + toCapsuleExclusionsString(d.getExclusions());
     }
 
+    /**
+     * Adds a dependency and the artifacts it has been resolved to to a lockfile.
+     * The dependency should appear in the capsule's manifest as returned by {@link #toCapsuleDependencyString(Dependency)}.
+     *
+     * @param lockfile The lockfile
+     * @param d        The dependency
+     * @param resolved All of the dependency's resolved artifacts (including the transitive ones), in class path order
+     */
+    public static Lockfile lock(Lockfile lockfile, Dependency d, List<ArtifactResult> resolved) throws IOException {
+        final List<Lockfile.Artifact> artifacts = new ArrayList<>(resolved.size());
+        for (ArtifactResult r : resolved)
+            artifacts.add(toLockedArtifact(r.getArtifact(), r.getRepository() instanceof RemoteRepository ? (RemoteRepository) r.getRepository() : null));
+        return lockfile.put(toCapsuleDependencyString(d), d.getArtifact().getExtension(), artifacts);
+    }
+
+    /**
+     * Builds the lockfile representation of a resolved Aether Artifact object
+     *
+     * @param a      The artifact; its file must be set
+     * @param origin The repository the artifact has been resolved from; may be {@code null}
+     */
+    public static Lockfile.Artifact toLockedArtifact(Artifact a, RemoteRepository origin) throws IOException {
+        return new Lockfile.Artifact(a.getGroupId(), a.getArtifactId(), a.getExtension(), a.getClassifier(), a.getVersion(),
+                a.getFile() != null ? Lockfile.sha256(a.getFile().toPath()) : null,
+                origin != null ? origin.getId() + "(" + origin.getUrl() + ")" : null);
+    }
+
     private static String toCapsuleArtifactString(Artifact a) {
         return DependencyManager.artifactToCoords(a);
     }
@@ -10,6 +10,7 @@ package capsule;
 
 import static java.util.Collections.unmodifiableMap;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -17,25 +18,36 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
 import org.eclipse.aether.AbstractForwardingRepositorySystemSession;
 import org.eclipse.aether.ConfigurationProperties;
+import org.eclipse.aether.DefaultRepositoryCache;
 import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryCache;
 import org.eclipse.aether.RepositoryException;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
+import org.eclipse.aether.RequestTrace;
 import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.collection.CollectRequest;
 import org.eclipse.aether.collection.CollectResult;
 import org.eclipse.aether.collection.DependencyCollectionException;
+import org.eclipse.aether.collection.DependencyGraphTransformer;
+import org.eclipse.aether.graph.DefaultDependencyNode;
 import org.eclipse.aether.graph.Dependency;
 import org.eclipse.aether.graph.DependencyFilter;
 import org.eclipse.aether.graph.DependencyNode;
@@ -49,6 +61,11 @@ import org.eclipse.aether.repository.Proxy;
 import org.eclipse.aether.repository.ProxySelector;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.repository.RepositoryPolicy;
+import org.eclipse.aether.resolution.ArtifactDescriptorException;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
 import org.eclipse.aether.resolution.ArtifactResult;
 import org.eclipse.aether.resolution.DependencyRequest;
 import org.eclipse.aether.resolution.DependencyResolutionException;
@@ -57,8 +74,28 @@ import org.eclipse.aether.resolution.VersionRangeRequest;
 import org.eclipse.aether.resolution.VersionRangeResult;
 import org.eclipse.aether.resolution.VersionRequest;
 import org.eclipse.aether.resolution.VersionResult;
+import org.eclipse.aether.spi.connector.ArtifactDownload;
+import org.eclipse.aether.spi.connector.ArtifactUpload;
+import org.eclipse.aether.spi.connector.MetadataDownload;
+import org.eclipse.aether.spi.connector.MetadataUpload;
+import org.eclipse.aether.spi.connector.RepositoryConnector;
+import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
+import org.eclipse.aether.spi.connector.layout.RepositoryLayout;
+import org.eclipse.aether.spi.connector.layout.RepositoryLayoutProvider;
+import org.eclipse.aether.spi.connector.transport.Transporter;
+import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.spi.locator.Service;
+import org.eclipse.aether.spi.locator.ServiceLocator;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.MetadataNotFoundException;
+import org.eclipse.aether.transfer.NoRepositoryConnectorException;
+import org.eclipse.aether.transfer.NoRepositoryLayoutException;
+import org.eclipse.aether.transfer.NoTransporterException;
+import org.eclipse.aether.transport.http.HttpTransporterFactory;
 import org.eclipse.aether.util.artifact.ArtifactIdUtils;
+import org.eclipse.aether.util.ConfigUtils;
 import org.eclipse.aether.util.artifact.JavaScopes;
+import org.eclipse.aether.util.graph.transformer.ChainedDependencyGraphTransformer;
 import org.eclipse.aether.util.graph.transformer.ConflictResolver;
 import org.eclipse.aether.version.Version;
 
@@ -74,14 +111,23 @@ public class DependencyManager {
     private static final String PROP_OFFLINE = "capsule.offline";
     private static final String PROP_CONNECT_TIMEOUT = "capsule.connect.timeout";
     private static final String PROP_REQUEST_TIMEOUT = "capsule.request.timeout";
+    private static final String PROP_DOWNLOAD_THREADS = "capsule.download.threads";
+    private static final String PROP_PIPELINE = "capsule.resolve.pipeline";
+    private static final String PROP_COLLECT_THREADS = "capsule.collect.threads";
     private static final String PROP_USER_HOME = "user.home";
 
     private static final String ENV_CONNECT_TIMEOUT = "CAPSULE_CONNECT_TIMEOUT";
     private static final String ENV_REQUEST_TIMEOUT = "CAPSULE_REQUEST_TIMEOUT";
+    private static final String ENV_DOWNLOAD_THREADS = "CAPSULE_DOWNLOAD_THREADS";
+
+    private static final String CONFIG_PROP_DOWNLOAD_THREADS = "aether.connector.basic.threads"; // see BasicRepositoryConnector
+    private static final String CONFIG_PROP_MISSING_CACHE = "capsule.missing.cache";
+    private static final int DEFAULT_DOWNLOAD_THREADS = 5;
 
     static final Path DEFAULT_LOCAL_MAVEN = Paths.get(System.getProperty(PROP_USER_HOME), ".m2");
 
     private static final String LATEST_VERSION = "[0,)";
+    private static final String ALL_REPOS = "*";
     public static final int LOG_NONE = 0;
     public static final int LOG_QUIET = 1;
     public static final int LOG_VERBOSE = 2;
@@ -105,9 +151,16 @@ public class DependencyManager {
     private final boolean offline;
     protected final RepositorySystem system;
     private final LocalRepository localRepo;
+    private final RepositoryCache cache;
+    private final Map<List<Object>, Map<Dependency, List<Path>>> results;
     private RepositorySystemSession session;
     private List<RemoteRepository> repos;
     private List<Dependency> managedDependencies;
+    private Map<String, String> updatePolicies = Collections.emptyMap();
+    private RepositoryRoutes routes;
+    private MissingCache missingCache;
+    private RepositoryStats stats;
+    private boolean adaptiveOrder;
     private final int logLevel;
 
     //<editor-fold desc="Construction and Setup">
@@ -124,6 +177,26 @@ public class DependencyManager {
 
         this.localRepo = new LocalRepository(localRepoPath.toFile());
         this.system = newRepositorySystem();
+        this.cache = new DefaultRepositoryCache();
+        this.results = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Creates a dependency manager for another capsule in the same caplet chain as the given one.
+     * The new manager has its own repositories, managed dependencies and update policies, but shares the given one's local repository,
+     * repository system, in-memory caches (of artifact descriptors, versions and metadata), and dependency resolution results,
+     * so that whatever one capsule in the chain has collected is not collected again by another.
+     */
+    public DependencyManager(DependencyManager shared, int logLevel) {
+        this.logLevel = logLevel;
+        this.forceRefresh = shared.forceRefresh;
+        this.offline = shared.offline;
+        this.localRepo = shared.localRepo;
+        this.system = shared.system;
+        this.cache = shared.cache;
+        this.results = shared.results;
+
+        log(LOG_DEBUG, "DependencyManager - Local repo: " + localRepo.getBasedir() + " (shared)");
     }
 
     public final DependencyManager setRepositories(List<String> repos, boolean allowSnapshots) {
@@ -131,12 +204,14 @@ public class DependencyManager {
             //noinspection ArraysAsListWithZeroOrOneArgument
             repos = Arrays.asList("central");
 
-        final List<RemoteRepository> rs = new ArrayList<>();
+        List<RemoteRepository> rs = new ArrayList<>();
         for (String r : repos) {
             RemoteRepository repo = createRepo(r, allowSnapshots);
             if (!rs.contains(repo))
                 rs.add(repo);
         }
+        if (adaptiveOrder && stats != null)
+            rs = orderMirrors(rs, stats);
 
         if (!Objects.equals(this.repos, rs)) {
             this.repos = rs;
@@ -149,10 +224,139 @@ public class DependencyManager {
         this.managedDependencies = toManagedDependencies(managedDependencies);
         return this;
     }
-    
-    /** @noinspection UnusedParameters*/
+
+    /**
+     * Sets the update policies -- {@code never}, {@code always}, {@code daily} or {@code interval:MINUTES} -- of repositories' metadata and SNAPSHOTs.
+     * Must be called before {@link #setRepositories(List, boolean) setRepositories}.
+     *
+     * @param policies a map from repository ids, or {@code *} for all repositories, to update policies.
+     *                 If empty, no updates are checked for (unless a refresh is forced).
+     */
+    public final DependencyManager setUpdatePolicies(Map<String, String> policies) {
+        for (String policy : policies.values())
+            validateUpdatePolicy(policy);
+        this.updatePolicies = new HashMap<>(policies);
+        if (session instanceof DefaultRepositorySystemSession)
+            ((DefaultRepositorySystemSession) session).setUpdatePolicy(getSessionUpdatePolicy());
+        return this;
+    }
+
+    /**
+     * Routes artifacts to the repositories that can serve them, so that each is only looked for in those (see {@link RepositoryRoutes}).
+     *
+     * @param routes a map from groupId patterns -- {@code GROUP}, {@code GROUP.*} or {@code *} -- to comma-separated repository ids.
+     *               If empty, all artifacts are looked for in all repositories.
+     */
+    public final DependencyManager setRepositoryRoutes(Map<String, String> routes) {
+        this.routes = routes.isEmpty() ? null : new RepositoryRoutes(routes);
+        if (session instanceof DefaultRepositorySystemSession)
+            ((DefaultRepositorySystemSession) session).setConfigProperty(RepositoryRoutes.CONFIG_PROP_ROUTES, this.routes);
+        return this;
+    }
+
+    /**
+     * Sets the cache recording which artifacts and metadata are missing from which (HTTP) repositories, so that they are not requested
+     * from them again until the cache's entries expire.
+     *
+     * @param cache the cache, or {@code null} for none
+     */
+    public final DependencyManager setMissingCache(MissingCache cache) {
+        this.missingCache = cache;
+        if (session instanceof DefaultRepositorySystemSession)
+            ((DefaultRepositorySystemSession) session).setConfigProperty(CONFIG_PROP_MISSING_CACHE, cache);
+        return this;
+    }
+
+    /**
+     * Sets the statistics recording the latency and success rate of requests to each (HTTP) repository.
+     * Must be called before {@link #setRepositories(List, boolean) setRepositories}.
+     *
+     * @param stats    the statistics, or {@code null} for none
+     * @param adaptive whether repositories sharing an id (i.e., mirrors of one another) are tried in the order of their observed
+     *                 performance, rather than in the order they are listed
+     */
+    public final DependencyManager setRepositoryStats(RepositoryStats stats, boolean adaptive) {
+        this.stats = stats;
+        this.adaptiveOrder = adaptive;
+        if (session instanceof DefaultRepositorySystemSession)
+            ((DefaultRepositorySystemSession) session).setConfigProperty(ConditionalHttpTransporter.CONFIG_PROP_STATS, stats);
+        return this;
+    }
+
+    /**
+     * Reorders each group of repositories sharing an id by their expected cost (see {@link RepositoryStats#cost(String) cost}), leaving the
+     * groups' positions, and all other repositories, in place. A group is left in its listed order unless the cost of all of its members is known.
+     */
+    static List<RemoteRepository> orderMirrors(List<RemoteRepository> repos, RepositoryStats stats) {
+        final Map<String, List<RemoteRepository>> groups = new HashMap<>();
+        for (RemoteRepository r : repos) {
+            List<RemoteRepository> group = groups.get(r.getId());
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(r.getId(), group);
+            }
+            group.add(r);
+        }
+        final Map<RemoteRepository, Double> costs = new HashMap<>();
+        for (List<RemoteRepository> group : groups.values()) {
+            if (group.size() < 2)
+                continue;
+            final Map<RemoteRepository, Double> cs = new HashMap<>();
+            for (RemoteRepository r : group) {
+                final double cost = stats.cost(r.getUrl());
+                if (cost >= 0)
+                    cs.put(r, cost);
+            }
+            if (cs.size() == group.size()) {
+                costs.putAll(cs);
+                Collections.sort(group, new Comparator<RemoteRepository>() {
+                    @Override
+                    public int compare(RemoteRepository r1, RemoteRepository r2) {
+                        return Double.compare(costs.get(r1), costs.get(r2));
+                    }
+                });
+            }
+        }
+        final List<RemoteRepository> ordered = new ArrayList<>(repos.size());
+        final Map<String, Integer> next = new HashMap<>();
+        for (RemoteRepository r : repos) {
+            final Integer i = next.get(r.getId());
+            final int n = i != null ? i : 0;
+            ordered.add(groups.get(r.getId()).get(n));
+            next.put(r.getId(), n + 1);
+        }
+        return ordered;
+    }
+
+    private String getSessionUpdatePolicy() {
+        // a session update policy overrides those of all repositories
+        return forceRefresh ? RepositoryPolicy.UPDATE_POLICY_ALWAYS : updatePolicies.isEmpty() ? RepositoryPolicy.UPDATE_POLICY_NEVER : null;
+    }
+
+    private String getUpdatePolicy(String repo) {
+        String policy = updatePolicies.get(repo);
+        if (policy == null)
+            policy = updatePolicies.get(ALL_REPOS);
+        return policy != null ? policy : RepositoryPolicy.UPDATE_POLICY_NEVER;
+    }
+
+    private static void validateUpdatePolicy(String policy) {
+        if (RepositoryPolicy.UPDATE_POLICY_NEVER.equals(policy)
+            || RepositoryPolicy.UPDATE_POLICY_ALWAYS.equals(policy)
+            || RepositoryPolicy.UPDATE_POLICY_DAILY.equals(policy))
+            return;
+        if (policy.startsWith(RepositoryPolicy.UPDATE_POLICY_INTERVAL + ":")) {
+            try {
+                if (Integer.parseInt(policy.substring(RepositoryPolicy.UPDATE_POLICY_INTERVAL.length() + 1)) >= 0)
+                    return;
+            } catch (NumberFormatException e) {
+            }
+        }
+        throw new IllegalArgumentException("Illegal update policy: " + policy + " (must be never, always, daily or interval:MINUTES)");
+    }
+
     private RepositoryPolicy makeReleasePolicy(String repo) {
-        return new RepositoryPolicy(true, RepositoryPolicy.UPDATE_POLICY_NEVER, RepositoryPolicy.CHECKSUM_POLICY_WARN);
+        return new RepositoryPolicy(true, getUpdatePolicy(repo), RepositoryPolicy.CHECKSUM_POLICY_WARN);
     }
 
     private RepositoryPolicy makeSnapshotPolicy(String repo) {
@@ -172,8 +376,12 @@ public class DependencyManager {
             }
         });
 
-        locator.addService(org.eclipse.aether.spi.connector.RepositoryConnectorFactory.class, org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory.class);
-        locator.addService(org.eclipse.aether.spi.connector.transport.TransporterFactory.class, org.eclipse.aether.transport.http.HttpTransporterFactory.class);
+        locator.addService(org.eclipse.aether.spi.connector.RepositoryConnectorFactory.class, ThrottledRepositoryConnectorFactory.class);
+        locator.setService(org.eclipse.aether.impl.ArtifactDescriptorReader.class, PipeliningArtifactDescriptorReader.class);
+        locator.setService(org.eclipse.aether.impl.ArtifactResolver.class, RoutingArtifactResolver.class);
+        locator.setService(org.eclipse.aether.impl.VersionResolver.class, RoutingVersionResolver.class);
+        locator.setService(org.eclipse.aether.impl.VersionRangeResolver.class, RoutingVersionRangeResolver.class);
+        locator.addService(org.eclipse.aether.spi.connector.transport.TransporterFactory.class, ConditionalHttpTransporterFactory.class);
         locator.addService(org.eclipse.aether.spi.connector.transport.TransporterFactory.class, org.eclipse.aether.transport.file.FileTransporterFactory.class);
 
         // Takari (support concurrent downloads)
@@ -194,20 +402,26 @@ public class DependencyManager {
 
         s.setConfigProperty(ConfigurationProperties.CONNECT_TIMEOUT, propertyOrEnv(PROP_CONNECT_TIMEOUT, ENV_CONNECT_TIMEOUT));
         s.setConfigProperty(ConfigurationProperties.REQUEST_TIMEOUT, propertyOrEnv(PROP_REQUEST_TIMEOUT, ENV_REQUEST_TIMEOUT));
-        // WARN: `ConflictResolver.CONFIG_PROP_VERBOSE` will retain (and mark) dependency graph duplicates such as conflict resolution losers since
-        // http://git.eclipse.org/c/aether/aether-core.git/diff/aether-util/src/main/java/org/eclipse/aether/util/graph/transformer/ConflictResolver.java?id=141a3669d23ab67846b0c3ccef14eb0cdc70cee9
-        s.setConfigProperty(ConflictResolver.CONFIG_PROP_VERBOSE, true);
+        s.setConfigProperty(CONFIG_PROP_DOWNLOAD_THREADS, propertyOrEnv(PROP_DOWNLOAD_THREADS, ENV_DOWNLOAD_THREADS));
+        s.setConfigProperty(RepositoryRoutes.CONFIG_PROP_ROUTES, routes);
+        s.setConfigProperty(CONFIG_PROP_MISSING_CACHE, missingCache);
+        s.setConfigProperty(ConditionalHttpTransporter.CONFIG_PROP_STATS, stats);
+        // The graph is lean: conflict losers are pruned rather than retained (and marked), as they are with `ConflictResolver.CONFIG_PROP_VERBOSE`
+        // (see http://git.eclipse.org/c/aether/aether-core.git/diff/aether-util/src/main/java/org/eclipse/aether/util/graph/transformer/ConflictResolver.java?id=141a3669d23ab67846b0c3ccef14eb0cdc70cee9)
+        // only the printed dependency tree is verbose (see verbose())
 
         s.setOffline(offline);
-        s.setUpdatePolicy(forceRefresh ? RepositoryPolicy.UPDATE_POLICY_ALWAYS : RepositoryPolicy.UPDATE_POLICY_NEVER);
+        s.setUpdatePolicy(getSessionUpdatePolicy());
+        s.setCache(cache); // shared by all managers in the caplet chain
         s.setLocalRepositoryManager(system.newLocalRepositoryManager(s, localRepo));        
         s.setMirrorSelector(MVN_SETTINGS.getMirrorSelector());
         s.setAuthenticationSelector(MVN_SETTINGS.getAuthSelector());
         final SystemProxySelector sysProxySelector; // proxy from environment variables
         s.setProxySelector((sysProxySelector = new SystemProxySelector(this)).isValid() ? sysProxySelector : MVN_SETTINGS.getProxySelector());
         
+        s.setDependencyManager(newDependencyManager());
+        s.setDependencyGraphTransformer(newDependencyGraphTransformer(s.getDependencyGraphTransformer()));
         // no need for these, as they're set by MavenRepositorySystemUtils.newSession()
-//      s.setDependencyManager(newDependencyManager());
 //      s.setDependencySelector(newDependencySelector());
 //      s.setDependencyGraphTransformer(newConflictResolver());
 
@@ -220,9 +434,21 @@ public class DependencyManager {
         return s;
     }
 
-//    private static org.eclipse.aether.collection.DependencyManager newDependencyManager() {
-//        return new org.eclipse.aether.util.graph.manager.ClassicDependencyManager();
-//    }
+    /**
+     * Creates the collector's dependency manager; by default one that applies the managed dependencies through a shared index
+     * (with the semantics of Aether's {@code ClassicDependencyManager}).
+     */
+    protected org.eclipse.aether.collection.DependencyManager newDependencyManager() {
+        return new ManagedDependencies.Manager();
+    }
+
+    /**
+     * Creates the collector's graph transformer from Maven's default one (conflict resolution and scope refinement);
+     * by default one that first records each top-level dependency's reach, so that conflict losers can be pruned.
+     */
+    protected DependencyGraphTransformer newDependencyGraphTransformer(DependencyGraphTransformer transformer) {
+        return new ChainedDependencyGraphTransformer(new DependencyReach(), transformer);
+    }
     
 //    private static DependencySelector newDependencySelector() {
 //        return new org.eclipse.aether.util.graph.selector.AndDependencySelector(
@@ -267,7 +493,9 @@ public class DependencyManager {
         setPolicies(builder, allowSnapshots);
         setProxy(builder);
         setAuthentication(builder);
-        return builder.build();
+        final RemoteRepository r = builder.build();
+        setMaxDownloadThreads(r);
+        return r;
     }
     
     private static final Pattern PAT_REPO = Pattern.compile("(?<id>[^(]+)(\\((?<url>[^\\)]+)\\))?");
@@ -319,6 +547,16 @@ public class DependencyManager {
         return builder;
     }
     
+    private void setMaxDownloadThreads(RemoteRepository repo) {
+        // per-repository cap on concurrent downloads, applied (across all connectors) by ThrottledRepositoryConnectorFactory
+        final String max = emptyToNull(System.getProperty(PROP_DOWNLOAD_THREADS + "." + repo.getId()));
+        if (max != null && getSession() instanceof DefaultRepositorySystemSession) {
+            if (isLogging(LOG_DEBUG))
+                log(LOG_DEBUG, String.format("Setting maximum download threads: %s for dependency repo: %s", max, repo.toString()));
+            ((DefaultRepositorySystemSession) getSession()).setConfigProperty(CONFIG_PROP_DOWNLOAD_THREADS + "." + repo.getId(), max);
+        }
+    }
+
     private RemoteRepository.Builder setAuthentication(RemoteRepository.Builder builder) {
         final RemoteRepository tmp = builder.build(); // cheap operation
         
@@ -354,7 +592,7 @@ public class DependencyManager {
 
     private void printDependencyTree(CollectRequest collectRequest, PrintStream out) {
         try {
-            CollectResult collectResult = system.collectDependencies(getSession(), collectRequest);
+            CollectResult collectResult = collect(collectRequest, null, true);
             collectResult.getRoot().accept(new ConsoleDependencyGraphDumper(out));
         } catch (DependencyCollectionException e) {
             throw new RuntimeException(e);
@@ -369,11 +607,60 @@ public class DependencyManager {
         return resolve(collect().setRoot(toDependency(coords, type))); // resolveDependencies(Collections.singletonList(coords), type);
     }
 
+    /**
+     * Resolves the given dependencies, and returns each one's JARs (including those of its transitive dependencies).
+     * The result is cached in memory, and shared by all managers in the caplet chain (see {@link #DependencyManager(DependencyManager, int)}).
+     */
     public final Map<Dependency, List<Path>> resolveDependencies(List<Dependency> deps) {
-        final List<DependencyNode> children = resolve0(collect().setDependencies(deps)).getRoot().getChildren();
-        
+        return resolveDependencies(deps, Collections.<Lockfile.Artifact>emptyList(), null);
+    }
+
+    /**
+     * Resolves the given dependencies, as {@link #resolveDependencies(List)} does, and, in the same round, the given locked artifacts,
+     * as {@link #resolveArtifacts(List)} does.
+     *
+     * @param artifactPaths receives the locked artifacts' files
+     */
+    public final Map<Dependency, List<Path>> resolveDependencies(List<Dependency> deps, List<Lockfile.Artifact> artifacts, Map<Lockfile.Artifact, Path> artifactPaths) {
+        final List<Object> key = Arrays.<Object>asList(new ArrayList<>(deps), managedDependencies, repos, updatePolicies, routes);
+        Map<Dependency, List<Path>> resolved = results.get(key);
+        if (resolved == null) {
+            resolved = unmodifiableMap(resolveDependencies0(deps, artifacts, artifactPaths));
+            results.put(key, resolved);
+        } else {
+            log(LOG_DEBUG, "DependencyManager.resolveDependencies: reusing the resolution of " + deps);
+            if (!artifacts.isEmpty()) {
+                final List<Path> ps = resolveArtifacts(artifacts);
+                for (int i = 0; i < artifacts.size(); i++)
+                    artifactPaths.put(artifacts.get(i), ps.get(i));
+            }
+        }
+        return resolved;
+    }
+
+    private Map<Dependency, List<Path>> resolveDependencies0(List<Dependency> deps, List<Lockfile.Artifact> artifacts, Map<Lockfile.Artifact, Path> artifactPaths) {
+        final List<DependencyNode> extra = new ArrayList<>(artifacts.size());
+        for (Lockfile.Artifact a : artifacts) {
+            final DefaultDependencyNode node = new DefaultDependencyNode(new Dependency(new DefaultArtifact(a.getCoordinates()), JavaScopes.RUNTIME));
+            node.setRepositories(getRepositories(a));
+            extra.add(node);
+        }
+        final DependencyNode root = resolve0(collect().setDependencies(deps), extra).getRoot();
+        for (int i = 0; i < artifacts.size(); i++)
+            artifactPaths.put(artifacts.get(i), path(extra.get(i).getArtifact()));
+
         final Map<Dependency, List<Path>> resolved = new HashMap<>();
-        for (DependencyNode dn : children) {
+        final Map<Dependency, List<DependencyNode>> attributed = DependencyReach.attribute(root);
+        if (attributed != null) { // lean graph
+            for (Map.Entry<Dependency, List<DependencyNode>> e : attributed.entrySet()) {
+                final List<Path> jars = new ArrayList<>(e.getValue().size());
+                for (DependencyNode node : e.getValue())
+                    jars.add(path(node.getArtifact()));
+                resolved.put(clean(e.getKey()), jars);
+            }
+            return resolved;
+        }
+        for (DependencyNode dn : root.getChildren()) {
             final List<Path> jars = new ArrayList<>();
             resolved.put(clean(dn.getDependency()), jars);
             dn.accept(new DependencyVisitor() {
@@ -395,30 +682,204 @@ public class DependencyManager {
 
     private List<Path> resolve(CollectRequest collectRequest) {
         final List<Path> jars = new ArrayList<>();
-        for (ArtifactResult artifactResult : resolve0(collectRequest).getArtifactResults())
+        for (ArtifactResult artifactResult : resolve0(collectRequest, Collections.<DependencyNode>emptyList()).getArtifactResults())
             jars.add(path(artifactResult.getArtifact()));
         return jars;
     }
 
-    private DependencyResult resolve0(CollectRequest collectRequest) {
+    /**
+     * @param extra nodes whose artifacts are resolved along with those of the collected graph, but that are not part of the resulting graph
+     */
+    private DependencyResult resolve0(CollectRequest collectRequest, List<DependencyNode> extra) {
         if (isLogging(LOG_DEBUG))
             log(LOG_DEBUG, "DependencyManager.resolve " + collectRequest);
+        final DependencyFilter filter = new DependencyFilter() {
+            @Override
+            public boolean accept(DependencyNode n, List<DependencyNode> parents) {
+                // Exclude conflict losers (which are marked but left in if verbose mode is enabled, see
+                // http://git.eclipse.org/c/aether/aether-core.git/diff/aether-util/src/main/java/org/eclipse/aether/util/graph/transformer/ConflictResolver.java?id=141a3669d23ab67846b0c3ccef14eb0cdc70cee9t
+                return !isLoser(n);
+            }
+        };
+        final DownloadPipeline pipeline = isPipelined() ? new DownloadPipeline(system, getSession(), repos, getDownloadThreads()) : null;
         try {
-            final DependencyRequest dependencyRequest = new DependencyRequest(collectRequest,
-                    new DependencyFilter() {
-                @Override
-                public boolean accept(DependencyNode n, List<DependencyNode> parents) {
-                    // Exclude conflict losers (which are marked but left in if verbose mode is enabled, see
-                    // http://git.eclipse.org/c/aether/aether-core.git/diff/aether-util/src/main/java/org/eclipse/aether/util/graph/transformer/ConflictResolver.java?id=141a3669d23ab67846b0c3ccef14eb0cdc70cee9t
-                    return !isLoser(n);
-                }
-            });
-            final DependencyResult result = system.resolveDependencies(getSession(), dependencyRequest);
+            final CollectResult collectResult = collect(collectRequest, pipeline, false);
+            if (pipeline != null) {
+                if (isLogging(LOG_DEBUG))
+                    log(LOG_DEBUG, "DependencyManager.resolve: collected " + pipeline.size() + " artifacts; awaiting downloads");
+                pipeline.await(collectResult.getRoot(), filter);
+            }
+
+            final DependencyNode root = collectResult.getRoot();
+            final List<DependencyNode> children = root.getChildren();
+            if (!extra.isEmpty()) {
+                final List<DependencyNode> cs = new ArrayList<>(children);
+                cs.addAll(extra);
+                root.setChildren(cs);
+            }
+            final DependencyResult result;
+            try {
+                result = system.resolveDependencies(getSession(), new DependencyRequest(root, filter));
+            } finally {
+                root.setChildren(children);
+            }
             if (isLogging(LOG_DEBUG))
                 log(LOG_DEBUG, "DependencyManager.resolve: " + result);
             return result;
-        } catch (DependencyResolutionException e) {
+        } catch (DependencyCollectionException | DependencyResolutionException e) {
+            throw new RuntimeException("Error resolving dependencies.", e);
+        } finally {
+            if (pipeline != null)
+                pipeline.cancel();
+        }
+    }
+
+    /**
+     * @param verbose whether conflict losers are retained (and marked) in the graph rather than pruned
+     */
+    private CollectResult collect(CollectRequest collectRequest, DownloadPipeline pipeline, boolean verbose) throws DependencyCollectionException {
+        final int threads = isPrefetching() ? getCollectThreads() : 0;
+        final DescriptorPrefetcher prefetcher = threads > 0 ? new DescriptorPrefetcher(ManagedDependencies.of(collectRequest.getManagedDependencies()), threads) : null;
+        RequestTrace trace = prefetcher != null ? RequestTrace.newChild(null, prefetcher) : null;
+        if (pipeline != null) // start downloading artifacts as soon as the collector settles on their versions
+            trace = RequestTrace.newChild(trace, pipeline);
+        try {
+            final CollectResult result = system.collectDependencies(verbose ? verbose(getSession()) : getSession(), collectRequest.setTrace(trace));
+            if (prefetcher != null && isLogging(LOG_DEBUG))
+                log(LOG_DEBUG, "DependencyManager.collect: prefetched " + prefetcher.size() + " descriptors");
+            return result;
+        } finally {
+            if (prefetcher != null)
+                prefetcher.close();
+        }
+    }
+
+    private static RepositorySystemSession verbose(final RepositorySystemSession session) {
+        final Map<String, Object> props = new HashMap<>(session.getConfigProperties());
+        props.put(ConflictResolver.CONFIG_PROP_VERBOSE, true);
+        final Map<String, Object> ps = Collections.unmodifiableMap(props);
+        return new AbstractForwardingRepositorySystemSession() {
+            @Override
+            protected RepositorySystemSession getSession() {
+                return session;
+            }
+
+            @Override
+            public Map<String, Object> getConfigProperties() {
+                return ps;
+            }
+        };
+    }
+
+    private boolean isPrefetching() {
+        // a forced refresh would re-download the prefetched descriptors
+        return !forceRefresh && !offline;
+    }
+
+    private int getCollectThreads() {
+        final String threads = emptyToNull(System.getProperty(PROP_COLLECT_THREADS));
+        return threads != null ? Integer.parseInt(threads) : getDownloadThreads();
+    }
+
+    private boolean isPipelined() {
+        // a forced refresh would re-download the pipeline's artifacts
+        return !forceRefresh && !offline && isPropertySet(PROP_PIPELINE, true);
+    }
+
+    private int getDownloadThreads() {
+        return ConfigUtils.getInteger(getSession(), DEFAULT_DOWNLOAD_THREADS, CONFIG_PROP_DOWNLOAD_THREADS);
+    }
+
+    /**
+     * Resolves a single artifact, without collecting its dependencies.
+     */
+    public final Path resolveArtifact(String coords, String type) {
+        final ArtifactRequest request = new ArtifactRequest(toDependency(coords, type).getArtifact(), repos, null);
+        if (isLogging(LOG_DEBUG))
+            log(LOG_DEBUG, "DependencyManager.resolveArtifact " + request);
+        try {
+            return path(system.resolveArtifact(getSession(), request).getArtifact());
+        } catch (ArtifactResolutionException e) {
+            throw new RuntimeException("Error resolving " + coords, e);
+        }
+    }
+
+    /**
+     * Resolves the given locked artifacts directly, without collecting their dependencies.
+     * Each artifact is only looked for in the repository it has been locked to, if known.
+     * The artifacts are downloaded in parallel.
+     *
+     * @return the artifacts' files, in the order of the given list
+     */
+    public final List<Path> resolveArtifacts(List<Lockfile.Artifact> artifacts) {
+        final List<ArtifactRequest> requests = new ArrayList<>(artifacts.size());
+        for (Lockfile.Artifact a : artifacts)
+            requests.add(new ArtifactRequest(new DefaultArtifact(a.getCoordinates()), getRepositories(a), null));
+        if (isLogging(LOG_DEBUG))
+            log(LOG_DEBUG, "DependencyManager.resolveArtifacts " + requests);
+        try {
+            final List<Path> paths = new ArrayList<>(artifacts.size());
+            for (ArtifactResult r : system.resolveArtifacts(getSession(), requests))
+                paths.add(path(r.getArtifact()));
+            return paths;
+        } catch (ArtifactResolutionException e) {
+            throw new RuntimeException("Error resolving locked artifacts.", e);
+        }
+    }
+
+    /**
+     * Each locked artifact is only looked for in the repository it has been locked to, if known.
+     */
+    private List<RemoteRepository> getRepositories(Lockfile.Artifact a) {
+        return a.getRepository() != null ? Collections.singletonList(createRepo(a.getRepository(), true)) : repos;
+    }
+
+    /**
+     * Resolves the given dependencies directly, without reading their descriptors or collecting their transitive dependencies,
+     * for lists that are already the complete, conflict-resolved closure.
+     * Missing versions are taken from the managed dependencies, and version ranges resolve to their highest version.
+     * The artifacts are downloaded in parallel.
+     *
+     * @return each dependency's file
+     */
+    public final Map<Dependency, List<Path>> resolveFlattenedDependencies(List<Dependency> deps) {
+        return resolveFlattenedDependencies(deps, Collections.<Lockfile.Artifact>emptyList(), null);
+    }
+
+    /**
+     * Resolves the given flattened dependencies, as {@link #resolveFlattenedDependencies(List)} does, and, in the same round,
+     * the given locked artifacts, as {@link #resolveArtifacts(List)} does.
+     *
+     * @param artifactPaths receives the locked artifacts' files
+     */
+    public final Map<Dependency, List<Path>> resolveFlattenedDependencies(List<Dependency> deps, List<Lockfile.Artifact> artifacts, Map<Lockfile.Artifact, Path> artifactPaths) {
+        final ManagedDependencies managed = ManagedDependencies.of(managedDependencies);
+        try {
+            final List<ArtifactRequest> requests = new ArrayList<>(deps.size());
+            for (Dependency d : deps) {
+                Artifact a = d.getArtifact();
+                if (a.getVersion().isEmpty() && managed.getVersion(a) != null)
+                    a = a.setVersion(managed.getVersion(a));
+                if (isVersionRange(a.getVersion()))
+                    a = getHighestVersion(a, getSession());
+                requests.add(new ArtifactRequest(a, repos, null));
+            }
+            for (Lockfile.Artifact a : artifacts)
+                requests.add(new ArtifactRequest(new DefaultArtifact(a.getCoordinates()), getRepositories(a), null));
+            if (isLogging(LOG_DEBUG))
+                log(LOG_DEBUG, "DependencyManager.resolveFlattenedDependencies " + requests);
+
+            final List<ArtifactResult> results = system.resolveArtifacts(getSession(), requests);
+            final Map<Dependency, List<Path>> resolved = new HashMap<>();
+            for (int i = 0; i < deps.size(); i++)
+                resolved.put(deps.get(i), Collections.singletonList(path(results.get(i).getArtifact())));
+            for (int i = 0; i < artifacts.size(); i++)
+                artifactPaths.put(artifacts.get(i), path(results.get(deps.size() + i).getArtifact()));
+            return resolved;
+        } catch (ArtifactResolutionException e) {
             throw new RuntimeException("Error resolving dependencies.", e);
+        } catch (RepositoryException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -426,18 +887,42 @@ public class DependencyManager {
         return artifactToCoords(getLatestVersion0(coords, type));
     }
 
+    /**
+     * Returns the latest version of the given artifact.
+     *
+     * @param refresh whether the repositories' metadata must be checked for updates, regardless of their update policy
+     */
+    public final String getLatestVersion(String coords, String type, boolean refresh) {
+        if (!refresh || forceRefresh)
+            return getLatestVersion(coords, type);
+
+        final RepositorySystemSession s = getSession();
+        return artifactToCoords(getLatestVersion0(coords, type, new AbstractForwardingRepositorySystemSession() {
+            @Override
+            protected RepositorySystemSession getSession() {
+                return s;
+            }
+
+            @Override
+            public String getUpdatePolicy() {
+                return RepositoryPolicy.UPDATE_POLICY_ALWAYS;
+            }
+        }));
+    }
+
     protected Artifact getLatestVersion0(String coords, String type) {
+        return getLatestVersion0(coords, type, getSession());
+    }
+
+    private Artifact getLatestVersion0(String coords, String type, RepositorySystemSession session) {
         try {
             final Artifact artifact = coordsToArtifact(coords, type);
             final String version;
-            if (isVersionRange(artifact.getVersion())) {
-                final VersionRangeRequest request = new VersionRangeRequest().setRepositories(repos).setArtifact(artifact);
-                final VersionRangeResult result = system.resolveVersionRange(getSession(), request);
-                final Version highestVersion = result.getHighestVersion();
-                version = highestVersion != null ? highestVersion.toString() : null;
-            } else {
+            if (isVersionRange(artifact.getVersion()))
+                version = getHighestVersion0(artifact, session);
+            else {
                 final VersionRequest request = new VersionRequest().setRepositories(repos).setArtifact(artifact);
-                final VersionResult result = system.resolveVersion(getSession(), request);
+                final VersionResult result = system.resolveVersion(session, request);
                 version = result.getVersion();
             }
             if (version == null)
@@ -448,6 +933,20 @@ public class DependencyManager {
         }
     }
     
+    private Artifact getHighestVersion(Artifact artifact, RepositorySystemSession session) throws RepositoryException {
+        final String version = getHighestVersion0(artifact, session);
+        if (version == null)
+            throw new RuntimeException("Could not find any version of artifact " + artifact);
+        return artifact.setVersion(version);
+    }
+
+    private String getHighestVersion0(Artifact artifact, RepositorySystemSession session) throws RepositoryException {
+        final VersionRangeRequest request = new VersionRangeRequest().setRepositories(repos).setArtifact(artifact);
+        final VersionRangeResult result = system.resolveVersionRange(session, request);
+        final Version highestVersion = result.getHighestVersion();
+        return highestVersion != null ? highestVersion.toString() : null;
+    }
+
     private static Path path(Artifact artifact) {
         return artifact.getFile().toPath().toAbsolutePath();
     }
@@ -477,7 +976,11 @@ public class DependencyManager {
     //<editor-fold defaultstate="collapsed" desc="Parsing">
     /////////// Parsing ///////////////////////////////////
     public static Dependency toDependency(String coords, String type) {
-        return new Dependency(coordsToArtifact(coords, type), JavaScopes.RUNTIME, false, getExclusions(coords));
+        return toDependency(new Coordinates(coords, type));
+    }
+
+    public static Dependency toDependency(Coordinates coords) {
+        return new Dependency(coordsToArtifact(coords), JavaScopes.RUNTIME, false, getExclusions(coords));
     }
 
     private static List<Dependency> toDependencies(List<String> coords, String type) {
@@ -498,35 +1001,29 @@ public class DependencyManager {
         return version.startsWith("(") || version.startsWith("[");
     }
 
-    private static final Pattern PAT_DEPENDENCY = Pattern.compile("(?<groupId>[^:\\(]+):(?<artifactId>[^:\\(]+)(:(?<version>\\(?[^:\\(]*))?(:(?<classifier>[^:\\(]+))?(\\((?<exclusions>[^\\(\\)]*)\\))?");
-
     private static Artifact coordsToArtifact(String depString, String type) {
-        final Matcher m = PAT_DEPENDENCY.matcher(depString);
-        if (!m.matches())
-            throw new IllegalArgumentException("Could not parse dependency: " + depString);
-
-        final String groupId = m.group("groupId");
-        final String artifactId = m.group("artifactId");
-        final String version = emptyToNull(m.group("version"));
-        final String classifier = m.group("classifier");
-        return new DefaultArtifact(groupId, artifactId, classifier, type, version);
+        return coordsToArtifact(new Coordinates(depString, type));
     }
 
-    private static Collection<Exclusion> getExclusions(String depString) {
-        final Matcher m = PAT_DEPENDENCY.matcher(depString);
-        if (!m.matches())
-            throw new IllegalArgumentException("Could not parse dependency: " + depString);
+    private static Artifact coordsToArtifact(Coordinates c) {
+        return new DefaultArtifact(c.getGroupId(), c.getArtifactId(), c.getClassifier(), c.getType(), c.getVersion());
+    }
 
-        if (m.group("exclusions") == null || m.group("exclusions").isEmpty())
+    private static Collection<Exclusion> getExclusions(Coordinates c) {
+        final List<String> exclusionPatterns = c.getExclusions();
+        if (exclusionPatterns.isEmpty())
             return null;
 
-        final List<String> exclusionPatterns = Arrays.asList(m.group("exclusions").split(","));
-        final List<Exclusion> exclusions = new ArrayList<>();
+        final List<Exclusion> exclusions = new ArrayList<>(exclusionPatterns.size());
         for (String ex : exclusionPatterns) {
-            String[] coords = ex.trim().split(":");
-            if (coords.length != 2)
-                throw new IllegalArgumentException("Illegal exclusion dependency coordinates: " + depString + " (in exclusion " + ex + ")");
-            exclusions.add(new Exclusion(coords[0], coords[1], "*", "*"));
+            int end = ex.length();
+            while (end > 0 && ex.charAt(end - 1) == ':') // like String.split
+                end--;
+            final String e = ex.substring(0, end);
+            final int colon = e.indexOf(':');
+            if (colon < 0 || e.indexOf(':', colon + 1) >= 0)
+                throw new IllegalArgumentException("Illegal exclusion dependency coordinates: " + c.getCoordinates() + " (in exclusion " + ex + ")");
+            exclusions.add(new Exclusion(e.substring(0, colon), e.substring(colon + 1), "*", "*"));
         }
         return exclusions;
     }
@@ -538,18 +1035,28 @@ public class DependencyManager {
         return deps;
     }
 
-    private static final Pattern PAT_DEPENDENCY_MANAGEMENT = Pattern.compile("(?<groupId>[^:\\(]+):(?<artifactId>[^:\\(]+):(?<type>[^:\\(]*):(?<classifier>[^:\\(]*):(?<version>\\(?[^:\\(]+)");
-
     static Dependency toManagedDependency(String depString) {
-        final Matcher m = PAT_DEPENDENCY_MANAGEMENT.matcher(depString);
-        if (!m.matches())
+        // group:artifact:type:classifier:version, where only type and classifier may be empty, and only the version may begin with '('
+        final int[] colons = new int[4];
+        int k = 0;
+        for (int i = 0; i < depString.length(); i++) {
+            final char c = depString.charAt(i);
+            if (c == ':') {
+                if (k == colons.length)
+                    throw new IllegalArgumentException("Could not parse dependency management: " + depString);
+                colons[k++] = i;
+            } else if (c == '(' && (k < colons.length || i != colons[3] + 1))
+                throw new IllegalArgumentException("Could not parse dependency management: " + depString);
+        }
+        if (k < colons.length || colons[0] == 0 || colons[1] == colons[0] + 1
+            || colons[3] == depString.length() - 1 || depString.substring(colons[3] + 1).equals("("))
             throw new IllegalArgumentException("Could not parse dependency management: " + depString);
 
-        final String groupId = m.group("groupId");
-        final String artifactId = m.group("artifactId");
-        final String type = emptyToNull(m.group("type"));
-        final String classifier = emptyToNull(m.group("classifier"));
-        String version = emptyToNull(m.group("version"));
+        final String groupId = depString.substring(0, colons[0]);
+        final String artifactId = depString.substring(colons[0] + 1, colons[1]);
+        final String type = emptyToNull(depString.substring(colons[1] + 1, colons[2]));
+        final String classifier = emptyToNull(depString.substring(colons[2] + 1, colons[3]));
+        String version = emptyToNull(depString.substring(colons[3] + 1));
         if (version == null)
             throw new IllegalArgumentException("No version information is provided for managed dependency " + depString);
         
@@ -631,5 +1138,366 @@ public class DependencyManager {
             super(takariFileManager);
         }
     }
+
+    /**
+     * The basic connector, with the number of its download threads -- and of the concurrent downloads of all the session's connectors
+     * (those of the resolver, the {@link DownloadPipeline download pipeline}, and the {@link DescriptorPrefetcher descriptor prefetcher}) --
+     * capped per repository, and its downloads
+     * {@link ConditionalHttpTransporter#track(RepositoryConnector, RepositorySystemSession, RemoteRepository, RepositoryLayout) tracked}
+     * for conditional requests.
+     */
+    public static class ThrottledRepositoryConnectorFactory implements RepositoryConnectorFactory, Service {
+        private final BasicRepositoryConnectorFactory delegate = new BasicRepositoryConnectorFactory();
+        private RepositoryLayoutProvider layoutProvider;
+
+        @Override
+        public void initService(ServiceLocator locator) {
+            delegate.initService(locator);
+            this.layoutProvider = locator.getService(RepositoryLayoutProvider.class);
+        }
+
+        @Override
+        public float getPriority() {
+            return delegate.getPriority();
+        }
+
+        @Override
+        public RepositoryConnector newInstance(RepositorySystemSession session, RemoteRepository repository) throws NoRepositoryConnectorException {
+            final RepositoryConnector connector = capped(delegate.newInstance(throttled(session, repository), repository), session, repository);
+            if (!isHttp(repository))
+                return connector;
+            try {
+                final RepositoryLayout layout = layoutProvider.newRepositoryLayout(session, repository);
+                final RepositoryConnector tracked = ConditionalHttpTransporter.track(connector, session, repository, layout);
+                final Object cache = session.getConfigProperties().get(CONFIG_PROP_MISSING_CACHE);
+                return cache instanceof MissingCache ? skipMissing(tracked, (MissingCache) cache, repository, layout) : tracked;
+            } catch (NoRepositoryLayoutException e) {
+                connector.close();
+                throw new NoRepositoryConnectorException(repository, e);
+            }
+        }
+
+        /**
+         * Wraps a connector so that it fails downloads the cache has recorded missing without requesting them, and records those
+         * the repository reports missing.
+         */
+        private static RepositoryConnector skipMissing(final RepositoryConnector connector, final MissingCache cache,
+                                                       final RemoteRepository repository, final RepositoryLayout layout) {
+            final String url = repository.getUrl();
+            return new RepositoryConnector() {
+                @Override
+                public void get(Collection<? extends ArtifactDownload> artifactDownloads, Collection<? extends MetadataDownload> metadataDownloads) {
+                    final List<ArtifactDownload> as = new ArrayList<>();
+                    if (artifactDownloads != null) {
+                        for (ArtifactDownload d : artifactDownloads) {
+                            if (cache.isMissing(url, layout.getLocation(d.getArtifact(), false).toString()))
+                                d.setException(new ArtifactNotFoundException(d.getArtifact(), repository, "Could not find artifact " + d.getArtifact()
+                                        + " in " + repository + " (recorded missing; see capsule.clear.missing)"));
+                            else
+                                as.add(d);
+                        }
+                    }
+                    final List<MetadataDownload> ms = new ArrayList<>();
+                    if (metadataDownloads != null) {
+                        for (MetadataDownload d : metadataDownloads) {
+                            if (cache.isMissing(url, layout.getLocation(d.getMetadata(), false).toString()))
+                                d.setException(new MetadataNotFoundException(d.getMetadata(), repository, "Could not find metadata " + d.getMetadata()
+                                        + " in " + repository + " (recorded missing; see capsule.clear.missing)"));
+                            else
+                                ms.add(d);
+                        }
+                    }
+                    if (as.isEmpty() && ms.isEmpty())
+                        return;
+
+                    connector.get(as, ms);
+
+                    try {
+                        for (ArtifactDownload d : as) {
+                            final String path = layout.getLocation(d.getArtifact(), false).toString();
+                            if (d.getException() instanceof ArtifactNotFoundException)
+                                cache.putMissing(url, path);
+                            else if (d.getException() == null)
+                                cache.putFound(url, path);
+                        }
+                        for (MetadataDownload d : ms) {
+                            final String path = layout.getLocation(d.getMetadata(), false).toString();
+                            if (d.getException() instanceof MetadataNotFoundException)
+                                cache.putMissing(url, path);
+                            else if (d.getException() == null)
+                                cache.putFound(url, path);
+                        }
+                    } catch (IOException e) {
+                        // the cache only saves requests
+                    }
+                }
+
+                @Override
+                public void put(Collection<? extends ArtifactUpload> artifactUploads, Collection<? extends MetadataUpload> metadataUploads) {
+                    connector.put(artifactUploads, metadataUploads);
+                }
+
+                @Override
+                public void close() {
+                    connector.close();
+                }
+
+                @Override
+                public String toString() {
+                    return connector.toString();
+                }
+            };
+        }
+
+        /**
+         * Wraps a connector so that the downloads from its repository, if capped, count against the cap shared by all the session's connectors.
+         */
+        private static RepositoryConnector capped(final RepositoryConnector connector, RepositorySystemSession session, RemoteRepository repository) {
+            final int permits = ConfigUtils.getInteger(session, 0, CONFIG_PROP_DOWNLOAD_THREADS + "." + repository.getId());
+            if (permits <= 0)
+                return connector;
+            final Semaphore semaphore = semaphore(session, repository.getId(), permits);
+            return new RepositoryConnector() {
+                @Override
+                public void get(Collection<? extends ArtifactDownload> artifactDownloads, Collection<? extends MetadataDownload> metadataDownloads) {
+                    // the connector downloads at most the (throttled) number of its threads at a time
+                    final int n = Math.min(permits, (artifactDownloads != null ? artifactDownloads.size() : 0) + (metadataDownloads != null ? metadataDownloads.size() : 0));
+                    if (n == 0) {
+                        connector.get(artifactDownloads, metadataDownloads);
+                        return;
+                    }
+                    semaphore.acquireUninterruptibly(n);
+                    try {
+                        connector.get(artifactDownloads, metadataDownloads);
+                    } finally {
+                        semaphore.release(n);
+                    }
+                }
+
+                @Override
+                public void put(Collection<? extends ArtifactUpload> artifactUploads, Collection<? extends MetadataUpload> metadataUploads) {
+                    connector.put(artifactUploads, metadataUploads);
+                }
+
+                @Override
+                public void close() {
+                    connector.close();
+                }
+
+                @Override
+                public String toString() {
+                    return connector.toString();
+                }
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Semaphore semaphore(RepositorySystemSession session, String id, int permits) {
+            final SessionData data = session.getData();
+            ConcurrentMap<String, Semaphore> semaphores;
+            for (;;) {
+                semaphores = (ConcurrentMap<String, Semaphore>) data.get(SEMAPHORES);
+                if (semaphores != null)
+                    break;
+                data.set(SEMAPHORES, null, new ConcurrentHashMap<String, Semaphore>());
+            }
+            Semaphore semaphore = semaphores.get(id);
+            if (semaphore == null) {
+                final Semaphore s = semaphores.putIfAbsent(id, semaphore = new Semaphore(permits, true));
+                if (s != null)
+                    semaphore = s;
+            }
+            return semaphore;
+        }
+
+        private static final String SEMAPHORES = ThrottledRepositoryConnectorFactory.class.getName() + ".semaphores";
+
+        private static RepositorySystemSession throttled(final RepositorySystemSession session, RemoteRepository repository) {
+            final int threads = ConfigUtils.getInteger(session, DEFAULT_DOWNLOAD_THREADS, CONFIG_PROP_DOWNLOAD_THREADS);
+            final int max = ConfigUtils.getInteger(session, threads, CONFIG_PROP_DOWNLOAD_THREADS + "." + repository.getId());
+            if (max >= threads)
+                return session;
+
+            final Map<String, Object> props = new HashMap<>(session.getConfigProperties());
+            props.put(CONFIG_PROP_DOWNLOAD_THREADS, max);
+            final Map<String, Object> ps = Collections.unmodifiableMap(props);
+            return new AbstractForwardingRepositorySystemSession() {
+                @Override
+                protected RepositorySystemSession getSession() {
+                    return session;
+                }
+
+                @Override
+                public Map<String, Object> getConfigProperties() {
+                    return ps;
+                }
+            };
+        }
+    }
+
+    /**
+     * The HTTP transporter, revalidating cached artifacts and metadata with {@link ConditionalHttpTransporter conditional requests}.
+     */
+    public static class ConditionalHttpTransporterFactory implements TransporterFactory, Service {
+        private final HttpTransporterFactory delegate = new HttpTransporterFactory();
+
+        @Override
+        public void initService(ServiceLocator locator) {
+            delegate.initService(locator);
+        }
+
+        @Override
+        public float getPriority() {
+            return delegate.getPriority();
+        }
+
+        @Override
+        public Transporter newInstance(RepositorySystemSession session, RemoteRepository repository) throws NoTransporterException {
+            return new ConditionalHttpTransporter(delegate.newInstance(session, repository), session, repository);
+        }
+    }
+
+    private static boolean isHttp(RemoteRepository repository) {
+        return "http".equalsIgnoreCase(repository.getProtocol()) || "https".equalsIgnoreCase(repository.getProtocol());
+    }
+
+    /**
+     * The artifact resolver, looking for each artifact only in the repositories it is {@link RepositoryRoutes routed} to.
+     */
+    public static class RoutingArtifactResolver implements org.eclipse.aether.impl.ArtifactResolver, Service {
+        private final org.eclipse.aether.internal.impl.DefaultArtifactResolver delegate = new org.eclipse.aether.internal.impl.DefaultArtifactResolver();
+
+        @Override
+        public void initService(ServiceLocator locator) {
+            delegate.initService(locator);
+        }
+
+        @Override
+        public ArtifactResult resolveArtifact(RepositorySystemSession session, ArtifactRequest request) throws ArtifactResolutionException {
+            return delegate.resolveArtifact(session, route(session, request));
+        }
+
+        @Override
+        public List<ArtifactResult> resolveArtifacts(RepositorySystemSession session, Collection<? extends ArtifactRequest> requests) throws ArtifactResolutionException {
+            for (ArtifactRequest request : requests)
+                route(session, request);
+            return delegate.resolveArtifacts(session, requests);
+        }
+
+        private static ArtifactRequest route(RepositorySystemSession session, ArtifactRequest request) {
+            return request.setRepositories(RepositoryRoutes.route(session, request.getArtifact(), request.getRepositories()));
+        }
+    }
+
+    /**
+     * The Maven version resolver (of {@code LATEST}, {@code RELEASE} and SNAPSHOT versions), looking for each artifact's metadata only in
+     * the repositories it is {@link RepositoryRoutes routed} to.
+     */
+    public static class RoutingVersionResolver implements org.eclipse.aether.impl.VersionResolver, Service {
+        private final org.apache.maven.repository.internal.DefaultVersionResolver delegate = new org.apache.maven.repository.internal.DefaultVersionResolver();
+
+        @Override
+        public void initService(ServiceLocator locator) {
+            delegate.initService(locator);
+        }
+
+        @Override
+        public VersionResult resolveVersion(RepositorySystemSession session, VersionRequest request) throws org.eclipse.aether.resolution.VersionResolutionException {
+            request.setRepositories(RepositoryRoutes.route(session, request.getArtifact(), request.getRepositories()));
+            return delegate.resolveVersion(session, request);
+        }
+    }
+
+    /**
+     * The Maven version range resolver, looking for each artifact's metadata only in the repositories it is {@link RepositoryRoutes routed} to.
+     */
+    public static class RoutingVersionRangeResolver implements org.eclipse.aether.impl.VersionRangeResolver, Service {
+        private final org.apache.maven.repository.internal.DefaultVersionRangeResolver delegate = new org.apache.maven.repository.internal.DefaultVersionRangeResolver();
+
+        @Override
+        public void initService(ServiceLocator locator) {
+            delegate.initService(locator);
+        }
+
+        @Override
+        public VersionRangeResult resolveVersionRange(RepositorySystemSession session, VersionRangeRequest request) throws org.eclipse.aether.resolution.VersionRangeResolutionException {
+            request.setRepositories(RepositoryRoutes.route(session, request.getArtifact(), request.getRepositories()));
+            return delegate.resolveVersionRange(session, request);
+        }
+    }
+
+    /**
+     * The Maven artifact descriptor reader, feeding the {@link DescriptorPrefetcher descriptor prefetcher} and
+     * the {@link DownloadPipeline download pipeline} (if any) of the collect request.
+     */
+    public static class PipeliningArtifactDescriptorReader implements org.eclipse.aether.impl.ArtifactDescriptorReader, Service {
+        private final org.apache.maven.repository.internal.DefaultArtifactDescriptorReader delegate = new org.apache.maven.repository.internal.DefaultArtifactDescriptorReader();
+        private org.eclipse.aether.impl.RemoteRepositoryManager repositoryManager;
+
+        @Override
+        public void initService(ServiceLocator locator) {
+            delegate.initService(locator);
+            this.repositoryManager = locator.getService(org.eclipse.aether.impl.RemoteRepositoryManager.class);
+        }
+
+        @Override
+        public ArtifactDescriptorResult readArtifactDescriptor(RepositorySystemSession session, ArtifactDescriptorRequest request) throws ArtifactDescriptorException {
+            final Map<List<Object>, ArtifactDescriptorResult> descriptors = descriptors(session);
+            // a descriptor found in any of the repositories is the same (top-level dependencies are looked for in fewer repositories than transitive ones)
+            final List<Object> key = Arrays.<Object>asList(ArtifactIdUtils.toId(request.getArtifact()), request.getRequestContext());
+            final ArtifactDescriptorResult cached = descriptors != null ? descriptors.get(key) : null;
+            final ArtifactDescriptorResult result;
+            if (cached != null)
+                result = copy(cached, request);
+            else {
+                final DescriptorPrefetcher prefetcher = DescriptorPrefetcher.of(request.getTrace());
+                if (prefetcher != null)
+                    prefetcher.await(request.getArtifact());
+                // not routed: the parents and imports of the POM may come from other repositories (each POM is routed by the artifact resolver)
+                result = delegate.readArtifactDescriptor(session, request);
+                if (prefetcher != null)
+                    prefetcher.prefetch(delegate, repositoryManager, session, request, result);
+                if (descriptors != null && result.getExceptions().isEmpty())
+                    descriptors.put(key, copy(result, request));
+            }
+            final DownloadPipeline pipeline = DownloadPipeline.of(request.getTrace());
+            if (pipeline != null && result.getArtifact() != null)
+                pipeline.submit(result.getArtifact());
+            return result;
+        }
+
+        /**
+         * The descriptors read in the session, kept in its cache (which may be shared by other sessions, see {@link DependencyManager#DependencyManager(DependencyManager, int)}).
+         * Unlike the collector's own descriptor pool, which is weakly keyed, these outlive the collected graph.
+         */
+        @SuppressWarnings("unchecked")
+        private static Map<List<Object>, ArtifactDescriptorResult> descriptors(RepositorySystemSession session) {
+            final RepositoryCache cache = session.getCache();
+            if (cache == null)
+                return null;
+            synchronized (cache) {
+                Map<List<Object>, ArtifactDescriptorResult> descriptors = (Map<List<Object>, ArtifactDescriptorResult>) cache.get(session, DESCRIPTORS);
+                if (descriptors == null) {
+                    descriptors = new ConcurrentHashMap<>();
+                    cache.put(session, DESCRIPTORS, descriptors);
+                }
+                return descriptors;
+            }
+        }
+
+        private static ArtifactDescriptorResult copy(ArtifactDescriptorResult result, ArtifactDescriptorRequest request) {
+            return new ArtifactDescriptorResult(request)
+                    .setArtifact(result.getArtifact())
+                    .setRepository(result.getRepository())
+                    .setRelocations(new ArrayList<>(result.getRelocations()))
+                    .setAliases(new ArrayList<>(result.getAliases()))
+                    .setDependencies(new ArrayList<>(result.getDependencies()))
+                    .setManagedDependencies(new ArrayList<>(result.getManagedDependencies()))
+                    .setRepositories(new ArrayList<>(result.getRepositories()))
+                    .setProperties(new HashMap<>(result.getProperties()));
+        }
+
+        private static final String DESCRIPTORS = PipeliningArtifactDescriptorReader.class.getName() + ".descriptors";
+    }
     //</editor-fold>
 }
@@ -0,0 +1,130 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.aether.RepositoryException;
+import org.eclipse.aether.collection.DependencyGraphTransformationContext;
+import org.eclipse.aether.collection.DependencyGraphTransformer;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.util.ConfigUtils;
+import org.eclipse.aether.util.artifact.ArtifactIdUtils;
+import org.eclipse.aether.util.graph.transformer.ConflictResolver;
+
+/**
+ * Records, before conflict resolution, which artifacts (by versionless id) are reachable from each of the graph's top-level dependencies.
+ * <p>
+ * In a lean (non-verbose) graph, the conflict resolver removes every node but the winner of each conflict, so a dependency shared by
+ * several top-level dependencies appears under only one of them. The recorded reach lets each top-level dependency be attributed all
+ * the winners it depends on (see {@link #attribute(DependencyNode) attribute}), without retaining the losers in the graph.
+ * Nothing is recorded for verbose graphs, where losers are retained and marked.
+ */
+final class DependencyReach implements DependencyGraphTransformer {
+    private static final String NODE_DATA_REACH = "capsule.reach";
+
+    @Override
+    public DependencyNode transformGraph(DependencyNode node, DependencyGraphTransformationContext context) throws RepositoryException {
+        if (ConfigUtils.getBoolean(context.getSession(), false, ConflictResolver.CONFIG_PROP_VERBOSE))
+            return node;
+
+        final Map<Dependency, Set<String>> reach = new LinkedHashMap<>();
+        for (DependencyNode child : node.getChildren()) {
+            final Set<String> ids = new HashSet<>();
+            final Set<DependencyNode> visited = Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>());
+            final Deque<DependencyNode> stack = new ArrayDeque<>();
+            stack.push(child);
+            while (!stack.isEmpty()) {
+                final DependencyNode n = stack.pop();
+                if (!visited.add(n)) // the collector shares the children of identical subtrees
+                    continue;
+                if (n.getArtifact() != null)
+                    ids.add(ArtifactIdUtils.toVersionlessId(n.getArtifact()));
+                for (DependencyNode c : n.getChildren())
+                    stack.push(c);
+            }
+            reach.put(child.getDependency(), ids); // not the node, which would retain the collected subtree
+        }
+        node.setData(NODE_DATA_REACH, reach);
+        return node;
+    }
+
+    /**
+     * Returns, for each of the (transformed) graph's top-level dependencies, the graph's nodes it depends on, starting with those in its
+     * own subtree; or {@code null} if no reach was recorded.
+     * Each key is a top-level dependency as collected, which may have been removed from the graph if it lost a conflict.
+     */
+    static Map<Dependency, List<DependencyNode>> attribute(DependencyNode root) {
+        @SuppressWarnings("unchecked")
+        final Map<Dependency, Set<String>> reach = (Map<Dependency, Set<String>>) root.getData().get(NODE_DATA_REACH);
+        if (reach == null)
+            return null;
+
+        final List<DependencyNode> all = preorder(root);
+        final List<String> allIds = ids(all);
+        final Map<String, DependencyNode> children = new HashMap<>();
+        for (DependencyNode child : root.getChildren())
+            children.put(ArtifactIdUtils.toVersionlessId(child.getArtifact()), child);
+
+        final Map<Dependency, List<DependencyNode>> attributed = new LinkedHashMap<>();
+        for (Map.Entry<Dependency, Set<String>> e : reach.entrySet()) {
+            final Set<String> ids = e.getValue();
+            final Set<DependencyNode> nodes = new LinkedHashSet<>();
+            final DependencyNode own = children.get(ArtifactIdUtils.toVersionlessId(e.getKey().getArtifact()));
+            if (own != null) {
+                final List<DependencyNode> subtree = preorder(own);
+                addReachable(subtree, ids(subtree), ids, nodes);
+            }
+            addReachable(all, allIds, ids, nodes);
+            attributed.put(e.getKey(), new ArrayList<>(nodes));
+        }
+        return attributed;
+    }
+
+    private static void addReachable(List<DependencyNode> candidates, List<String> candidateIds, Set<String> ids, Set<DependencyNode> nodes) {
+        for (int i = 0; i < candidates.size(); i++) {
+            if (ids.contains(candidateIds.get(i)))
+                nodes.add(candidates.get(i));
+        }
+    }
+
+    private static List<String> ids(List<DependencyNode> nodes) {
+        final List<String> ids = new ArrayList<>(nodes.size());
+        for (DependencyNode n : nodes)
+            ids.add(ArtifactIdUtils.toVersionlessId(n.getArtifact()));
+        return ids;
+    }
+
+    private static List<DependencyNode> preorder(DependencyNode node) {
+        final List<DependencyNode> nodes = new ArrayList<>();
+        final Set<DependencyNode> visited = Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>());
+        preorder(node, nodes, visited);
+        return nodes;
+    }
+
+    private static void preorder(DependencyNode node, List<DependencyNode> nodes, Set<DependencyNode> visited) {
+        if (!visited.add(node))
+            return;
+        if (node.getArtifact() != null)
+            nodes.add(node);
+        for (DependencyNode c : node.getChildren())
+            preorder(c, nodes, visited);
+    }
+}
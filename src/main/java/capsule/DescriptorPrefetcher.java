@@ -0,0 +1,187 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.RequestTrace;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
+import org.eclipse.aether.impl.RemoteRepositoryManager;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.util.artifact.ArtifactIdUtils;
+import org.eclipse.aether.util.artifact.JavaScopes;
+
+/**
+ * Fetches the descriptors (POMs) of a dependency graph breadth-first and concurrently, ahead of the collector.
+ * <p>
+ * The prefetcher is attached to a collect request's {@link RequestTrace trace}. Whenever a descriptor is read, the descriptors of all of its
+ * (non-optional, runtime) dependencies are fetched in parallel, and so on down the graph. Requests for the same artifact are only made once,
+ * and the collector, when it reaches an artifact whose descriptor is being fetched, waits for it to arrive.
+ * <p>
+ * The collector still reads each descriptor itself, from the local repository if it's been prefetched, so the collected graph -- and
+ * the result of conflict resolution -- is the same as without prefetching. A prefetch that is never needed (or that fails) only costs
+ * a wasted request.
+ */
+final class DescriptorPrefetcher {
+    private static final long TERMINATION_TIMEOUT_SECONDS = 60;
+
+    private final ManagedDependencies managedDependencies;
+    private final ExecutorService executor;
+    private final Map<String, Future<?>> fetches = new ConcurrentHashMap<>();
+
+    DescriptorPrefetcher(ManagedDependencies managedDependencies, int threads) {
+        this.managedDependencies = managedDependencies;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "capsule-prefetch-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Returns the prefetcher attached to the given trace or any of its ancestors, or {@code null} if none.
+     */
+    static DescriptorPrefetcher of(RequestTrace trace) {
+        for (RequestTrace t = trace; t != null; t = t.getParent()) {
+            if (t.getData() instanceof DescriptorPrefetcher)
+                return (DescriptorPrefetcher) t.getData();
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the given artifact's descriptor, if it is being fetched.
+     */
+    void await(Artifact artifact) {
+        final Future<?> f = fetches.get(ArtifactIdUtils.toId(artifact));
+        if (f == null)
+            return;
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // ignore; the collector will report the error
+        }
+    }
+
+    /**
+     * Starts fetching the descriptors of the dependencies in the given descriptor, and of theirs.
+     */
+    void prefetch(ArtifactDescriptorReader reader, RemoteRepositoryManager repositoryManager, RepositorySystemSession session,
+                  ArtifactDescriptorRequest request, ArtifactDescriptorResult result) {
+        prefetch(reader, repositoryManager, session, result.getDependencies(), repositories(repositoryManager, session, request, result),
+                request.getRequestContext(), new HashSet<String>());
+    }
+
+    private void prefetch(ArtifactDescriptorReader reader, RemoteRepositoryManager repositoryManager, RepositorySystemSession session,
+                          List<Dependency> deps, List<RemoteRepository> repos, String context, Set<String> exclusions) {
+        for (Dependency d : deps) {
+            if (d.isOptional() || !isRuntime(d.getScope()) || exclusions.contains(d.getArtifact().getGroupId() + ":" + d.getArtifact().getArtifactId()))
+                continue;
+            final Artifact a = managed(d.getArtifact());
+            if (isVersionRange(a.getVersion()))
+                continue;
+            final Set<String> es = new HashSet<>(exclusions);
+            for (Exclusion e : d.getExclusions())
+                es.add(e.getGroupId() + ":" + e.getArtifactId());
+            submit(reader, repositoryManager, session, a, repos, context, es);
+        }
+    }
+
+    private void submit(final ArtifactDescriptorReader reader, final RemoteRepositoryManager repositoryManager, final RepositorySystemSession session,
+                        final Artifact artifact, final List<RemoteRepository> repos, final String context, final Set<String> exclusions) {
+        final String id = ArtifactIdUtils.toId(artifact);
+        if (fetches.containsKey(id))
+            return;
+        synchronized (fetches) {
+            if (fetches.containsKey(id) || executor.isShutdown())
+                return;
+            fetches.put(id, executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final ArtifactDescriptorRequest request = new ArtifactDescriptorRequest(artifact, repos, context);
+                        final ArtifactDescriptorResult result = reader.readArtifactDescriptor(session, request);
+                        prefetch(reader, repositoryManager, session, result.getDependencies(),
+                                repositories(repositoryManager, session, request, result), context, exclusions);
+                    } catch (Exception e) {
+                        // ignore; the collector will try again, and report the error
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * Cancels all pending prefetches, and waits for those already running to complete.
+     */
+    void close() {
+        synchronized (fetches) {
+            executor.shutdown();
+            for (Future<?> f : fetches.values())
+                f.cancel(false);
+        }
+        try {
+            if (!executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                executor.shutdownNow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int size() {
+        return fetches.size();
+    }
+
+    private Artifact managed(Artifact a) {
+        final String version = managedDependencies.getVersion(a);
+        return version != null ? a.setVersion(version) : a;
+    }
+
+    /**
+     * The repositories of the descriptor's dependencies, as the collector computes them (subjecting those declared in the POM to the
+     * session's mirrors, proxies and authentication).
+     */
+    private static List<RemoteRepository> repositories(RemoteRepositoryManager repositoryManager, RepositorySystemSession session,
+                                                       ArtifactDescriptorRequest request, ArtifactDescriptorResult result) {
+        if (session.isIgnoreArtifactDescriptorRepositories() || result.getRepositories().isEmpty())
+            return request.getRepositories();
+        return repositoryManager.aggregateRepositories(session, request.getRepositories(), result.getRepositories(), true);
+    }
+
+    private static boolean isRuntime(String scope) {
+        return !JavaScopes.TEST.equals(scope) && !JavaScopes.PROVIDED.equals(scope) && !JavaScopes.SYSTEM.equals(scope);
+    }
+
+    private static boolean isVersionRange(String version) {
+        return version.startsWith("[") || version.startsWith("(");
+    }
+}
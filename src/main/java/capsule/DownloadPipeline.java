@@ -0,0 +1,175 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.RequestTrace;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.graph.DependencyFilter;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.graph.DependencyVisitor;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.util.artifact.ArtifactIdUtils;
+
+/**
+ * Downloads artifacts while their dependency graph is still being collected.
+ * <p>
+ * The pipeline is attached to a collect request's {@link RequestTrace trace}. As soon as the collector has read an artifact's descriptor
+ * (and so has settled on its version), the artifact is submitted for download. Once the graph has been collected and its conflicts resolved,
+ * the downloads of the artifacts that did not make it into the graph (i.e. conflict losers) are cancelled, and the rest are awaited.
+ * Downloads that are already running when cancelled are allowed to complete, so that none is left writing to the local repository.
+ * Download failures are ignored; the artifacts are then resolved (and any errors reported) as usual.
+ */
+final class DownloadPipeline {
+    private static final long TERMINATION_TIMEOUT_SECONDS = 60;
+
+    private final RepositorySystem system;
+    private final RepositorySystemSession session;
+    private final List<RemoteRepository> repos;
+    private final ExecutorService executor;
+    private final Map<String, Future<?>> downloads = new ConcurrentHashMap<>();
+
+    DownloadPipeline(RepositorySystem system, RepositorySystemSession session, List<RemoteRepository> repos, int threads) {
+        this.system = system;
+        this.session = session;
+        this.repos = repos;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "capsule-download-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Returns the pipeline attached to the given trace or any of its ancestors, or {@code null} if none.
+     */
+    static DownloadPipeline of(RequestTrace trace) {
+        for (RequestTrace t = trace; t != null; t = t.getParent()) {
+            if (t.getData() instanceof DownloadPipeline)
+                return (DownloadPipeline) t.getData();
+        }
+        return null;
+    }
+
+    /**
+     * Starts downloading the given artifact, if it's not already being downloaded.
+     */
+    void submit(final Artifact artifact) {
+        final String id = ArtifactIdUtils.toId(artifact);
+        if (downloads.containsKey(id))
+            return;
+        synchronized (downloads) {
+            if (downloads.containsKey(id) || executor.isShutdown())
+                return;
+            downloads.put(id, executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        system.resolveArtifact(session, new ArtifactRequest(artifact, repos, null));
+                    } catch (Exception e) {
+                        // ignore; the artifact will be resolved again once collection is done
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * Cancels the downloads of all artifacts not accepted by the given filter, and waits for the rest (and for those already running) to complete.
+     *
+     * @param root   the collected graph
+     * @param filter selects the graph's nodes whose artifacts are to be kept
+     */
+    void await(DependencyNode root, final DependencyFilter filter) {
+        final Set<String> keep = new HashSet<>();
+        root.accept(new DependencyVisitor() {
+            private final LinkedList<DependencyNode> parents = new LinkedList<>();
+
+            @Override
+            public boolean visitEnter(DependencyNode node) {
+                if (node.getArtifact() != null && filter.accept(node, parents))
+                    keep.add(ArtifactIdUtils.toId(node.getArtifact()));
+                parents.addFirst(node);
+                return true;
+            }
+
+            @Override
+            public boolean visitLeave(DependencyNode node) {
+                parents.removeFirst();
+                return true;
+            }
+        });
+
+        synchronized (downloads) {
+            executor.shutdown();
+            for (Map.Entry<String, Future<?>> e : downloads.entrySet()) {
+                if (!keep.contains(e.getKey()))
+                    e.getValue().cancel(false);
+            }
+        }
+        for (Map.Entry<String, Future<?>> e : downloads.entrySet()) {
+            if (!keep.contains(e.getKey()))
+                continue;
+            try {
+                e.getValue().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                // ignore
+            }
+        }
+        awaitTermination();
+    }
+
+    /**
+     * Cancels all pending downloads, and waits for those already running to complete.
+     */
+    void cancel() {
+        synchronized (downloads) {
+            executor.shutdown();
+            for (Future<?> f : downloads.values())
+                f.cancel(false);
+        }
+        awaitTermination();
+    }
+
+    private void awaitTermination() {
+        try {
+            if (!executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                executor.shutdownNow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int size() {
+        return downloads.size();
+    }
+}
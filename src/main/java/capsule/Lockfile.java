@@ -0,0 +1,249 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A build-time record of the fully resolved artifacts of each of a capsule's dependencies.
+ * <p>
+ * The lockfile is embedded in the capsule as {@value #ENTRY_NAME}, and is written by build tools (see
+ * {@link Dependencies#lock(Lockfile, org.eclipse.aether.graph.Dependency, List) Dependencies.lock}).
+ * When it is found, the Maven caplet skips dependency collection altogether, and only fetches those locked artifacts
+ * missing from the local repository.
+ * <p>
+ * The format is line-based: a {@code dependency COORDS TYPE} line, where {@code COORDS} is the dependency as given in the manifest
+ * or POM, is followed by one {@code artifact GROUP:ARTIFACT:EXTENSION[:CLASSIFIER]:VERSION SHA256 REPOSITORY} line for each artifact
+ * the dependency resolves to, in class path order. {@code REPOSITORY} is formatted as {@code NAME(URL)}; a {@code -} stands for a missing value.
+ * <p>
+ * This class only uses JDK classes.
+ */
+public final class Lockfile {
+    public static final String ENTRY_NAME = "META-INF/capsule-maven.lock";
+
+    private static final String HEADER = "capsule-maven-lock 1";
+    private static final String DEPENDENCY = "dependency";
+    private static final String ARTIFACT = "artifact";
+    private static final String NONE = "-";
+
+    private final Map<String, List<Artifact>> dependencies = new LinkedHashMap<>();
+
+    /**
+     * Returns the locked artifacts of the given dependency, or {@code null} if the dependency is not locked.
+     *
+     * @param coords the dependency's coordinates, as given in the manifest or POM
+     * @param type   the artifact type
+     */
+    public List<Artifact> get(String coords, String type) {
+        return dependencies.get(key(coords, type));
+    }
+
+    /**
+     * Locks the given dependency to the given artifacts.
+     *
+     * @param coords    the dependency's coordinates, as given in the manifest or POM
+     * @param type      the artifact type
+     * @param artifacts all the artifacts the dependency resolves to, in class path order
+     */
+    public Lockfile put(String coords, String type, List<Artifact> artifacts) {
+        dependencies.put(key(coords, type), Collections.unmodifiableList(new ArrayList<>(artifacts)));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return dependencies.isEmpty();
+    }
+
+    private static String key(String coords, String type) {
+        return coords + " " + type;
+    }
+
+    //<editor-fold defaultstate="collapsed" desc="Reading and Writing">
+    /////////// Reading and Writing ///////////////////////////////////
+    public static Lockfile read(InputStream is) throws IOException {
+        final Lockfile lockfile = new Lockfile();
+        final BufferedReader r = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        if (!HEADER.equals(r.readLine()))
+            throw new IllegalArgumentException("Not a lockfile or unsupported lockfile version");
+
+        List<Artifact> artifacts = null;
+        for (String line; (line = r.readLine()) != null;) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            final String[] fields = line.split("\\s+");
+            if (fields.length == 3 && DEPENDENCY.equals(fields[0])) {
+                artifacts = new ArrayList<>();
+                lockfile.dependencies.put(key(fields[1], fields[2]), Collections.unmodifiableList(artifacts));
+            } else if (fields.length == 4 && ARTIFACT.equals(fields[0]) && artifacts != null)
+                artifacts.add(Artifact.parse(fields[1], noneToNull(fields[2]), noneToNull(fields[3])));
+            else
+                throw new IllegalArgumentException("Could not parse lockfile line: " + line);
+        }
+        return lockfile;
+    }
+
+    public void write(OutputStream os) throws IOException {
+        final Writer w = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+        w.write(HEADER + "\n");
+        for (Map.Entry<String, List<Artifact>> e : dependencies.entrySet()) {
+            w.write(DEPENDENCY + " " + e.getKey() + "\n");
+            for (Artifact a : e.getValue())
+                w.write("  " + ARTIFACT + " " + a.getCoordinates() + " " + nullToNone(a.getSha256()) + " " + nullToNone(a.getRepository()) + "\n");
+        }
+        w.flush();
+    }
+
+    private static String noneToNull(String s) {
+        return NONE.equals(s) ? null : s;
+    }
+
+    private static String nullToNone(String s) {
+        return s != null ? s : NONE;
+    }
+    //</editor-fold>
+
+    /**
+     * A single, exact, locked artifact.
+     */
+    public static final class Artifact {
+        private static final Pattern PAT_TIMESTAMPED_SNAPSHOT = Pattern.compile("(?<base>.+)-\\d{8}\\.\\d{6}-\\d+");
+
+        private final String groupId;
+        private final String artifactId;
+        private final String extension;
+        private final String classifier;
+        private final String version;
+        private final String sha256;
+        private final String repository;
+
+        /**
+         * @param sha256     the artifact file's SHA-256 digest, as a hex string; may be {@code null}
+         * @param repository the repository the artifact was resolved from, formatted as {@code NAME(URL)}; may be {@code null}
+         */
+        public Artifact(String groupId, String artifactId, String extension, String classifier, String version, String sha256, String repository) {
+            this.groupId = Objects.requireNonNull(groupId);
+            this.artifactId = Objects.requireNonNull(artifactId);
+            this.extension = Objects.requireNonNull(extension);
+            this.classifier = classifier != null && !classifier.isEmpty() ? classifier : null;
+            this.version = Objects.requireNonNull(version);
+            this.sha256 = sha256;
+            this.repository = repository;
+        }
+
+        static Artifact parse(String coords, String sha256, String repository) {
+            final String[] cs = coords.split(":");
+            if (cs.length == 4)
+                return new Artifact(cs[0], cs[1], cs[2], null, cs[3], sha256, repository);
+            if (cs.length == 5)
+                return new Artifact(cs[0], cs[1], cs[2], cs[3], cs[4], sha256, repository);
+            throw new IllegalArgumentException("Could not parse locked artifact: " + coords);
+        }
+
+        /**
+         * The artifact's coordinates formatted as {@code GROUP:ARTIFACT:EXTENSION[:CLASSIFIER]:VERSION}.
+         */
+        public String getCoordinates() {
+            return groupId + ":" + artifactId + ":" + extension + (classifier != null ? ":" + classifier : "") + ":" + version;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        /**
+         * The artifact's location in a local repository with the default Maven layout.
+         */
+        public Path getLocalPath(Path localRepo) {
+            return localRepo
+                    .resolve(groupId.replace('.', '/'))
+                    .resolve(artifactId)
+                    .resolve(getBaseVersion())
+                    .resolve(artifactId + "-" + version + (classifier != null ? "-" + classifier : "") + "." + extension);
+        }
+
+        /**
+         * Tests whether the given file matches this artifact's digest (if known).
+         */
+        public boolean matches(Path file) throws IOException {
+            return sha256 == null || sha256.equalsIgnoreCase(sha256(file));
+        }
+
+        private String getBaseVersion() {
+            final Matcher m = PAT_TIMESTAMPED_SNAPSHOT.matcher(version);
+            return m.matches() ? m.group("base") + "-SNAPSHOT" : version;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Artifact))
+                return false;
+            final Artifact other = (Artifact) obj;
+            return getCoordinates().equals(other.getCoordinates())
+                   && Objects.equals(sha256, other.sha256)
+                   && Objects.equals(repository, other.repository);
+        }
+
+        @Override
+        public int hashCode() {
+            return getCoordinates().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return getCoordinates();
+        }
+    }
+
+    /**
+     * Computes the SHA-256 digest of the given file as a hex string.
+     */
+    public static String sha256(Path file) throws IOException {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        try (InputStream is = Files.newInputStream(file)) {
+            final byte[] buf = new byte[8192];
+            for (int n; (n = is.read(buf)) > 0;)
+                md.update(buf, 0, n);
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest())
+            sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+}
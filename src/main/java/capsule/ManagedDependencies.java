@@ -0,0 +1,231 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.ArtifactProperties;
+import org.eclipse.aether.collection.DependencyCollectionContext;
+import org.eclipse.aether.collection.DependencyManagement;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.util.artifact.JavaScopes;
+
+/**
+ * An index of managed dependencies by {@code groupId:artifactId:extension:classifier}, built once per list of managed dependencies
+ * (see {@link #of(List) of}) and shared by all collections -- and all nodes of a collection -- that use that list.
+ * <p>
+ * As with Maven's {@code dependencyManagement}, the first entry for a key that specifies an attribute (version, scope, etc.) wins;
+ * exclusions are merged.
+ */
+final class ManagedDependencies {
+    private static volatile ManagedDependencies last; // the same list is used for all of a DependencyManager's requests
+
+    private final List<Dependency> source;
+    private final Map<Key, Entry> entries;
+
+    /**
+     * Returns the index of the given managed dependencies, reusing the last one built if it was built from the same list.
+     */
+    static ManagedDependencies of(List<Dependency> managedDependencies) {
+        if (managedDependencies == null)
+            managedDependencies = Collections.emptyList();
+        ManagedDependencies index = last;
+        if (index == null || index.source != managedDependencies)
+            last = index = new ManagedDependencies(managedDependencies);
+        return index;
+    }
+
+    private ManagedDependencies(List<Dependency> managedDependencies) {
+        this.source = managedDependencies;
+        this.entries = new HashMap<>(managedDependencies.size() * 4 / 3 + 1);
+        for (Dependency d : managedDependencies) {
+            final Key key = new Key(d.getArtifact());
+            Entry e = entries.get(key);
+            if (e == null)
+                entries.put(key, e = new Entry());
+            e.add(d);
+        }
+    }
+
+    /**
+     * Returns the management of the given artifact, or {@code null} if it's not managed.
+     */
+    Entry get(Artifact a) {
+        return entries.isEmpty() ? null : entries.get(new Key(a));
+    }
+
+    /**
+     * The managed version of the given artifact, or {@code null} if none.
+     */
+    String getVersion(Artifact a) {
+        final Entry e = get(a);
+        return e != null ? e.version : null;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * The merged management of a single artifact.
+     */
+    static final class Entry {
+        String version;
+        String scope;
+        Boolean optional;
+        String localPath;
+        Collection<Exclusion> exclusions;
+
+        private void add(Dependency d) {
+            final Artifact a = d.getArtifact();
+            if (version == null && !a.getVersion().isEmpty())
+                version = a.getVersion();
+            if (scope == null && !d.getScope().isEmpty())
+                scope = d.getScope();
+            if (optional == null)
+                optional = d.getOptional();
+            if (localPath == null)
+                localPath = a.getProperty(ArtifactProperties.LOCAL_PATH, null);
+            if (!d.getExclusions().isEmpty()) {
+                if (exclusions == null)
+                    exclusions = new LinkedHashSet<>();
+                exclusions.addAll(d.getExclusions());
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String groupId;
+        private final String artifactId;
+        private final String extension;
+        private final String classifier;
+        private final int hash;
+
+        Key(Artifact a) {
+            this.groupId = a.getGroupId();
+            this.artifactId = a.getArtifactId();
+            this.extension = a.getExtension();
+            this.classifier = a.getClassifier();
+            this.hash = ((groupId.hashCode() * 31 + artifactId.hashCode()) * 31 + extension.hashCode()) * 31 + classifier.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            final Key other = (Key) obj;
+            return hash == other.hash && artifactId.equals(other.artifactId) && groupId.equals(other.groupId)
+                   && extension.equals(other.extension) && classifier.equals(other.classifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * An Aether dependency manager with the same semantics as {@link org.eclipse.aether.util.graph.manager.ClassicDependencyManager}:
+     * the root's managed dependencies apply to transitive dependencies (from depth 2), and their exclusions at any depth.
+     * <p>
+     * Unlike the classic manager, which copies the managed dependencies into five maps for every collection, and hashes and
+     * compares those maps whenever the collector looks up its node cache, this one looks them up in a shared {@link ManagedDependencies}
+     * index, and is compared by identity.
+     */
+    static final class Manager implements org.eclipse.aether.collection.DependencyManager {
+        private final int depth;
+        private final ManagedDependencies index;
+        private Manager child;
+
+        Manager() {
+            this(0, null);
+        }
+
+        private Manager(int depth, ManagedDependencies index) {
+            this.depth = depth;
+            this.index = index;
+        }
+
+        @Override
+        public org.eclipse.aether.collection.DependencyManager deriveChildManager(DependencyCollectionContext context) {
+            if (depth >= 2)
+                return this;
+            if (depth == 1) {
+                if (child == null)
+                    child = new Manager(2, index);
+                return child;
+            }
+            return new Manager(1, of(context.getManagedDependencies()));
+        }
+
+        @Override
+        public DependencyManagement manageDependency(Dependency dependency) {
+            final Entry e = index != null ? index.get(dependency.getArtifact()) : null;
+            if (e == null)
+                return null;
+
+            DependencyManagement management = null;
+            if (depth >= 2) {
+                if (e.version != null)
+                    management = new DependencyManagement().setVersion(e.version);
+                if (e.scope != null) {
+                    management = nonNull(management).setScope(e.scope);
+                    if (!JavaScopes.SYSTEM.equals(e.scope) && dependency.getArtifact().getProperty(ArtifactProperties.LOCAL_PATH, null) != null) {
+                        final Map<String, String> properties = new HashMap<>(dependency.getArtifact().getProperties());
+                        properties.remove(ArtifactProperties.LOCAL_PATH);
+                        management.setProperties(properties);
+                    }
+                }
+                if ((e.scope != null && JavaScopes.SYSTEM.equals(e.scope)) || (e.scope == null && JavaScopes.SYSTEM.equals(dependency.getScope()))) {
+                    if (e.localPath != null) {
+                        final Map<String, String> properties = new HashMap<>(dependency.getArtifact().getProperties());
+                        properties.put(ArtifactProperties.LOCAL_PATH, e.localPath);
+                        management = nonNull(management).setProperties(properties);
+                    }
+                }
+                if (e.optional != null)
+                    management = nonNull(management).setOptional(e.optional);
+            }
+            if (e.exclusions != null) {
+                final Collection<Exclusion> exclusions = new LinkedHashSet<>(dependency.getExclusions());
+                exclusions.addAll(e.exclusions);
+                management = nonNull(management).setExclusions(exclusions);
+            }
+            return management;
+        }
+
+        private static DependencyManagement nonNull(DependencyManagement management) {
+            return management != null ? management : new DependencyManagement();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Manager))
+                return false;
+            final Manager other = (Manager) obj;
+            return depth == other.depth && index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * depth + Objects.hashCode(index);
+        }
+    }
+}
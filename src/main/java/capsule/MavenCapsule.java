@@ -9,7 +9,6 @@
 package capsule;
 
 import java.nio.file.Path;
-import java.util.List;
 
 /**
  *
@@ -21,7 +20,20 @@ public interface MavenCapsule {
     static final int LOG_VERBOSE1 = 2;
     static final int LOG_DEBUG1 = 3;
     
-    List<Path> lookupAndResolve(String x, String type);
+    /**
+     * Resolves a single artifact, without its dependencies.
+     */
+    Path resolveArtifact(String coords, String type);
+
+    /**
+     * The persistent cache of imported BOMs, or {@code null} if there is none.
+     */
+    BomCache getBomCache();
+
+    /**
+     * The parent POMs and imported BOMs shared by the caplet chain, or {@code null} if they are not shared.
+     */
+    Pom.ParentCache getParentCache();
     
     boolean isLogging1(int level);
 
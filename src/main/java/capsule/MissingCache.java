@@ -0,0 +1,246 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent negative cache, recording which artifacts and metadata files (by their paths in the repository layout) were found
+ * missing from which remote repositories, so that they are not requested from those repositories again until the entry expires.
+ * <p>
+ * Each repository's entries are kept in a file of its own, to which entries are appended as they are recorded (so concurrent launches
+ * may share it), and which is compacted when it is read. Appends and compaction are serialized across launches with a file lock.
+ * A file that was found after all is recorded with a zero timestamp.
+ * This class only uses JDK classes.
+ */
+public final class MissingCache {
+    private static final String HEADER = "capsule-maven-missing 1";
+    private static final char SEP = '\t';
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private final Path dir;
+    private final long ttl;
+    private final ConcurrentMap<String, Map<String, Long>> repos = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param dir the cache directory
+     * @param ttl the time, in milliseconds, an entry is kept; negative for ever
+     */
+    public MissingCache(Path dir, long ttl) {
+        this.dir = dir;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Whether the file at the given path was found missing from the given repository, and the entry hasn't expired.
+     * Counted as a hit if so, and as a miss otherwise.
+     */
+    boolean isMissing(String repoUrl, String path) {
+        final Long time = entries(repoUrl).get(path);
+        final boolean missing = time != null && time > 0 && (ttl < 0 || System.currentTimeMillis() - time < ttl);
+        (missing ? hits : misses).incrementAndGet();
+        return missing;
+    }
+
+    /**
+     * Records that the file at the given path is missing from the given repository.
+     */
+    void putMissing(String repoUrl, String path) throws IOException {
+        final long now = System.currentTimeMillis();
+        entries(repoUrl).put(path, now);
+        append(repoUrl, path, now);
+    }
+
+    /**
+     * Records that the file at the given path has been found in the given repository, if it's been recorded missing.
+     */
+    void putFound(String repoUrl, String path) throws IOException {
+        final Map<String, Long> entries = entries(repoUrl);
+        final Long time = entries.get(path);
+        if (time != null && time > 0) {
+            entries.put(path, 0L);
+            append(repoUrl, path, 0);
+        }
+    }
+
+    /**
+     * The number of lookups that found an unexpired entry, saving a request to the repository.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * The number of lookups that didn't, so that the file was requested from the repository.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Forgets all entries.
+     */
+    public void clear() throws IOException {
+        repos.clear();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files)
+                Files.deleteIfExists(f);
+        } catch (NoSuchFileException e) {
+        }
+    }
+
+    private Map<String, Long> entries(String repoUrl) {
+        Map<String, Long> entries = repos.get(repoUrl);
+        if (entries == null) {
+            entries = new ConcurrentHashMap<>();
+            try {
+                read(repoUrl, entries);
+            } catch (IOException | RuntimeException e) {
+                entries.clear(); // a corrupt file only costs the requests it would have saved
+            }
+            final Map<String, Long> es = repos.putIfAbsent(repoUrl, entries);
+            if (es != null)
+                entries = es;
+        }
+        return entries;
+    }
+
+    private void read(String repoUrl, Map<String, Long> entries) throws IOException {
+        final int lines = read(file(repoUrl), repoUrl, entries);
+        if (lines > 2 * entries.size() + 16) {
+            try {
+                compact(repoUrl);
+            } catch (IOException e) {
+                // the entries read are still good; compaction can wait for a later launch
+            }
+        }
+    }
+
+    /**
+     * Reads the unexpired entries in the given file.
+     *
+     * @return the number of lines read
+     */
+    private int read(Path file, String repoUrl, Map<String, Long> entries) throws IOException {
+        int lines = 0;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(r.readLine()) || !repoUrl.equals(r.readLine()))
+                return 0;
+            for (String line; (line = r.readLine()) != null;) {
+                final int i = line.indexOf(SEP);
+                if (i <= 0)
+                    continue;
+                lines++;
+                entries.put(line.substring(i + 1), Long.parseLong(line.substring(0, i)));
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> e : entries.entrySet()) {
+            if (e.getValue() <= 0 || (ttl >= 0 && now - e.getValue() >= ttl))
+                entries.remove(e.getKey());
+        }
+        return lines;
+    }
+
+    private synchronized void compact(String repoUrl) throws IOException {
+        final Path file = file(repoUrl);
+        final FileChannel lock = lock(file);
+        try {
+            final Map<String, Long> entries = new ConcurrentHashMap<>();
+            read(file, repoUrl, entries); // again, under the lock, so that no entry appended by a concurrent launch is lost
+            final Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try {
+                try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    writeHeader(w, repoUrl);
+                    for (Map.Entry<String, Long> e : entries.entrySet())
+                        writeEntry(w, e.getKey(), e.getValue());
+                }
+                ResolutionCache.move(tmp, file);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    private synchronized void append(String repoUrl, String path, long time) throws IOException {
+        Files.createDirectories(dir);
+        final Path file = file(repoUrl);
+        final FileChannel lock = lock(file);
+        try {
+            final boolean exists = Files.exists(file);
+            try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                if (!exists)
+                    writeHeader(w, repoUrl);
+                writeEntry(w, path, time);
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Locks the given file against appends and compaction by other launches, until the returned channel is closed.
+     * The lock is held on a separate file, as compaction replaces the file itself.
+     * A lock already held in this JVM (e.g., by another instance on the same directory) is reported as an {@code IOException},
+     * so that callers treat it like any other failure to use the cache.
+     */
+    private static FileChannel lock(Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.resolveSibling(file.getFileName() + LOCK_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+            return channel;
+        } catch (OverlappingFileLockException e) {
+            channel.close();
+            throw new IOException("The lock on " + file + " is already held in this JVM", e);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void writeHeader(BufferedWriter w, String repoUrl) throws IOException {
+        w.write(HEADER);
+        w.newLine();
+        w.write(repoUrl);
+        w.newLine();
+    }
+
+    private static void writeEntry(BufferedWriter w, String path, long time) throws IOException {
+        w.write(Long.toString(time));
+        w.write(SEP);
+        w.write(path);
+        w.newLine();
+    }
+
+    private Path file(String repoUrl) {
+        return dir.resolve(ResolutionCache.key(Collections.singleton(repoUrl)));
+    }
+}
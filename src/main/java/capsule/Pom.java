@@ -12,30 +12,41 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.maven.model.Dependency;
-import org.apache.maven.model.Exclusion;
-import org.apache.maven.model.Model;
-import org.apache.maven.model.Repository;
-import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import capsule.PomReader.Dependency;
+import capsule.PomReader.Project;
+import capsule.PomReader.Repository;
 import org.eclipse.aether.util.artifact.JavaScopes;
 
 public final class Pom {
-    private final Model pom;
+    private static final ThreadLocal<Set<String>> importing = new ThreadLocal<Set<String>>() {
+        @Override
+        protected Set<String> initialValue() {
+            return new HashSet<>();
+        }
+    };
+
+    private final Project pom;
     private final Pom root;
     private final MavenCapsule capsule;
     private Pom parent;
     private Map<String, Dependency> managedDependencies;
     private Map<String, String> props;
+    private Map<String, String> resolvedProps;
 
     public Pom(InputStream is, Pom root, MavenCapsule capsule) {
         try {
-            this.pom = new MavenXpp3Reader().read(is);
+            this.pom = PomReader.read(is);
             this.root = root;
             this.capsule = capsule;
         } catch (Exception e) {
@@ -54,12 +65,12 @@ public final class Pom {
     }
 
     private Pom resolveParent() {
-        if (pom.getParent() == null)
+        if (pom.parent == null)
             return null;
 
-        final String group = pom.getParent().getGroupId();
-        final String artifactId = pom.getParent().getArtifactId();
-        final String version = pom.getParent().getVersion();
+        final String group = pom.parent.groupId;
+        final String artifactId = pom.parent.artifactId;
+        final String version = pom.parent.version;
 
         if (root != null
             && Objects.equals(group, root.getGroupId())
@@ -67,15 +78,25 @@ public final class Pom {
             && Objects.equals(version, root.getVersion()))
             return root;
 
+        final String coords = group + ":" + artifactId + ":" + version;
+        final ParentCache shared = getParentCache();
+        final Pom cached = shared != null ? shared.parents.get(coords) : null;
+        if (cached != null)
+            return cached;
+
         if (capsule != null) {
             try {
-                capsule.log1(MavenCapsule.LOG_VERBOSE1, "Resolving parent " + pom.getParent() + " of pom " + pom);
-                final String coords = group + ":" + artifactId + ":" + version;
-                final List<Path> ps = capsule.lookupAndResolve(coords, "pom");
-                if (!ps.isEmpty())
-                    return new Pom(Files.newInputStream(ps.get(0)), root, capsule);
+                capsule.log1(MavenCapsule.LOG_VERBOSE1, "Resolving parent " + pom.parent + " of pom " + pom);
+                final Path p = capsule.resolveArtifact(coords, "pom");
+                if (p != null) {
+                    try (InputStream is = Files.newInputStream(p)) {
+                        final Pom parent = new Pom(is, root, capsule);
+                        final Pom existing = shared != null ? shared.parents.putIfAbsent(coords, parent) : null;
+                        return existing != null ? existing : parent;
+                    }
+                }
             } catch (Exception e) {
-                capsule.log1(MavenCapsule.LOG_QUIET1, "Exception while resolving parent " + pom.getParent() + " of pom " + pom + " : " + e.getMessage());
+                capsule.log1(MavenCapsule.LOG_QUIET1, "Exception while resolving parent " + pom.parent + " of pom " + pom + " : " + e.getMessage());
                 capsule.log1(MavenCapsule.LOG_VERBOSE1, e);
             }
         }
@@ -83,20 +104,24 @@ public final class Pom {
         return null;
     }
 
+    private ParentCache getParentCache() {
+        return capsule != null ? capsule.getParentCache() : null;
+    }
+
     public String getArtifactId() {
-        return pom.getArtifactId();
+        return pom.artifactId;
     }
 
     public String getGroupId() {
-        return pom.getGroupId() != null ? pom.getGroupId() : (pom.getParent() != null ? pom.getParent().getGroupId() : null);
+        return pom.groupId != null ? pom.groupId : (pom.parent != null ? pom.parent.groupId : null);
     }
 
     public String getVersion() {
-        return pom.getVersion() != null ? pom.getVersion() : (pom.getParent() != null ? pom.getParent().getVersion() : null);
+        return pom.version != null ? pom.version : (pom.parent != null ? pom.parent.version : null);
     }
 
     public String getId() {
-        return pom.getId();
+        return pom.toString();
     }
 
     public Map<String, String> getProperties() {
@@ -104,16 +129,13 @@ public final class Pom {
             props = new HashMap<>();
             if (getParent() != null)
                 props.putAll(getParent().getProperties());
-            for (Map.Entry<Object, Object> e : pom.getProperties().entrySet())
-                props.put((String) e.getKey(), (String) e.getValue());
+            props.putAll(pom.properties);
         }
         return props;
     }
 
     public List<String> getRepositories() {
-        final List<Repository> repos = pom.getRepositories();
-        if (repos == null)
-            return Collections.emptyList();
+        final List<Repository> repos = pom.repositories;
 
         final List<String> repositories = new ArrayList<>(repos.size());
         for (Repository repo : repos)
@@ -122,13 +144,10 @@ public final class Pom {
     }
 
     public List<String> getDependencies(String type) {
-        final List<Dependency> deps = pom.getDependencies();
-        if (deps == null)
-            return Collections.emptyList();
-
+        final List<Dependency> deps = pom.dependencies;
         final List<String> dependencies = new ArrayList<>(deps.size());
         for (Dependency dep : deps) {
-            if (includeDependency(dep) && type.equals(dep.getType()))
+            if (includeDependency(dep) && type.equals(dep.type))
                 dependencies.add(resolve(depToString(manageVersion(dep))));
         }
         return dependencies;
@@ -145,40 +164,129 @@ public final class Pom {
         return dependencies;
     }
     
+    /**
+     * This POM's managed dependencies, merged with its parents' and then with those of the BOMs it imports
+     * (which, as in Maven, only apply to dependencies not already managed, and in order of import).
+     * The map is shared with the parent (copy-on-write) if this POM manages no dependencies of its own, and must not be modified.
+     */
     private Map<String, Dependency> getManagedDependencies0() {
         if (managedDependencies == null) {
-            managedDependencies = new HashMap<>();
-            if (getParent() != null)
-                managedDependencies.putAll(getParent().getManagedDependencies0());
-            
-            if (pom.getDependencyManagement() != null) {
-                for (Dependency d : pom.getDependencyManagement().getDependencies())
-                    managedDependencies.put(d.getManagementKey(), d);
+            Map<String, Dependency> deps = getParent() != null ? getParent().getManagedDependencies0() : Collections.<String, Dependency>emptyMap();
+            if (!pom.managedDependencies.isEmpty()) {
+                deps = new HashMap<>(deps);
+                List<Dependency> imports = null;
+                for (Dependency d : pom.managedDependencies) {
+                    if (isImport(d)) {
+                        if (imports == null)
+                            imports = new ArrayList<>();
+                        imports.add(d);
+                    } else
+                        deps.put(d.getManagementKey(), d);
+                }
+                if (imports != null) {
+                    for (Dependency bom : imports) {
+                        for (Dependency d : getImportedDependencies(bom)) {
+                            final String key = d.getManagementKey();
+                            if (!deps.containsKey(key))
+                                deps.put(key, d);
+                        }
+                    }
+                }
             }
+            managedDependencies = deps;
         } 
         return managedDependencies;
     }
 
+    private static boolean isImport(Dependency dep) {
+        return "import".equals(dep.scope) && "pom".equals(dep.type);
+    }
+
+    /**
+     * The managed dependencies of an imported BOM, interpolated in the BOM's context.
+     * Each BOM is read once per caplet chain (see {@link ParentCache}), and, if it is a release, once per local repository (see {@link BomCache}).
+     */
+    private List<Dependency> getImportedDependencies(Dependency bom) {
+        if (capsule == null)
+            return Collections.emptyList();
+        final String coords = resolve(bom.groupId) + ":" + resolve(bom.artifactId) + ":" + resolve(bom.version);
+        final ParentCache shared = getParentCache();
+        List<Dependency> deps = shared != null ? shared.boms.get(coords) : null;
+        if (deps != null)
+            return deps;
+
+        final BomCache cache = capsule.getBomCache();
+        if (cache != null) {
+            try {
+                deps = cache.get(coords);
+            } catch (Exception e) {
+                capsule.log1(MavenCapsule.LOG_VERBOSE1, "Could not read cached BOM " + coords + ": " + e.getMessage());
+            }
+        }
+        if (deps == null) {
+            if (!importing.get().add(coords)) {
+                capsule.log1(MavenCapsule.LOG_QUIET1, "Cyclic import of BOM " + coords + " in pom " + pom);
+                return Collections.emptyList();
+            }
+            try {
+                deps = readBom(coords);
+            } finally {
+                importing.get().remove(coords);
+            }
+            if (deps == null)
+                return Collections.emptyList(); // not cached, so that a later POM may retry
+            if (cache != null) {
+                try {
+                    cache.put(coords, deps);
+                } catch (Exception e) {
+                    capsule.log1(MavenCapsule.LOG_VERBOSE1, "Could not cache BOM " + coords + ": " + e.getMessage());
+                }
+            }
+        }
+        final List<Dependency> existing = shared != null ? shared.boms.putIfAbsent(coords, deps) : null;
+        return existing != null ? existing : deps;
+    }
+
+    private List<Dependency> readBom(String coords) {
+        try {
+            capsule.log1(MavenCapsule.LOG_VERBOSE1, "Resolving BOM " + coords + " imported by pom " + pom);
+            final Path p = capsule.resolveArtifact(coords, "pom");
+            if (p != null) {
+                final Pom bom;
+                try (InputStream is = Files.newInputStream(p)) {
+                    bom = new Pom(is, root, capsule);
+                }
+                final Collection<Dependency> managed = bom.getManagedDependencies0().values();
+                final List<Dependency> deps = new ArrayList<>(managed.size());
+                for (Dependency d : managed)
+                    deps.add(new Dependency(bom.resolve(d.groupId), bom.resolve(d.artifactId), bom.resolve(d.version), bom.resolve(d.type),
+                            bom.resolve(d.classifier), d.scope, d.optional, d.exclusions));
+                return Collections.unmodifiableList(deps);
+            }
+        } catch (Exception e) {
+            capsule.log1(MavenCapsule.LOG_QUIET1, "Exception while resolving BOM " + coords + " imported by pom " + pom + " : " + e.getMessage());
+            capsule.log1(MavenCapsule.LOG_VERBOSE1, e);
+        }
+        return null;
+    }
+
     /**
      * Applies dependency management to dependency versions
      */
     private Dependency manageVersion(Dependency dep) {
-        if (dep.getVersion() != null)
+        if (dep.version != null)
             return dep;
         
         final Dependency md = getManagedDependencies0().get(dep.getManagementKey());
-        if (md != null)
-            dep.setVersion(md.getVersion());
-
-        return dep;
+        return md != null ? dep.withVersion(md.version) : dep;
     }
 
     private static boolean includeDependency(Dependency dep) {
-        if (dep.isOptional())
+        if (dep.optional)
             return false;
-        if (dep.getScope() == null || dep.getScope().isEmpty())
+        if (dep.scope == null || dep.scope.isEmpty())
             return true;
-        switch (dep.getScope().toLowerCase()) {
+        switch (dep.scope.toLowerCase()) {
             case JavaScopes.COMPILE:
             case JavaScopes.RUNTIME:
                 return true;
@@ -192,58 +300,113 @@ public final class Pom {
     }
 
     private static String dep2coords(Dependency dep) {
-        return dep.getGroupId() + ":" + dep.getArtifactId()
-               + ":" + (dep.getVersion() != null ? dep.getVersion() : "")
-               + (dep.getClassifier() != null && !dep.getClassifier().isEmpty() ? ":" + dep.getClassifier() : "");
+        return dep.groupId + ":" + dep.artifactId
+               + ":" + (dep.version != null ? dep.version : "")
+               + (dep.classifier != null && !dep.classifier.isEmpty() ? ":" + dep.classifier : "");
     }
 
     private static String exclusions2desc(Dependency dep) {
-        List<Exclusion> exclusions = dep.getExclusions();
-        if (exclusions == null || exclusions.isEmpty())
+        List<String> exclusions = dep.exclusions;
+        if (exclusions.isEmpty())
             return "";
 
         StringBuilder sb = new StringBuilder();
         sb.append('(');
-        for (Exclusion ex : exclusions)
-            sb.append(exclusion2coord(ex)).append(',');
+        for (String ex : exclusions)
+            sb.append(ex).append(',');
         sb.delete(sb.length() - 1, sb.length());
         sb.append(')');
 
         return sb.toString();
     }
 
-    private static String exclusion2coord(Exclusion ex) {
-        return ex.getGroupId() + ":" + ex.getArtifactId();
-    }
-
     private static String depManagement2coords(Dependency dep) {
-        return dep.getGroupId() + ":" + dep.getArtifactId()
-               + ":" + (dep.getType() != null ? dep.getType() : "")
-               + ":" + (dep.getClassifier() != null ? dep.getClassifier() : "")
-               + ":" + (dep.isOptional() ? "-" : dep.getVersion() != null ? dep.getVersion() : "");
+        return dep.groupId + ":" + dep.artifactId
+               + ":" + dep.type
+               + ":" + (dep.classifier != null ? dep.classifier : "")
+               + ":" + (dep.optional ? "-" : dep.version != null ? dep.version : "");
     }
 
     private static String repoToString(Repository repo) {
-        if (repo.getId() != null && !repo.getId().isEmpty())
-            return repo.getId() + "(" + repo.getUrl() + ")";
-        return repo.getUrl();
+        if (repo.id != null && !repo.id.isEmpty())
+            return repo.id + "(" + repo.url + ")";
+        return repo.url;
     }
 
-    private String resolve(String s) {
+    /**
+     * Replaces all {@code ${...}} expressions in the given string, in a single pass.
+     * Property values are themselves interpolated (once per POM); expressions that cannot be resolved -- because the property is
+     * undefined or refers back to itself -- are left as they are.
+     */
+    String resolve(String s) {
         if (s == null)
             return null;
+        return interpolate(s, null);
+    }
+
+    private String interpolate(String s, Set<String> resolving) {
+        int start = s.indexOf("${");
+        if (start < 0)
+            return s;
+
+        final StringBuilder sb = new StringBuilder(s.length() + 16);
+        int pos = 0;
+        while (start >= 0) {
+            final int end = s.indexOf('}', start + 2);
+            if (end < 0)
+                break;
+            final String value = property(s.substring(start + 2, end), resolving);
+            sb.append(s, pos, start).append(value != null ? value : s.substring(start, end + 1));
+            pos = end + 1;
+            start = s.indexOf("${", pos);
+        }
+        return sb.append(s, pos, s.length()).toString();
+    }
+
+    private String property(String name, Set<String> resolving) {
+        switch (name) {
+            case "project.groupId":
+            case "pom.groupId":
+                return getGroupId();
+            case "project.version":
+            case "pom.version":
+            case "version":
+                return getVersion();
+        }
+
+        if (resolvedProps == null)
+            resolvedProps = new HashMap<>();
+        if (resolvedProps.containsKey(name))
+            return resolvedProps.get(name);
 
-        final Map<String, String> ps = getProperties();
-        String ret = s;
-        if (getGroupId() != null)
-            ret = ret.replace("${project.groupId}", getGroupId()).replace("${pom.groupId}", getGroupId());
-        if (getVersion() != null)
-            ret = ret
-                    .replace("${project.version}", getVersion())
-                    .replace("${pom.version}", getVersion())
-                    .replace("${version}", getVersion());
-        for (String pName : ps.keySet())
-            ret = ret.replace("${" + pName + "}", ps.get(pName));
-        return ret;
+        final String raw = getProperties().get(name);
+        if (raw == null)
+            return null;
+        if (resolving == null)
+            resolving = new HashSet<>();
+        if (!resolving.add(name))
+            return null; // cycle
+        final String value = interpolate(raw, resolving);
+        resolving.remove(name);
+        resolvedProps.put(name, value);
+        return value;
+    }
+
+    /**
+     * Parent POMs and imported BOMs, keyed by group:artifact:version, shared by all POMs read by a caplet chain (e.g. by all dependencies
+     * sharing a corporate parent). Each parent memoizes its own parent, properties and managed dependencies, so a chain is only read and
+     * interpolated once.
+     */
+    public static final class ParentCache {
+        final ConcurrentMap<String, Pom> parents = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, List<Dependency>> boms = new ConcurrentHashMap<>(); // their (interpolated) managed dependencies
+
+        /**
+         * Forgets all parents and BOMs.
+         */
+        public void clear() {
+            parents.clear();
+            boms.clear();
+        }
     }
 }
@@ -0,0 +1,143 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent index of the (interpolated) dependencies listed in the POMs of a capsule's embedded JARs.
+ * <p>
+ * Entries are keyed by the JAR's path, size and modification time (see {@link #key(Path, String) key}), so a changed JAR simply
+ * results in a miss. As embedded POMs may inherit from the capsule's own POM, the whole index is stamped with the capsule JAR's
+ * identity, and is discarded if that changes. The index is kept in a single file, read once and rewritten only when modified.
+ * This class only uses JDK classes, so that a cache hit does not load any of the Aether machinery.
+ */
+public final class PomCache {
+    private static final String HEADER = "capsule-maven-poms 1";
+    private static final char DEP_PREFIX = '\t';
+
+    private final Path file;
+    private final String stamp;
+    private Map<String, List<String>> entries;
+    private boolean modified;
+
+    /**
+     * @param file  the index file
+     * @param stamp the identity of the capsule the index belongs to (see {@link #stamp(Path) stamp})
+     */
+    public PomCache(Path file, String stamp) {
+        this.file = file;
+        this.stamp = stamp;
+    }
+
+    /**
+     * Returns a string identifying the given file's path, size and modification time.
+     */
+    public static String stamp(Path file) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return attrs.size() + " " + attrs.lastModifiedTime().toMillis() + " " + file.toAbsolutePath();
+    }
+
+    /**
+     * Computes the cache key for the dependencies of the given type of the given JAR.
+     */
+    public static String key(Path jar, String type) throws IOException {
+        return type + " " + stamp(jar);
+    }
+
+    /**
+     * Returns the cached dependencies for the given key, or {@code null} if there are none.
+     */
+    public List<String> get(String key) throws IOException {
+        return load().get(key);
+    }
+
+    /**
+     * Stores the given dependencies under the given key, replacing any existing entry.
+     * The change is written by {@link #save() save}.
+     */
+    public void put(String key, List<String> deps) throws IOException {
+        final List<String> old = load().put(key, Collections.unmodifiableList(new ArrayList<>(deps)));
+        if (!deps.equals(old))
+            modified = true;
+    }
+
+    /**
+     * Writes the index, if it has been modified since it was read.
+     */
+    public void save() throws IOException {
+        if (!modified)
+            return;
+        final Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        final Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(HEADER);
+                w.newLine();
+                w.write(stamp);
+                w.newLine();
+                for (Map.Entry<String, List<String>> e : entries.entrySet()) {
+                    w.write(e.getKey());
+                    w.newLine();
+                    for (String dep : e.getValue()) {
+                        w.write(DEP_PREFIX);
+                        w.write(dep);
+                        w.newLine();
+                    }
+                }
+            }
+            ResolutionCache.move(tmp, file);
+            modified = false;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Map<String, List<String>> load() throws IOException {
+        if (entries == null)
+            entries = read();
+        return entries;
+    }
+
+    private Map<String, List<String>> read() throws IOException {
+        final Map<String, List<String>> index = new LinkedHashMap<>();
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(r.readLine()) || !stamp.equals(r.readLine()))
+                return index;
+            List<String> deps = null;
+            for (String line; (line = r.readLine()) != null;) {
+                if (line.isEmpty())
+                    continue;
+                if (line.charAt(0) == DEP_PREFIX) {
+                    if (deps == null)
+                        return new LinkedHashMap<>();
+                    deps.add(line.substring(1));
+                } else {
+                    deps = new ArrayList<>();
+                    index.put(line, deps);
+                }
+            }
+        } catch (NoSuchFileException e) {
+        }
+        return index;
+    }
+}
@@ -0,0 +1,604 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+
+/**
+ * Reads the parts of a POM used by {@link Pom} -- coordinates, parent, properties, repositories, dependencies and dependency management --
+ * into compact immutable structures, skipping everything else.
+ * <p>
+ * POMs are read with a minimal pull-parser, which only tokenizes the document as far as it needs to; if that fails (e.g. the POM has a
+ * DTD, or uses entities that are not predefined in XML), the full Maven model is read with {@link MavenXpp3Reader}, and converted.
+ */
+final class PomReader {
+    private PomReader() {
+    }
+
+    /**
+     * Reads a POM.
+     */
+    static Project read(InputStream is) throws IOException {
+        byte[] buf = new byte[Math.max(is.available() + 1, 4096)];
+        int n = 0;
+        for (int r; (r = is.read(buf, n, buf.length - n)) >= 0;) {
+            n += r;
+            if (n == buf.length)
+                buf = Arrays.copyOf(buf, n * 2);
+        }
+        try {
+            return parse(buf, n);
+        } catch (IOException | RuntimeException e) {
+            try {
+                return Project.of(new MavenXpp3Reader().read(new ByteArrayInputStream(buf, 0, n)));
+            } catch (Exception e1) {
+                throw new IOException(e1);
+            }
+        }
+    }
+
+    static Project parse(byte[] pom, int length) throws IOException {
+        final Scanner r = new Scanner(pom, length);
+        if (!r.nextTag() || !"project".equals(r.name()))
+            throw new IOException("Not a POM");
+
+        String groupId = null, artifactId = null, version = null, packaging = null;
+        Parent parent = null;
+        Map<String, String> properties = Collections.emptyMap();
+        List<Repository> repositories = Collections.emptyList();
+        List<Dependency> dependencies = Collections.emptyList();
+        List<Dependency> managed = Collections.emptyList();
+        while (r.nextTag()) {
+            switch (r.name()) {
+                case "groupId":
+                    groupId = text(r);
+                    break;
+                case "artifactId":
+                    artifactId = text(r);
+                    break;
+                case "version":
+                    version = text(r);
+                    break;
+                case "packaging":
+                    packaging = text(r);
+                    break;
+                case "parent":
+                    parent = parent(r);
+                    break;
+                case "properties":
+                    properties = properties(r);
+                    break;
+                case "repositories":
+                    repositories = repositories(r);
+                    break;
+                case "dependencies":
+                    dependencies = dependencies(r);
+                    break;
+                case "dependencyManagement":
+                    while (r.nextTag()) {
+                        if ("dependencies".equals(r.name()))
+                            managed = dependencies(r);
+                        else
+                            r.skip();
+                    }
+                    break;
+                default:
+                    r.skip();
+            }
+        }
+        return new Project(groupId, artifactId, version, packaging, parent, properties, repositories, dependencies, managed);
+    }
+
+    //<editor-fold defaultstate="collapsed" desc="Parsing">
+    /////////// Parsing ///////////////////////////////////
+    private static Parent parent(Scanner r) throws IOException {
+        String groupId = null, artifactId = null, version = null;
+        while (r.nextTag()) {
+            switch (r.name()) {
+                case "groupId":
+                    groupId = text(r);
+                    break;
+                case "artifactId":
+                    artifactId = text(r);
+                    break;
+                case "version":
+                    version = text(r);
+                    break;
+                default:
+                    r.skip();
+            }
+        }
+        return new Parent(groupId, artifactId, version);
+    }
+
+    private static Map<String, String> properties(Scanner r) throws IOException {
+        final Map<String, String> properties = new LinkedHashMap<>();
+        while (r.nextTag()) {
+            final String name = r.name();
+            properties.put(name, text(r));
+        }
+        return Collections.unmodifiableMap(properties);
+    }
+
+    private static List<Repository> repositories(Scanner r) throws IOException {
+        final List<Repository> repositories = new ArrayList<>();
+        while (r.nextTag()) {
+            if (!"repository".equals(r.name())) {
+                r.skip();
+                continue;
+            }
+            String id = null, url = null;
+            while (r.nextTag()) {
+                switch (r.name()) {
+                    case "id":
+                        id = text(r);
+                        break;
+                    case "url":
+                        url = text(r);
+                        break;
+                    default:
+                        r.skip();
+                }
+            }
+            repositories.add(new Repository(id, url));
+        }
+        return Collections.unmodifiableList(repositories);
+    }
+
+    private static List<Dependency> dependencies(Scanner r) throws IOException {
+        final List<Dependency> dependencies = new ArrayList<>();
+        while (r.nextTag()) {
+            if ("dependency".equals(r.name()))
+                dependencies.add(dependency(r));
+            else
+                r.skip();
+        }
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    private static Dependency dependency(Scanner r) throws IOException {
+        String groupId = null, artifactId = null, version = null, type = null, classifier = null, scope = null, optional = null;
+        List<String> exclusions = Collections.emptyList();
+        while (r.nextTag()) {
+            switch (r.name()) {
+                case "groupId":
+                    groupId = text(r);
+                    break;
+                case "artifactId":
+                    artifactId = text(r);
+                    break;
+                case "version":
+                    version = text(r);
+                    break;
+                case "type":
+                    type = text(r);
+                    break;
+                case "classifier":
+                    classifier = text(r);
+                    break;
+                case "scope":
+                    scope = text(r);
+                    break;
+                case "optional":
+                    optional = text(r);
+                    break;
+                case "exclusions":
+                    exclusions = exclusions(r);
+                    break;
+                default:
+                    r.skip();
+            }
+        }
+        return new Dependency(groupId, artifactId, version, type, classifier, scope, Boolean.parseBoolean(optional), exclusions);
+    }
+
+    private static List<String> exclusions(Scanner r) throws IOException {
+        final List<String> exclusions = new ArrayList<>();
+        while (r.nextTag()) {
+            if (!"exclusion".equals(r.name())) {
+                r.skip();
+                continue;
+            }
+            String groupId = null, artifactId = null;
+            while (r.nextTag()) {
+                switch (r.name()) {
+                    case "groupId":
+                        groupId = text(r);
+                        break;
+                    case "artifactId":
+                        artifactId = text(r);
+                        break;
+                    default:
+                        r.skip();
+                }
+            }
+            exclusions.add(groupId + ":" + artifactId);
+        }
+        return Collections.unmodifiableList(exclusions);
+    }
+
+    private static String text(Scanner r) throws IOException {
+        return r.text().trim();
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Scanner">
+    /////////// Scanner ///////////////////////////////////
+    /**
+     * A minimal XML pull-parser, sufficient for POMs. It reports start and end tags (ignoring attributes, comments and processing
+     * instructions), reads the text of elements that have no child elements, and skips elements wholesale without looking at their names.
+     * Anything else -- a DTD, entities other than the predefined ones, text mixed with elements -- is an error.
+     */
+    private static final class Scanner {
+        private final String s;
+        private int pos;
+        private String name;
+        private boolean empty; // the current start tag is self-closing
+
+        Scanner(byte[] bytes, int length) {
+            this.s = new String(bytes, 0, length, charset(bytes, length));
+            this.pos = s.startsWith("\uFEFF") ? 1 : 0;
+        }
+
+        /**
+         * Moves to the next start or end tag.
+         *
+         * @return {@code true} if it's a start tag; {@code false} if it's an end tag
+         */
+        boolean nextTag() throws IOException {
+            if (empty) {
+                empty = false;
+                return false;
+            }
+            for (;;) {
+                final int lt = next('<');
+                for (int i = pos; i < lt; i++) {
+                    if (!Character.isWhitespace(s.charAt(i)))
+                        throw new IOException("Unexpected text at " + i);
+                }
+                pos = lt;
+                if (skipMarkup())
+                    continue;
+                if (s.startsWith("</", pos)) {
+                    pos = after(pos, ">");
+                    return false;
+                }
+                int i = pos + 1;
+                int start = i;
+                for (char c; i < s.length() && !Character.isWhitespace(c = s.charAt(i)) && c != '/' && c != '>'; i++) {
+                    if (c == ':')
+                        start = i + 1; // ignore prefix
+                }
+                this.name = s.substring(start, i);
+                this.empty = skipTag(i);
+                return true;
+            }
+        }
+
+        /**
+         * The name of the current start tag.
+         */
+        String name() {
+            return name;
+        }
+
+        /**
+         * Reads the text of the current element, and moves past its end tag.
+         */
+        String text() throws IOException {
+            if (empty) {
+                empty = false;
+                return "";
+            }
+            StringBuilder sb = null;
+            for (;;) {
+                final int lt = next('<');
+                if (sb == null && s.startsWith("</", lt) && !contains('&', pos, lt)) {
+                    final String text = s.substring(pos, lt);
+                    pos = after(lt, ">");
+                    return text;
+                }
+                if (sb == null)
+                    sb = new StringBuilder();
+                appendText(sb, pos, lt);
+                pos = lt;
+                if (s.startsWith("<![CDATA[", pos)) {
+                    final int end = after(pos, "]]>");
+                    sb.append(s, pos + 9, end - 3);
+                    pos = end;
+                } else if (s.startsWith("</", pos)) {
+                    pos = after(pos, ">");
+                    return sb.toString();
+                } else if (!skipMarkup())
+                    throw new IOException("Unexpected element at " + pos);
+            }
+        }
+
+        /**
+         * Skips the rest of the current element, and moves past its end tag.
+         */
+        void skip() throws IOException {
+            if (empty) {
+                empty = false;
+                return;
+            }
+            for (int depth = 1; depth > 0;) {
+                pos = next('<');
+                if (s.startsWith("<![CDATA[", pos))
+                    pos = after(pos, "]]>");
+                else if (s.startsWith("</", pos)) {
+                    pos = after(pos, ">");
+                    depth--;
+                } else if (!skipMarkup() && !skipTag(pos + 1))
+                    depth++;
+            }
+        }
+
+        /**
+         * Skips a comment or a processing instruction at the current position.
+         *
+         * @return whether there was one
+         */
+        private boolean skipMarkup() throws IOException {
+            if (s.startsWith("<!--", pos))
+                pos = after(pos + 4, "-->");
+            else if (s.startsWith("<?", pos))
+                pos = after(pos + 2, "?>");
+            else if (s.startsWith("<!", pos))
+                throw new IOException("Unsupported markup at " + pos);
+            else
+                return false;
+            return true;
+        }
+
+        /**
+         * Moves past the end of the tag, starting at {@code i}.
+         *
+         * @return whether the tag is self-closing
+         */
+        private boolean skipTag(int i) throws IOException {
+            for (; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                if (c == '"' || c == '\'') {
+                    i = s.indexOf(c, i + 1);
+                    if (i < 0)
+                        break;
+                } else if (c == '>') {
+                    pos = i + 1;
+                    return s.charAt(i - 1) == '/';
+                }
+            }
+            throw new IOException("Unexpected end of document");
+        }
+
+        private void appendText(StringBuilder sb, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                final char c = s.charAt(i);
+                if (c != '&') {
+                    sb.append(c);
+                    continue;
+                }
+                final int semi = s.indexOf(';', i);
+                if (semi < 0 || semi > to)
+                    throw new IOException("Malformed entity at " + i);
+                final String entity = s.substring(i + 1, semi);
+                switch (entity) {
+                    case "lt":
+                        sb.append('<');
+                        break;
+                    case "gt":
+                        sb.append('>');
+                        break;
+                    case "amp":
+                        sb.append('&');
+                        break;
+                    case "quot":
+                        sb.append('"');
+                        break;
+                    case "apos":
+                        sb.append('\'');
+                        break;
+                    default:
+                        if (!entity.startsWith("#"))
+                            throw new IOException("Undefined entity " + entity + " at " + i);
+                        try {
+                            sb.appendCodePoint(entity.startsWith("#x")
+                                    ? Integer.parseInt(entity.substring(2), 16)
+                                    : Integer.parseInt(entity.substring(1)));
+                        } catch (IllegalArgumentException e) {
+                            throw new IOException("Malformed entity at " + i);
+                        }
+                }
+                i = semi;
+            }
+        }
+
+        private boolean contains(char c, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (s.charAt(i) == c)
+                    return true;
+            }
+            return false;
+        }
+
+        private int next(char c) throws IOException {
+            final int i = s.indexOf(c, pos);
+            if (i < 0)
+                throw new IOException("Unexpected end of document");
+            return i;
+        }
+
+        private int after(int from, String token) throws IOException {
+            final int i = s.indexOf(token, from);
+            if (i < 0)
+                throw new IOException("Unexpected end of document");
+            return i + token.length();
+        }
+
+        /**
+         * The encoding given in the XML declaration, or UTF-8.
+         */
+        private static Charset charset(byte[] bytes, int length) {
+            final String decl = new String(bytes, 0, Math.min(length, 200), StandardCharsets.ISO_8859_1);
+            if (!decl.startsWith("<?xml"))
+                return StandardCharsets.UTF_8;
+            final int end = decl.indexOf("?>");
+            final int enc = decl.indexOf("encoding");
+            if (end < 0 || enc < 0 || enc > end)
+                return StandardCharsets.UTF_8;
+            int i = enc + 8;
+            while (i < end && decl.charAt(i) != '"' && decl.charAt(i) != '\'')
+                i++;
+            final int close = i < end ? decl.indexOf(decl.charAt(i), i + 1) : -1;
+            if (close < 0 || close > end)
+                return StandardCharsets.UTF_8;
+            return Charset.forName(decl.substring(i + 1, close));
+        }
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Model">
+    /////////// Model ///////////////////////////////////
+    static final class Project {
+        final String groupId;
+        final String artifactId;
+        final String version;
+        final String packaging;
+        final Parent parent;
+        final Map<String, String> properties;
+        final List<Repository> repositories;
+        final List<Dependency> dependencies;
+        final List<Dependency> managedDependencies;
+
+        Project(String groupId, String artifactId, String version, String packaging, Parent parent, Map<String, String> properties,
+                List<Repository> repositories, List<Dependency> dependencies, List<Dependency> managedDependencies) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.packaging = packaging != null ? packaging : "jar";
+            this.parent = parent;
+            this.properties = properties;
+            this.repositories = repositories;
+            this.dependencies = dependencies;
+            this.managedDependencies = managedDependencies;
+        }
+
+        static Project of(Model m) {
+            final Map<String, String> properties = new LinkedHashMap<>();
+            for (Map.Entry<Object, Object> e : m.getProperties().entrySet())
+                properties.put((String) e.getKey(), (String) e.getValue());
+            final List<Repository> repositories = new ArrayList<>();
+            for (org.apache.maven.model.Repository r : m.getRepositories())
+                repositories.add(new Repository(r.getId(), r.getUrl()));
+            return new Project(m.getGroupId(), m.getArtifactId(), m.getVersion(), m.getPackaging(),
+                    m.getParent() != null ? new Parent(m.getParent().getGroupId(), m.getParent().getArtifactId(), m.getParent().getVersion()) : null,
+                    Collections.unmodifiableMap(properties),
+                    Collections.unmodifiableList(repositories),
+                    Dependency.of(m.getDependencies()),
+                    Dependency.of(m.getDependencyManagement() != null ? m.getDependencyManagement().getDependencies() : null));
+        }
+
+        @Override
+        public String toString() {
+            return (groupId != null ? groupId : "[inherited]") + ":" + artifactId + ":" + packaging + ":" + (version != null ? version : "[inherited]");
+        }
+    }
+
+    static final class Parent {
+        final String groupId;
+        final String artifactId;
+        final String version;
+
+        Parent(String groupId, String artifactId, String version) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+        }
+
+        @Override
+        public String toString() {
+            return groupId + ":" + artifactId + ":pom:" + version;
+        }
+    }
+
+    static final class Repository {
+        final String id;
+        final String url;
+
+        Repository(String id, String url) {
+            this.id = id;
+            this.url = url;
+        }
+    }
+
+    static final class Dependency {
+        final String groupId;
+        final String artifactId;
+        final String version;
+        final String type;
+        final String classifier;
+        final String scope;
+        final boolean optional;
+        final List<String> exclusions; // groupId:artifactId
+
+        Dependency(String groupId, String artifactId, String version, String type, String classifier, String scope, boolean optional, List<String> exclusions) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.type = type != null ? type : "jar";
+            this.classifier = classifier;
+            this.scope = scope;
+            this.optional = optional;
+            this.exclusions = exclusions;
+        }
+
+        Dependency withVersion(String version) {
+            return new Dependency(groupId, artifactId, version, type, classifier, scope, optional, exclusions);
+        }
+
+        /**
+         * The key by which dependency management applies to this dependency (as in {@link org.apache.maven.model.Dependency#getManagementKey()}).
+         */
+        String getManagementKey() {
+            return groupId + ":" + artifactId + ":" + type + (classifier != null ? ":" + classifier : "");
+        }
+
+        static List<Dependency> of(List<org.apache.maven.model.Dependency> deps) {
+            if (deps == null || deps.isEmpty())
+                return Collections.emptyList();
+            final List<Dependency> dependencies = new ArrayList<>(deps.size());
+            for (org.apache.maven.model.Dependency d : deps) {
+                final List<String> exclusions = new ArrayList<>();
+                for (org.apache.maven.model.Exclusion e : d.getExclusions())
+                    exclusions.add(e.getGroupId() + ":" + e.getArtifactId());
+                dependencies.add(new Dependency(d.getGroupId(), d.getArtifactId(), d.getVersion(), d.getType(), d.getClassifier(), d.getScope(),
+                        d.isOptional(), Collections.unmodifiableList(exclusions)));
+            }
+            return Collections.unmodifiableList(dependencies);
+        }
+
+        @Override
+        public String toString() {
+            return groupId + ":" + artifactId + ":" + type + (classifier != null ? ":" + classifier : "") + ":" + version;
+        }
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,159 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Routes artifacts, by groupId, to the repositories that can serve them, so that each artifact is only looked for in those.
+ * <p>
+ * Each route maps a groupId pattern to a list of repository ids. A pattern is either a groupId (e.g. {@code com.acme}), matching it alone;
+ * a groupId followed by {@code .*} (e.g. {@code com.acme.*}), matching it and all groupIds under it; or {@code *}, matching all groupIds.
+ * The most specific matching pattern wins. The patterns are kept in a trie of groupId segments, so a lookup only costs as many steps as
+ * there are segments in the groupId.
+ * <p>
+ * Artifacts that no pattern matches, or whose route names none of the available repositories, are looked for in all of them.
+ */
+final class RepositoryRoutes {
+    static final String CONFIG_PROP_ROUTES = "capsule.repository.routes";
+    private static final String ALL = "*";
+    private static final String SUFFIX_ALL = ".*";
+
+    private final Map<String, List<String>> routes = new HashMap<>(); // for equality
+    private final Node root = new Node();
+
+    /**
+     * @param routes a map from groupId patterns to comma-separated repository ids
+     */
+    RepositoryRoutes(Map<String, String> routes) {
+        for (Map.Entry<String, String> e : routes.entrySet()) {
+            final String pattern = e.getKey().trim();
+            final List<String> ids = ids(e.getValue());
+            if (ids.isEmpty())
+                throw new IllegalArgumentException("No repositories in route " + pattern);
+            this.routes.put(pattern, ids);
+            if (ALL.equals(pattern))
+                root.prefix = ids;
+            else if (pattern.endsWith(SUFFIX_ALL))
+                node(pattern.substring(0, pattern.length() - SUFFIX_ALL.length())).prefix = ids;
+            else
+                node(pattern).exact = ids;
+        }
+    }
+
+    private Node node(String groupId) {
+        if (groupId.isEmpty() || groupId.contains("*"))
+            throw new IllegalArgumentException("Illegal route pattern: " + groupId + " (must be *, GROUP or GROUP.*)");
+        Node n = root;
+        for (String segment : groupId.split("\\.", -1)) {
+            Node c = n.children.get(segment);
+            if (c == null) {
+                c = new Node();
+                n.children.put(segment, c);
+            }
+            n = c;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the ids of the repositories the given groupId is routed to, or {@code null} if it matches no route.
+     */
+    List<String> route(String groupId) {
+        List<String> ids = root.prefix;
+        Node n = root;
+        int start = 0;
+        while (n != null && start <= groupId.length()) {
+            int end = groupId.indexOf('.', start);
+            if (end < 0)
+                end = groupId.length();
+            n = n.children.get(groupId.substring(start, end));
+            if (n != null) {
+                if (end == groupId.length() && n.exact != null)
+                    return n.exact;
+                if (n.prefix != null)
+                    ids = n.prefix;
+            }
+            start = end + 1;
+        }
+        return ids;
+    }
+
+    /**
+     * Returns those of the given repositories (or the repositories they mirror) the given groupId is routed to, in their given order.
+     */
+    List<RemoteRepository> route(String groupId, List<RemoteRepository> repos) {
+        final List<String> ids = route(groupId);
+        if (ids == null || repos == null || repos.isEmpty())
+            return repos;
+        final List<RemoteRepository> routed = new ArrayList<>(repos.size());
+        for (RemoteRepository r : repos) {
+            if (matches(r, ids))
+                routed.add(r);
+        }
+        return routed.isEmpty() || routed.size() == repos.size() ? repos : routed;
+    }
+
+    private static boolean matches(RemoteRepository repo, List<String> ids) {
+        if (ids.contains(repo.getId()))
+            return true;
+        for (RemoteRepository m : repo.getMirroredRepositories()) {
+            if (matches(m, ids))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns those of the given repositories the given artifact is routed to by the session's routes, if any.
+     */
+    static List<RemoteRepository> route(RepositorySystemSession session, Artifact artifact, List<RemoteRepository> repos) {
+        final Object routes = session.getConfigProperties().get(CONFIG_PROP_ROUTES);
+        return routes instanceof RepositoryRoutes && artifact != null ? ((RepositoryRoutes) routes).route(artifact.getGroupId(), repos) : repos;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof RepositoryRoutes && routes.equals(((RepositoryRoutes) obj).routes);
+    }
+
+    @Override
+    public int hashCode() {
+        return routes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return routes.toString();
+    }
+
+    private static List<String> ids(String ids) {
+        if (ids == null)
+            return Collections.emptyList();
+        final List<String> list = new ArrayList<>();
+        for (String id : ids.split(",")) {
+            if (!id.trim().isEmpty())
+                list.add(id.trim());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>(4);
+        List<String> exact;  // the route of the groupId ending at this node
+        List<String> prefix; // the route of all groupIds under (and including) this node
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persistent per-repository request statistics: the number of requests, the number that failed (other than with "not found"),
+ * and a histogram of their latencies, from which percentiles are estimated.
+ * <p>
+ * The latency histogram has power-of-two buckets (in milliseconds), so each repository's statistics take a single short line in the
+ * stats file. Once a repository has more than {@value #MAX_REQUESTS} requests recorded, all of its counts are halved, so that
+ * its statistics follow its recent performance.
+ * When saved, the requests recorded since the last save are merged into the stats file's current contents, so that launches sharing
+ * the local repository don't overwrite each other's statistics.
+ * This class only uses JDK classes.
+ */
+public final class RepositoryStats {
+    private static final String HEADER = "capsule-maven-repository-stats 1";
+    private static final char SEP = '\t';
+    private static final int BUCKETS = 18; // the last bucket holds latencies of 2^16 ms (about a minute) and up
+    private static final int MAX_REQUESTS = 1024;
+    private static final int MIN_REQUESTS = 8;
+
+    private final Path file;
+    private Map<String, Entry> entries; // by repository URL
+    private final Map<String, Entry> recorded = new TreeMap<>(); // by repository URL, since the last save
+
+    /**
+     * @param file the stats file
+     */
+    public RepositoryStats(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Records a request to the given repository.
+     *
+     * @param millis the request's latency
+     * @param error  whether the request failed (other than with "not found")
+     */
+    synchronized void record(String repoUrl, long millis, boolean error) {
+        Entry e = entries().get(repoUrl);
+        if (e == null) {
+            e = new Entry();
+            entries.put(repoUrl, e);
+        }
+        e.record(millis, error);
+
+        Entry r = recorded.get(repoUrl);
+        if (r == null) {
+            r = new Entry();
+            recorded.put(repoUrl, r);
+        }
+        r.add(millis, error);
+    }
+
+    /**
+     * Returns the given repository's statistics, or {@code null} if none have been recorded.
+     */
+    synchronized Entry get(String repoUrl) {
+        final Entry e = entries().get(repoUrl);
+        return e != null ? e.copy() : null;
+    }
+
+    /**
+     * The expected cost, in milliseconds, of a successful request to the given repository -- the average of its median and 90th
+     * percentile latencies, divided by its success rate -- or {@code -1} if too few of its requests have been recorded.
+     */
+    synchronized double cost(String repoUrl) {
+        final Entry e = entries().get(repoUrl);
+        if (e == null || e.requests < MIN_REQUESTS)
+            return -1;
+        return (e.percentile(0.5) + e.percentile(0.9)) / 2.0 / Math.max(e.successRate(), 0.01);
+    }
+
+    /**
+     * Returns a one-line summary of each repository's statistics.
+     */
+    public synchronized Map<String, String> summary() {
+        final Map<String, String> summary = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : entries().entrySet())
+            summary.put(e.getKey(), e.getValue().toString());
+        return summary;
+    }
+
+    /**
+     * Merges the requests recorded since the last save into the stats file, if there are any.
+     */
+    public synchronized void save() throws IOException {
+        if (recorded.isEmpty())
+            return;
+        final Map<String, Entry> merged = new TreeMap<>();
+        try {
+            read(merged); // again, so that statistics saved by concurrent launches since this one read the file are kept
+        } catch (IOException | RuntimeException e) {
+            merged.clear();
+        }
+        for (Map.Entry<String, Entry> e : recorded.entrySet()) {
+            final Entry m = merged.get(e.getKey());
+            if (m != null)
+                m.merge(e.getValue());
+            else
+                merged.put(e.getKey(), e.getValue().copy());
+        }
+
+        Files.createDirectories(file.getParent());
+        final Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(HEADER);
+                w.newLine();
+                for (Map.Entry<String, Entry> e : merged.entrySet()) {
+                    final Entry s = e.getValue();
+                    final StringBuilder sb = new StringBuilder();
+                    sb.append(e.getKey()).append(SEP).append(s.requests).append(SEP).append(s.errors).append(SEP);
+                    for (int i = 0; i < BUCKETS; i++)
+                        sb.append(i > 0 ? "," : "").append(s.latencies[i]);
+                    w.write(sb.toString());
+                    w.newLine();
+                }
+            }
+            ResolutionCache.move(tmp, file);
+            entries = merged;
+            recorded.clear();
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Map<String, Entry> entries() {
+        if (entries == null) {
+            entries = new TreeMap<>();
+            try {
+                read(entries);
+            } catch (IOException | RuntimeException e) {
+                entries.clear(); // the statistics will be rebuilt
+            }
+        }
+        return entries;
+    }
+
+    private void read(Map<String, Entry> entries) throws IOException {
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(r.readLine()))
+                return;
+            for (String line; (line = r.readLine()) != null;) {
+                final String[] fs = line.split(String.valueOf(SEP));
+                if (fs.length != 4)
+                    continue;
+                final String[] ls = fs[3].split(",");
+                if (ls.length != BUCKETS)
+                    continue;
+                final Entry e = new Entry();
+                e.requests = Long.parseLong(fs[1]);
+                e.errors = Long.parseLong(fs[2]);
+                for (int i = 0; i < BUCKETS; i++)
+                    e.latencies[i] = Long.parseLong(ls[i]);
+                entries.put(fs[0], e);
+            }
+        } catch (NoSuchFileException e) {
+        }
+    }
+
+    /**
+     * A repository's statistics.
+     */
+    static final class Entry {
+        private long requests;
+        private long errors;
+        private final long[] latencies = new long[BUCKETS];
+
+        private void record(long millis, boolean error) {
+            add(millis, error);
+            decay();
+        }
+
+        private void add(long millis, boolean error) {
+            requests++;
+            if (error)
+                errors++;
+            latencies[bucket(millis)]++;
+        }
+
+        private void merge(Entry e) {
+            requests += e.requests;
+            errors += e.errors;
+            for (int i = 0; i < BUCKETS; i++)
+                latencies[i] += e.latencies[i];
+            decay();
+        }
+
+        private void decay() {
+            while (requests > MAX_REQUESTS) {
+                requests /= 2;
+                errors /= 2;
+                for (int i = 0; i < BUCKETS; i++)
+                    latencies[i] /= 2;
+            }
+        }
+
+        private Entry copy() {
+            final Entry e = new Entry();
+            e.requests = requests;
+            e.errors = errors;
+            System.arraycopy(latencies, 0, e.latencies, 0, BUCKETS);
+            return e;
+        }
+
+        long getRequests() {
+            return requests;
+        }
+
+        double successRate() {
+            return requests > 0 ? (double) (requests - errors) / requests : 1.0;
+        }
+
+        /**
+         * Estimates the given percentile (between 0 and 1) of the latency, in milliseconds, as the upper bound of the bucket it falls in.
+         */
+        long percentile(double p) {
+            long total = 0;
+            for (long n : latencies)
+                total += n;
+            if (total == 0)
+                return 0;
+            final long rank = (long) Math.ceil(p * total);
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                n += latencies[i];
+                if (n >= rank)
+                    return 1L << i;
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        private static int bucket(long millis) {
+            // bucket i holds latencies in [2^(i-1), 2^i)
+            final int b = 64 - Long.numberOfLeadingZeros(Math.max(millis, 0));
+            return Math.min(b, BUCKETS - 1);
+        }
+
+        @Override
+        public String toString() {
+            return requests + " requests, " + Math.round(successRate() * 100) + "% successful, p50 " + percentile(0.5) + "ms, p90 " + percentile(0.9) + "ms";
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent cache mapping the inputs of a dependency resolution to the resolved artifact paths.
+ * <p>
+ * Entries are keyed by a digest of everything that may affect the resolution result (see {@link #key(Collection) key}),
+ * so a change to any input simply results in a miss. An entry is considered stale if any of the files it lists is missing.
+ * This class only uses JDK classes, so that a cache hit does not load any of the Aether machinery.
+ */
+public final class ResolutionCache {
+    private static final String HEADER = "capsule-maven-resolution 1";
+    private static final char PATH_PREFIX = '\t';
+
+    private final Path dir;
+
+    public ResolutionCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Computes the cache key for the given resolution inputs.
+     */
+    public static String key(Collection<String> inputs) {
+        final MessageDigest md = sha1();
+        for (String in : inputs) {
+            md.update(in.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Returns the cached resolution for the given key, or {@code null} if there is none or if it is stale.
+     */
+    public Map<String, List<Path>> get(String key) throws IOException {
+        final Map<String, List<Path>> resolved = new LinkedHashMap<>();
+        try (BufferedReader r = Files.newBufferedReader(file(key), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(r.readLine()))
+                return null;
+            List<Path> paths = null;
+            for (String line; (line = r.readLine()) != null;) {
+                if (line.isEmpty())
+                    continue;
+                if (line.charAt(0) == PATH_PREFIX) {
+                    if (paths == null)
+                        return null;
+                    final Path p = dir.getFileSystem().getPath(line.substring(1));
+                    if (!Files.isRegularFile(p))
+                        return null;
+                    paths.add(p);
+                } else {
+                    paths = new ArrayList<>();
+                    resolved.put(line, paths);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns the time, in milliseconds since the epoch, the entry for the given key was stored, or {@code -1} if there is none.
+     */
+    public long getTimestamp(String key) throws IOException {
+        try {
+            return Files.getLastModifiedTime(file(key)).toMillis();
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Stores the given resolution under the given key, replacing any existing entry.
+     */
+    public void put(String key, Map<String, List<Path>> resolved) throws IOException {
+        Files.createDirectories(dir);
+        final Path tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(HEADER);
+                w.newLine();
+                for (Map.Entry<String, List<Path>> e : resolved.entrySet()) {
+                    w.write(e.getKey());
+                    w.newLine();
+                    for (Path p : e.getValue()) {
+                        w.write(PATH_PREFIX);
+                        w.write(p.toAbsolutePath().toString());
+                        w.newLine();
+                    }
+                }
+            }
+            move(tmp, file(key));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Removes the entry for the given key, if any.
+     */
+    public void remove(String key) throws IOException {
+        Files.deleteIfExists(file(key));
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key);
+    }
+
+    /**
+     * Replaces a file with another, atomically if the file system supports it, so that readers never see a partially written file.
+     * Shared by all of the caplet's persistent caches.
+     */
+    static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(digits[(b >> 4) & 0xf]).append(digits[b & 0xf]);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * A persistent cache mapping dynamic (ranged, {@code LATEST} or {@code RELEASE}) dependency versions to the versions they last resolved to.
+ * <p>
+ * Entries are keyed by a digest of the resolution inputs (see {@link ResolutionCache#key(java.util.Collection) ResolutionCache.key}),
+ * and record the time of the check, so that callers can decide when an entry has expired. An expired entry is still
+ * returned, so that it can be used when the repositories cannot be reached.
+ * This class only uses JDK classes, so that a cache hit does not load any of the Aether machinery.
+ */
+public final class VersionCache {
+    private static final String HEADER = "capsule-maven-version 1";
+
+    private final Path dir;
+
+    public VersionCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the cached version for the given key, or {@code null} if there is none.
+     */
+    public Entry get(String key) throws IOException {
+        try (BufferedReader r = Files.newBufferedReader(file(key), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(r.readLine()))
+                return null;
+            final String version = r.readLine();
+            final String time = r.readLine();
+            if (version == null || version.isEmpty() || time == null)
+                return null;
+            return new Entry(version, Long.parseLong(time));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given version under the given key, checked at the given time, replacing any existing entry.
+     */
+    public void put(String key, String version, long timestamp) throws IOException {
+        Files.createDirectories(dir);
+        final Path tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(HEADER);
+                w.newLine();
+                w.write(version);
+                w.newLine();
+                w.write(Long.toString(timestamp));
+                w.newLine();
+            }
+            ResolutionCache.move(tmp, file(key));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key);
+    }
+
+    /**
+     * A cached version, and the time it was last checked.
+     */
+    public static final class Entry {
+        private final String version;
+        private final long timestamp;
+
+        Entry(String version, long timestamp) {
+            this.version = version;
+            this.timestamp = timestamp;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * The time, in milliseconds since the epoch, the version was resolved.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Whether this entry is older than the given TTL, in seconds; a negative TTL never expires.
+         */
+        public boolean isExpired(long ttl, long now) {
+            return ttl >= 0 && now - timestamp >= ttl * 1000;
+        }
+
+        @Override
+        public String toString() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * An index of a ZIP (JAR) file's entries, read once from the file's central directory, through which entries are read directly,
+ * without scanning the file.
+ * <p>
+ * Only the central directory is kept in memory; the file is opened just long enough to read it, or an entry, so it is never held open
+ * (or locked) between lookups. Indices are shared by all lookups (see {@link #of(Path) of}) until {@link #clear() cleared};
+ * an index is rebuilt if its file's size or modification time change.
+ * Only plain ZIP files are supported: ZIP64 archives, multi-disk archives, encrypted entries, and compression methods other than
+ * {@code STORED} and {@code DEFLATED} are not indexed, and callers should fall back to reading those with {@link java.util.zip.ZipInputStream}.
+ * This class only uses JDK classes.
+ */
+public final class ZipIndex {
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int EOCD_LEN = 22;
+    private static final int CEN_LEN = 46;
+    private static final int LOC_LEN = 30;
+    private static final int MAX_COMMENT_LEN = 0xffff;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final ConcurrentMap<Path, ZipIndex> indices = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final long size;
+    private final long modified;
+    private final Map<String, Entry> entries;
+
+    /**
+     * Returns the (shared) index of the given file, or {@code null} if the file cannot be indexed.
+     */
+    public static ZipIndex of(Path file) throws IOException {
+        final Path p = file.toAbsolutePath();
+        final BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        final ZipIndex cached = indices.get(p);
+        if (cached != null && cached.size == attrs.size() && cached.modified == attrs.lastModifiedTime().toMillis())
+            return cached;
+
+        final ZipIndex index;
+        try {
+            index = new ZipIndex(p, attrs);
+        } catch (UnsupportedOperationException | ZipException e) {
+            indices.remove(p);
+            return null;
+        }
+        indices.put(p, index);
+        return index;
+    }
+
+    /**
+     * Discards all shared indices.
+     */
+    public static void clear() {
+        indices.clear();
+    }
+
+    private ZipIndex(Path file, BasicFileAttributes attrs) throws IOException {
+        this.file = file;
+        this.size = attrs.size();
+        this.modified = attrs.lastModifiedTime().toMillis();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final int tailLen = (int) Math.min(size, EOCD_LEN + MAX_COMMENT_LEN);
+            final ByteBuffer tail = read(ch, size - tailLen, tailLen);
+            final int eocd = findEndOfCentralDirectory(tail);
+            this.entries = readCentralDirectory(ch, tail, eocd, size - tailLen + eocd);
+        }
+    }
+
+    /**
+     * Returns an input stream for the given entry's contents, or {@code null} if the file has no such entry.
+     */
+    public InputStream getInputStream(String name) throws IOException {
+        final Entry e = entries.get(name);
+        if (e == null)
+            return null;
+        return new ByteArrayInputStream(read(e));
+    }
+
+    /**
+     * Whether the file has an entry with the given name.
+     */
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * The number of entries in the file.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private byte[] read(Entry e) throws IOException {
+        final ByteBuffer data;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer loc = read(ch, e.offset, LOC_LEN);
+            if (loc.getInt(0) != LOC_SIG)
+                throw new ZipException("Bad local header of " + e.name);
+            final long start = e.offset + LOC_LEN + (loc.getShort(26) & 0xffff) + (loc.getShort(28) & 0xffff);
+            if (start + e.compressedSize > size)
+                throw new ZipException("Truncated entry " + e.name);
+            data = read(ch, start, e.compressedSize);
+        }
+
+        final byte[] out = new byte[e.size];
+        if (e.method == STORED) {
+            if (e.compressedSize != e.size)
+                throw new ZipException("Bad size of stored entry " + e.name);
+            data.get(out);
+        } else {
+            final byte[] in = new byte[e.compressedSize + 1]; // inflating without a zlib header may need an extra byte (see Inflater)
+            data.get(in, 0, e.compressedSize);
+            final Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(in);
+                int n = 0;
+                while (n < out.length && !inflater.finished()) {
+                    final int k = inflater.inflate(out, n, out.length - n);
+                    if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    n += k;
+                }
+                if (n != out.length)
+                    throw new ZipException("Bad size of entry " + e.name);
+            } catch (DataFormatException ex) {
+                throw new ZipException("Corrupt entry " + e.name + ": " + ex.getMessage());
+            } finally {
+                inflater.end();
+            }
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(out, 0, out.length);
+        if ((int) crc.getValue() != e.crc)
+            throw new ZipException("CRC mismatch in entry " + e.name);
+        return out;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buf) throws ZipException {
+        final int min = Math.max(0, buf.limit() - EOCD_LEN - MAX_COMMENT_LEN);
+        for (int i = buf.limit() - EOCD_LEN; i >= min; i--) {
+            if (buf.getInt(i) == EOCD_SIG && i + EOCD_LEN + (buf.getShort(i + 20) & 0xffff) == buf.limit())
+                return i;
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    /**
+     * @param eocd    the position of the end of central directory record in {@code tail}
+     * @param eocdPos the position of the end of central directory record in the file
+     */
+    private static Map<String, Entry> readCentralDirectory(FileChannel ch, ByteBuffer tail, int eocd, long eocdPos) throws IOException {
+        if (tail.getShort(eocd + 4) != 0 || tail.getShort(eocd + 6) != 0)
+            throw new ZipException("Multi-disk ZIP files are not supported");
+        final int count = tail.getShort(eocd + 10) & 0xffff;
+        final long cenSize = tail.getInt(eocd + 12) & 0xffffffffL;
+        final long cenOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+        if (count == 0xffff || cenSize == 0xffffffffL || cenOffset == 0xffffffffL)
+            throw new ZipException("ZIP64 files are not supported");
+        if (cenOffset + cenSize > eocdPos || cenSize > Integer.MAX_VALUE)
+            throw new ZipException("Bad central directory");
+        final long base = eocdPos - cenSize - cenOffset; // the length of any data prepended to the archive (e.g. a launch script)
+
+        final ByteBuffer buf = read(ch, eocdPos - cenSize, (int) cenSize);
+        final Map<String, Entry> entries = new HashMap<>(count * 4 / 3 + 1);
+        int pos = 0;
+        final int end = (int) cenSize;
+        for (int i = 0; i < count; i++) {
+            if (pos + CEN_LEN > end || buf.getInt(pos) != CEN_SIG)
+                throw new ZipException("Bad central directory entry");
+            final int flags = buf.getShort(pos + 8) & 0xffff;
+            final int method = buf.getShort(pos + 10) & 0xffff;
+            final int crc = buf.getInt(pos + 16);
+            final long compressedSize = buf.getInt(pos + 20) & 0xffffffffL;
+            final long size = buf.getInt(pos + 24) & 0xffffffffL;
+            final int nameLen = buf.getShort(pos + 28) & 0xffff;
+            final int extraLen = buf.getShort(pos + 30) & 0xffff;
+            final int commentLen = buf.getShort(pos + 32) & 0xffff;
+            final long offset = buf.getInt(pos + 42) & 0xffffffffL;
+            if (pos + CEN_LEN + nameLen > end)
+                throw new ZipException("Bad central directory entry");
+            if ((flags & 1) != 0)
+                throw new ZipException("Encrypted entries are not supported");
+            if (method != STORED && method != DEFLATED)
+                throw new ZipException("Unsupported compression method " + method);
+            if (compressedSize >= Integer.MAX_VALUE || size >= Integer.MAX_VALUE || base + offset >= eocdPos)
+                throw new ZipException("ZIP64 files are not supported");
+
+            final String name = name(buf, pos + CEN_LEN, nameLen);
+            if (!entries.containsKey(name)) // like ZipInputStream, the first of duplicate entries wins
+                entries.put(name, new Entry(name, method, crc, (int) compressedSize, (int) size, base + offset));
+            pos += CEN_LEN + nameLen + extraLen + commentLen;
+        }
+        return entries;
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int len) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0)
+                throw new ZipException("Unexpected end of file");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static String name(ByteBuffer buf, int pos, int len) {
+        final byte[] bytes = new byte[len];
+        boolean ascii = true;
+        for (int i = 0; i < len; i++) {
+            bytes[i] = buf.get(pos + i);
+            ascii &= bytes[i] >= 0;
+        }
+        // ZipInputStream decodes names as UTF-8 by default, whether or not the language encoding flag is set
+        return new String(bytes, ascii ? StandardCharsets.US_ASCII : StandardCharsets.UTF_8);
+    }
+
+    private static final class Entry {
+        final String name;
+        final int method;
+        final int crc;
+        final int compressedSize;
+        final int size;
+        final long offset;
+
+        Entry(String name, int method, int crc, int compressedSize, int size, long offset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+}
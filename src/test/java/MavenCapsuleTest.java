@@ -7,23 +7,33 @@
  * http://www.eclipse.org/legal/epl-v10.html
  */
 
+import capsule.Coordinates;
 import capsule.DependencyManager;
+import capsule.Lockfile;
+import capsule.SyntheticRepository;
 import co.paralleluniverse.capsule.Jar;
 import co.paralleluniverse.capsule.test.CapsuleTestUtils;
 import static co.paralleluniverse.capsule.test.CapsuleTestUtils.*;
 import com.google.common.jimfs.Jimfs;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import java.nio.file.FileSystem;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.maven.model.Dependency;
@@ -98,7 +108,270 @@ public class MavenCapsuleTest {
         Capsule capsule = newCapsule(jar);
         List<Object> deps = capsule.getAttribute(Capsule.ATTR_DEPENDENCIES);
         for (String d : ds)
-            assert_().that(deps).contains(DependencyManager.toDependency(d, "jar"));
+            assert_().that(deps).contains(new Coordinates(d, "jar"));
+    }
+
+    @Test
+    public void whenResolutionCachedThenAetherNotLoaded() throws Exception {
+        final Path dir = Files.createTempDirectory("capsule-test");
+        try {
+            final Path repo = dir.resolve("repo");
+            final Path artifactDir = Files.createDirectories(repo.resolve("com/acme/foo/1.0"));
+            Files.write(artifactDir.resolve("foo-1.0.pom"), ("<project><modelVersion>4.0.0</modelVersion>"
+                    + "<groupId>com.acme</groupId><artifactId>foo</artifactId><version>1.0</version></project>").getBytes(UTF_8));
+            Files.write(artifactDir.resolve("foo-1.0.jar"), new byte[0]);
+
+            final String[] args = {dir.resolve("cache").toString(), repo.toUri().toString(), dir.resolve("capsule.jar").toString(),
+                "Application-Version=1.0", "Dependencies=com.acme:foo:1.0"};
+
+            // cold launch: resolves with Aether and fills the resolution cache
+            final List<String> cold = launchIsolated(new RecordingClassLoader(), args);
+            assert_().that(cold.toString()).contains(dir.resolve("cache/deps/com/acme/foo/1.0/foo-1.0.jar").toString());
+
+            // warm launch
+            final RecordingClassLoader cl = new RecordingClassLoader();
+            final List<String> warm = launchIsolated(cl, args);
+            assertEquals(cold, warm);
+
+            for (String c : cl.loaded) {
+                assert_().that(c).isNoneOf("capsule.DependencyManager", "capsule.MavenUserSettings", "capsule.SystemProxySelector");
+                for (String pkg : list("org.eclipse.aether.", "org.apache.maven.", "org.codehaus.plexus.", "org.sonatype."))
+                    assertFalse(c, c.startsWith(pkg));
+            }
+            // Capsule, the caplet, the test harness and the few JDK-only caplet classes
+            assert_().that(cl.loaded.size()).isLessThan(MAX_WARM_LAUNCH_CLASSES);
+        } finally {
+            SyntheticRepository.delete(dir);
+        }
+    }
+
+    @Test
+    public void testUpdatePolicyOfCachedResolution() throws Exception {
+        final Path dir = Files.createTempDirectory("capsule-test");
+        try (SyntheticRepository remote = new SyntheticRepository(dir.resolve("repo"))) {
+            remote.artifact("com.acme:foo:1.0");
+            final List<String> args = list(dir.resolve("cache").toString(), remote.getUrl(), dir.resolve("capsule.jar").toString(),
+                    "Application-Version=1.0", "Dependencies=com.acme:foo:1.0");
+            launchIsolated(new RecordingClassLoader(), args.toArray(new String[0]));
+
+            // the policy of a repository not in use doesn't invalidate the cache
+            final List<String> unused = new ArrayList<>(args);
+            unused.add("Update-Policy=other=always");
+            final RecordingClassLoader cl = new RecordingClassLoader();
+            launchIsolated(cl, unused.toArray(new String[0]));
+            assert_().that(cl.loaded).doesNotContain("capsule.DependencyManager");
+
+            // an illegal policy is rejected even when the cache is used
+            final List<String> illegal = new ArrayList<>(args);
+            illegal.add("Update-Policy=*=interval:x");
+            try {
+                launchIsolated(new RecordingClassLoader(), illegal.toArray(new String[0]));
+                fail();
+            } catch (IllegalArgumentException e) {
+                assert_().that(e.getMessage()).contains("interval:x");
+            }
+        } finally {
+            SyntheticRepository.delete(dir);
+        }
+    }
+
+    @Test
+    public void whenRangeCachedThenLatestVersionNotChecked() throws Exception {
+        final Path dir = Files.createTempDirectory("capsule-test");
+        final String ttl = System.getProperty("capsule.range.ttl");
+        try (SyntheticRepository remote = new SyntheticRepository(dir.resolve("repo"))) {
+            remote.artifact("com.acme:foo:1.0");
+
+            final String[] args = {dir.resolve("cache").toString(), remote.getUrl(), dir.resolve("capsule.jar").toString(),
+                "Application=com.acme:foo:[1.0,2.0)"};
+
+            assert_().that(launchIsolated(new RecordingClassLoader(), args).toString()).contains("foo-1.0.jar");
+
+            // within the TTL the cached version is used, even though a newer one is available
+            remote.artifact("com.acme:foo:1.1");
+            final RecordingClassLoader cl = new RecordingClassLoader();
+            assert_().that(launchIsolated(cl, args).toString()).contains("foo-1.0.jar");
+            assert_().that(cl.loaded).doesNotContain("capsule.DependencyManager");
+
+            // once expired, the repository is checked again
+            System.setProperty("capsule.range.ttl", "0");
+            assert_().that(launchIsolated(new RecordingClassLoader(), args).toString()).contains("foo-1.1.jar");
+
+            // and if it can't be reached, the expired version is used
+            remote.stop();
+            assert_().that(launchIsolated(new RecordingClassLoader(), args).toString()).contains("foo-1.1.jar");
+        } finally {
+            if (ttl != null)
+                System.setProperty("capsule.range.ttl", ttl);
+            else
+                System.clearProperty("capsule.range.ttl");
+            SyntheticRepository.delete(dir);
+        }
+    }
+
+    @Test
+    public void whenBackgroundUpdateThenLaunchedAtCachedVersion() throws Exception {
+        final Path dir = Files.createTempDirectory("capsule-test");
+        final String ttl = System.getProperty("capsule.range.ttl");
+        try (SyntheticRepository remote = new SyntheticRepository(dir.resolve("repo"))) {
+            remote.artifact("com.acme:foo:1.0");
+
+            final String[] args = {dir.resolve("cache").toString(), remote.getUrl(), dir.resolve("capsule.jar").toString(),
+                "Application=com.acme:foo:[1.0,2.0)", "Background-Update=true"};
+
+            assert_().that(launchIsolated(new RecordingClassLoader(), args).toString()).contains("foo-1.0.jar");
+
+            // the expired version is launched, while the new one is downloaded
+            remote.artifact("com.acme:bar:1.0").artifact("com.acme:foo:1.1", "com.acme:bar:1.0");
+            System.setProperty("capsule.range.ttl", "0");
+            assert_().that(launchIsolated(new RecordingClassLoader(), args).toString()).contains("foo-1.0.jar");
+            joinThread("capsule-maven-update");
+            assertTrue(Files.isRegularFile(dir.resolve("cache/deps/com/acme/foo/1.1/foo-1.1.jar")));
+            assertTrue(Files.isRegularFile(dir.resolve("cache/deps/com/acme/bar/1.0/bar-1.0.jar")));
+
+            // and used on the next launch
+            assert_().that(launchIsolated(new RecordingClassLoader(), args).toString()).contains("foo-1.1.jar");
+            joinThread("capsule-maven-update");
+        } finally {
+            if (ttl != null)
+                System.setProperty("capsule.range.ttl", ttl);
+            else
+                System.clearProperty("capsule.range.ttl");
+            SyntheticRepository.delete(dir);
+        }
+    }
+
+    @Test
+    public void whenDependenciesFlattenedThenTransitiveDependenciesNotCollected() throws Exception {
+        final Path dir = Files.createTempDirectory("capsule-test");
+        try (SyntheticRepository remote = new SyntheticRepository(dir.resolve("repo"))) {
+            // bar is missing, so collecting foo's dependencies would fail
+            remote.artifact("com.acme:foo:1.0", "com.acme:bar:1.0").artifact("com.acme:baz:1.0").artifact("com.acme:baz:1.1");
+
+            final List<String> cmd = launchIsolated(new RecordingClassLoader(), dir.resolve("cache").toString(), remote.getUrl(),
+                    dir.resolve("capsule.jar").toString(), "Dependencies=com.acme:foo:1.0 com.acme:baz:[1.0,2.0)", "Dependencies-Flattened=true");
+            assert_().that(cmd.toString()).contains("foo-1.0.jar");
+            assert_().that(cmd.toString()).contains("baz-1.1.jar");
+            assertFalse(Files.exists(dir.resolve("cache/deps/com/acme/foo/1.0/foo-1.0.pom")));
+        } finally {
+            SyntheticRepository.delete(dir);
+        }
+    }
+
+    @Test
+    public void whenSeveralAttributesThenResolvedInOneRound() throws Exception {
+        final Path dir = Files.createTempDirectory("capsule-test");
+        try (SyntheticRepository remote = new SyntheticRepository(dir.resolve("repo"))) {
+            remote.artifact("com.acme:bar:1.0").artifact("com.acme:foo:1.0", "com.acme:bar:1.0").artifact("com.acme:agent:1.0");
+
+            final String lockfile = "capsule-maven-lock 1\n"
+                    + "dependency com.acme:agent:1.0 jar\n"
+                    + "  artifact com.acme:agent:jar:1.0 - -\n";
+
+            final ByteArrayOutputStream log = new ByteArrayOutputStream();
+            final PrintStream err = System.err;
+            System.setErr(new PrintStream(log, true)); // the isolated Capsule class logs to the System.err it finds when it's loaded
+            final List<String> cmd;
+            try {
+                cmd = launchIsolated(new RecordingClassLoader(), dir.resolve("cache").toString(), remote.getUrl(),
+                        dir.resolve("capsule.jar").toString(), "Dependencies=com.acme:foo:1.0", "Java-Agents=com.acme:agent:1.0",
+                        "Capsule-Log-Level=DEBUG", Lockfile.ENTRY_NAME + "=" + lockfile);
+            } finally {
+                System.setErr(err);
+            }
+            assert_().that(cmd.toString()).contains("bar-1.0.jar");
+            assert_().that(cmd.toString()).contains("-javaagent:" + dir.resolve("cache/deps/com/acme/agent/1.0/agent-1.0.jar"));
+
+            // the missing locked artifact is fetched in the same round as the unlocked dependencies are collected and resolved
+            final Matcher m = Pattern.compile("DependencyManager\\.(resolve|resolveArtifacts|resolveFlattenedDependencies) ").matcher(log.toString("UTF-8"));
+            int rounds = 0;
+            while (m.find())
+                rounds++;
+            assertEquals(1, rounds);
+        } finally {
+            SyntheticRepository.delete(dir);
+        }
+    }
+
+    private static void joinThread(String name) throws InterruptedException {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (name.equals(t.getName()))
+                t.join();
+        }
+    }
+
+    private static final int MAX_WARM_LAUNCH_CLASSES = 25;
+
+    @SuppressWarnings("unchecked")
+    private static List<String> launchIsolated(ClassLoader cl, String... args) throws Exception {
+        final ClassLoader ccl = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(cl); // caplets are loaded by the context class loader
+        try {
+            return ((Callable<List<String>>) cl.loadClass(Launch.class.getName()).getConstructor(String[].class).newInstance((Object) args)).call();
+        } finally {
+            Thread.currentThread().setContextClassLoader(ccl);
+        }
+    }
+
+    /**
+     * Launches a capsule with the given attributes and entries (formatted as {@code NAME=VALUE}) and returns its command line.
+     * Loaded in an isolated class loader by {@link #launchIsolated(ClassLoader, String...) launchIsolated}.
+     */
+    public static class Launch implements Callable<List<String>> {
+        private final String[] args;
+
+        public Launch(String[] args) {
+            this.args = args;
+        }
+
+        @Override
+        public List<String> call() throws Exception {
+            final Path cacheDir = Paths.get(args[0]);
+            setCacheDir(cacheDir);
+
+            Jar jar = new Jar()
+                    .setAttribute("Manifest-Version", "1.0")
+                    .setAttribute("Main-Class", "Capsule")
+                    .setListAttribute("Caplets", list("MavenCapsule"))
+                    .setAttribute("Application-Class", "com.acme.Foo")
+                    .setAttribute("Extract-Capsule", "false")
+                    .setListAttribute("Repositories", list(args[1]));
+            for (int i = 3; i < args.length; i++) {
+                final String[] attr = args[i].split("=", 2);
+                if (attr[0].contains("/"))
+                    jar.addEntry(attr[0], attr[1].getBytes(UTF_8)); // a JAR entry rather than an attribute
+                else
+                    jar.setAttribute(attr[0], attr[1]);
+            }
+
+            Capsule capsule = (Capsule) CapsuleTestUtils.newCapsule(jar, Paths.get(args[2]));
+            return capsule.prepareForLaunch(Collections.<String>emptyList(), Collections.<String>emptyList()).command();
+        }
+    }
+
+    /**
+     * Loads classes in isolation from the test's class loader, and records every class it loads.
+     */
+    private static class RecordingClassLoader extends URLClassLoader {
+        final List<String> loaded = Collections.synchronizedList(new ArrayList<String>());
+
+        RecordingClassLoader() throws Exception {
+            super(classPath(), null);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            final Class<?> c = super.findClass(name);
+            loaded.add(name);
+            return c;
+        }
+
+        private static URL[] classPath() throws Exception {
+            final List<URL> urls = new ArrayList<>();
+            for (String p : System.getProperty("java.class.path").split(File.pathSeparator))
+                urls.add(Paths.get(p).toUri().toURL());
+            return urls.toArray(new URL[urls.size()]);
+        }
     }
 
     //<editor-fold defaultstate="collapsed" desc="POM Utilities">
@@ -0,0 +1,67 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A small standalone program measuring cold dependency collection time as a function of the number of descriptor prefetch threads.
+ * <p>
+ * Collects a synthetic graph, {@code depth} levels deep and {@code width} artifacts wide, where each artifact depends on {@code fanout}
+ * artifacts in the next level, from a local HTTP repository with simulated latency into a fresh local repository.
+ * Usage: {@code CollectBenchmark [width [depth [fanout [latency-millis]]]]}
+ */
+public class CollectBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int width = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        final int depth = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        final int fanout = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        final int latency = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            remote.layeredGraph(width, depth, fanout);
+            final List<String> roots = new ArrayList<>();
+            for (int i = 0; i < width; i++)
+                roots.add(SyntheticRepository.layeredGav(0, i, 0));
+            remote.artifact("com.acme:app:1.0", roots.toArray(new String[roots.size()]));
+            remote.serve(latency);
+
+            System.out.println("Artifacts: " + (width * depth + 1) + " Latency: " + latency + "ms");
+            for (int threads : new int[]{0, 1, 2, 4, 8, 16, 32})
+                run(remote, threads);
+        }
+    }
+
+    private static void run(SyntheticRepository remote, int threads) throws Exception {
+        System.setProperty("capsule.collect.threads", Integer.toString(threads));
+        final Path local = Files.createTempDirectory("capsule-local");
+        try {
+            final DependencyManager dm = new DependencyManager(local, false, DependencyManager.LOG_NONE);
+            dm.setRepositories(Collections.singletonList("remote(" + remote.getUrl() + ")"), false);
+
+            remote.resetRequestCount();
+            final long start = System.nanoTime();
+            dm.printDependencyTree("com.acme:app:1.0", "jar", new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            }));
+            final long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Threads: " + threads + "\tRequests: " + remote.getRequestCount() + "\tTime: " + millis + "ms");
+        } finally {
+            SyntheticRepository.delete(local);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.util.artifact.JavaScopes;
+
+/**
+ * A small standalone program measuring the throughput and allocation of parsing dependency coordinates into Aether dependencies.
+ * <p>
+ * Compares the hand-written parsers of {@link Coordinates} and {@link DependencyManager#toManagedDependency(String)} with the
+ * regular expressions they replaced (which matched each dependency twice: once for the artifact and once for its exclusions).
+ * Usage: {@code CoordinatesBenchmark [coordinates [iterations]]}
+ */
+public class CoordinatesBenchmark {
+    private static final Pattern PAT_DEPENDENCY = Pattern.compile("(?<groupId>[^:\\(]+):(?<artifactId>[^:\\(]+)(:(?<version>\\(?[^:\\(]*))?(:(?<classifier>[^:\\(]+))?(\\((?<exclusions>[^\\(\\)]*)\\))?");
+    private static final Pattern PAT_DEPENDENCY_MANAGEMENT = Pattern.compile("(?<groupId>[^:\\(]+):(?<artifactId>[^:\\(]+):(?<type>[^:\\(]*):(?<classifier>[^:\\(]*):(?<version>\\(?[^:\\(]+)");
+
+    public static void main(String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        final List<String> deps = new ArrayList<>(count);
+        final List<String> managed = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String ga = "com.acme.group" + i % 100 + ":artifact-" + i;
+            switch (i % 4) {
+                case 0: deps.add(ga + ":1." + i); break;
+                case 1: deps.add(ga + ":[1.0," + i + ".0)"); break;
+                case 2: deps.add(ga + ":1." + i + ":jdk8"); break;
+                default: deps.add(ga + ":1." + i + "(org.asd:qqq,com.gogo:bad)"); break;
+            }
+            managed.add(ga + ":jar:" + (i % 3 == 0 ? "jdk8" : "") + ":1." + i);
+        }
+
+        System.out.println("Coordinates: " + count + " Iterations: " + iterations);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long bytes = allocated();
+            for (int i = 0; i < iterations; i++) {
+                for (String d : deps)
+                    check(toDependencyRegex(d, "jar"));
+            }
+            report("Dependency (regex)", start, bytes, iterations * count);
+
+            start = System.nanoTime();
+            bytes = allocated();
+            for (int i = 0; i < iterations; i++) {
+                for (String d : deps)
+                    check(DependencyManager.toDependency(new Coordinates(d, "jar")));
+            }
+            report("Dependency (parser)", start, bytes, iterations * count);
+
+            start = System.nanoTime();
+            bytes = allocated();
+            for (int i = 0; i < iterations; i++) {
+                for (String d : managed)
+                    check(toManagedDependencyRegex(d));
+            }
+            report("Managed (regex)", start, bytes, iterations * count);
+
+            start = System.nanoTime();
+            bytes = allocated();
+            for (int i = 0; i < iterations; i++) {
+                for (String d : managed)
+                    check(DependencyManager.toManagedDependency(d));
+            }
+            report("Managed (parser)", start, bytes, iterations * count);
+        }
+    }
+
+    private static void check(Dependency d) {
+        if (d.getArtifact().getArtifactId().isEmpty())
+            throw new AssertionError(d);
+    }
+
+    private static void report(String name, long start, long bytes, long ops) {
+        final long nanos = System.nanoTime() - start;
+        System.out.println(name + ":\t" + (ops * 1000 / Math.max(1, nanos / 1000)) + " coordinates/ms\t" + (allocated() - bytes) / ops + " bytes/coordinate");
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static Dependency toDependencyRegex(String coords, String type) {
+        Matcher m = PAT_DEPENDENCY.matcher(coords);
+        if (!m.matches())
+            throw new IllegalArgumentException(coords);
+        final String version = m.group("version");
+        final DefaultArtifact artifact = new DefaultArtifact(m.group("groupId"), m.group("artifactId"), m.group("classifier"), type,
+                version == null || version.isEmpty() ? null : version);
+
+        m = PAT_DEPENDENCY.matcher(coords);
+        if (!m.matches())
+            throw new IllegalArgumentException(coords);
+        List<Exclusion> exclusions = null;
+        if (m.group("exclusions") != null && !m.group("exclusions").isEmpty()) {
+            exclusions = new ArrayList<>();
+            for (String ex : Arrays.asList(m.group("exclusions").split(","))) {
+                final String[] ga = ex.trim().split(":");
+                if (ga.length != 2)
+                    throw new IllegalArgumentException(coords);
+                exclusions.add(new Exclusion(ga[0], ga[1], "*", "*"));
+            }
+        }
+        return new Dependency(artifact, JavaScopes.RUNTIME, false, exclusions);
+    }
+
+    private static Dependency toManagedDependencyRegex(String coords) {
+        final Matcher m = PAT_DEPENDENCY_MANAGEMENT.matcher(coords);
+        if (!m.matches())
+            throw new IllegalArgumentException(coords);
+        final String type = m.group("type");
+        final String classifier = m.group("classifier");
+        return new Dependency(new DefaultArtifact(m.group("groupId"), m.group("artifactId"), classifier.isEmpty() ? null : classifier,
+                type.isEmpty() ? null : type, m.group("version")), JavaScopes.RUNTIME, false);
+    }
+}
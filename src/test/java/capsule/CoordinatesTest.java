@@ -0,0 +1,155 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.util.artifact.JavaScopes;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CoordinatesTest {
+    // the patterns the parsers replaced, used as a reference
+    private static final Pattern PAT_DEPENDENCY = Pattern.compile("(?<groupId>[^:\\(]+):(?<artifactId>[^:\\(]+)(:(?<version>\\(?[^:\\(]*))?(:(?<classifier>[^:\\(]+))?(\\((?<exclusions>[^\\(\\)]*)\\))?");
+    private static final Pattern PAT_DEPENDENCY_MANAGEMENT = Pattern.compile("(?<groupId>[^:\\(]+):(?<artifactId>[^:\\(]+):(?<type>[^:\\(]*):(?<classifier>[^:\\(]*):(?<version>\\(?[^:\\(]+)");
+
+    private static final List<String> SAMPLES = Arrays.asList(
+            "com.acme:foo", "com.acme:foo:1.0", "com.acme:foo:1.0:jdk8", "com.acme:foo:", "com.acme:foo::jdk8",
+            "com.acme:foo:[1.0,2.0)", "com.acme:foo:(,2.0]:jdk8", "com.acme:foo:LATEST(org.asd:qqq, com.gogo:bad,com.wha:*)",
+            "com.acme:foo:1.0:jdk8(org.asd:qqq)", "com.acme:foo(org.asd:qqq)", "com.acme:foo:(org.asd:qqq,com.gogo:bad)",
+            "com.acme:foo:()", "com.acme:foo:1.0( )", "com.acme:foo:1.0(a:b,)", "com.acme:foo:1.0(a:b:)",
+            "com.acme:foo:1.0(,a:b)", "com.acme:foo:1.0(a)", "com.acme:foo:1.0(a:b:c)", "com.acme:foo:1.0(a::)",
+            "com.acme", ":foo", "com.acme:", "com.acme:foo:1.0:", "com.acme:foo:1.0:jdk8:x", "com.acme:foo:1.0(a:b",
+            "com.acme:foo:1.0(a:b)x", "com.acme:foo:1.0((a:b))", "c:\\foo.jar");
+
+    @Test
+    public void testParse() {
+        for (String s : SAMPLES)
+            assertParsedLikePattern(s);
+
+        final Random r = new Random(1);
+        final char[] alphabet = {'a', 'b', ':', ':', '(', ')', ',', '[', ' '};
+        for (int i = 0; i < 100000; i++) {
+            final char[] cs = new char[1 + r.nextInt(12)];
+            for (int j = 0; j < cs.length; j++)
+                cs[j] = alphabet[r.nextInt(alphabet.length)];
+            assertParsedLikePattern(new String(cs));
+        }
+    }
+
+    @Test
+    public void testParseManaged() {
+        for (String s : Arrays.asList("com.acme:foo:jar:jdk8:1.0", "com.acme:foo:::1.0", "com.acme:foo:jar::-", "com.acme:foo:jar::(,2.0]",
+                "com.acme:foo:jar::", "com.acme:foo:jar::(", "com.acme:foo:jar:1.0", "com.acme:foo:jar:::1.0", "com.acme(:foo:jar::1.0"))
+            assertManagedParsedLikePattern(s);
+
+        final Random r = new Random(1);
+        final char[] alphabet = {'a', '-', ':', ':', ':', '(', ')'};
+        for (int i = 0; i < 100000; i++) {
+            final char[] cs = new char[1 + r.nextInt(12)];
+            for (int j = 0; j < cs.length; j++)
+                cs[j] = alphabet[r.nextInt(alphabet.length)];
+            assertManagedParsedLikePattern(new String(cs));
+        }
+    }
+
+    @Test
+    public void testEquality() {
+        final Coordinates c = new Coordinates("com.acme:foo:1.0", "jar");
+        assertEquals(c, new Coordinates(new String("com.acme:foo:1.0"), "jar"));
+        assertNotEquals(c, new Coordinates("com.acme:foo:1.0", "pom"));
+        assertEquals(c.hashCode(), new Coordinates("com.acme:foo:1.0", "jar").hashCode());
+    }
+
+    @Test
+    public void testLocalPath() {
+        final Path repo = Paths.get("repo");
+        assertEquals(repo.resolve("com/acme/foo/1.0/foo-1.0.jar"), new Coordinates("com.acme:foo:1.0", "jar").getLocalPath(repo));
+        assertEquals(repo.resolve("com/acme/foo/1.0/foo-1.0-jdk8.pom"), new Coordinates("com.acme:foo:1.0:jdk8(org.asd:qqq)", "pom").getLocalPath(repo));
+        for (String s : Arrays.asList("com.acme:foo", "com.acme:foo:[1.0,2.0)", "com.acme:foo:LATEST")) {
+            try {
+                new Coordinates(s, "jar").getLocalPath(repo);
+                fail(s);
+            } catch (IllegalStateException e) {
+            }
+        }
+    }
+
+    private static void assertParsedLikePattern(String s) {
+        final Matcher m = PAT_DEPENDENCY.matcher(s);
+        final Coordinates c = new Coordinates(s, "jar");
+        if (!m.matches()) {
+            try {
+                c.getVersion();
+                fail(s);
+            } catch (IllegalArgumentException e) {
+            }
+            return;
+        }
+        assertEquals(s, m.group("groupId"), c.getGroupId());
+        assertEquals(s, m.group("artifactId"), c.getArtifactId());
+        assertEquals(s, emptyToNull(m.group("version")), c.getVersion());
+        assertEquals(s, m.group("classifier"), c.getClassifier());
+
+        Collection<Exclusion> expected;
+        try {
+            expected = exclusions(m.group("exclusions"));
+        } catch (IllegalArgumentException e) {
+            expected = null;
+        }
+        try {
+            final Dependency d = DependencyManager.toDependency(s, "jar");
+            assertNotNull(s, expected);
+            assertEquals(s, new Dependency(new DefaultArtifact(m.group("groupId"), m.group("artifactId"), m.group("classifier"), "jar", emptyToNull(m.group("version"))),
+                    JavaScopes.RUNTIME, false, expected.isEmpty() ? null : expected), d);
+        } catch (IllegalArgumentException e) {
+            assertNull(s, expected);
+        }
+    }
+
+    private static void assertManagedParsedLikePattern(String s) {
+        final Matcher m = PAT_DEPENDENCY_MANAGEMENT.matcher(s);
+        try {
+            final Dependency d = DependencyManager.toManagedDependency(s);
+            assertTrue(s, m.matches());
+            final boolean optional = "-".equals(m.group("version"));
+            assertEquals(s, new Dependency(new DefaultArtifact(m.group("groupId"), m.group("artifactId"), emptyToNull(m.group("classifier")), emptyToNull(m.group("type")),
+                    optional ? null : m.group("version")), JavaScopes.RUNTIME, optional), d);
+        } catch (IllegalArgumentException e) {
+            assertFalse(s, m.matches());
+        }
+    }
+
+    private static Collection<Exclusion> exclusions(String s) {
+        final List<Exclusion> exclusions = new ArrayList<>();
+        if (s == null || s.isEmpty())
+            return exclusions;
+        for (String ex : s.split(",")) {
+            final String[] coords = ex.trim().split(":");
+            if (coords.length != 2)
+                throw new IllegalArgumentException(ex);
+            exclusions.add(new Exclusion(coords[0], coords[1], "*", "*"));
+        }
+        return exclusions;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+}
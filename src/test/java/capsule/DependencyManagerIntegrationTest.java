@@ -0,0 +1,414 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.aether.graph.Dependency;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DependencyManagerIntegrationTest {
+    /*
+     * These tests resolve dependencies end to end, from synthetic repositories (see SyntheticRepository), most of them served over HTTP.
+     * Each test sets up its resolutions with a Fixture.
+     */
+
+    @Test
+    public void testPipelinedResolution() throws Exception {
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            remote.artifact("com.acme:a:1.0")
+                    .artifact("com.acme:a:2.0")
+                    .artifact("com.acme:b:1.0", "com.acme:a:2.0")
+                    .artifact("com.acme:app:1.0", "com.acme:a:1.0", "com.acme:b:1.0");
+
+            final List<Path> pipelined = fixture().repo("remote", remote).property("capsule.resolve.pipeline", "true").resolve("com.acme:app:1.0");
+            final List<Path> sequential = fixture().repo("remote", remote).property("capsule.resolve.pipeline", "false").resolve("com.acme:app:1.0");
+
+            assertEquals(fileNames(sequential), fileNames(pipelined));
+            assertEquals(Arrays.asList("app-1.0.jar", "a-1.0.jar", "b-1.0.jar"), fileNames(pipelined));
+        }
+    }
+
+    @Test
+    public void testPrefetchedCollection() throws Exception {
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            remote.artifact("com.acme:a:1.0", "com.acme:c:1.0")
+                    .artifact("com.acme:a:2.0", "com.acme:c:2.0")
+                    .artifact("com.acme:c:1.0")
+                    .artifact("com.acme:c:2.0")
+                    .artifact("com.acme:d:1.0", "com.acme:a:2.0")
+                    .artifact("com.acme:b:1.0", "com.acme:d:1.0", "com.acme:c:2.0")
+                    .artifact("com.acme:app:1.0", "com.acme:b:1.0", "com.acme:a:1.0");
+
+            final List<Path> concurrent = fixture().repo("remote", remote).property("capsule.collect.threads", "4").resolve("com.acme:app:1.0");
+            final List<Path> sequential = fixture().repo("remote", remote).property("capsule.collect.threads", "0").resolve("com.acme:app:1.0");
+
+            assertEquals(fileNames(sequential), fileNames(concurrent));
+            assertEquals(Arrays.asList("app-1.0.jar", "b-1.0.jar", "d-1.0.jar", "c-2.0.jar", "a-1.0.jar"), fileNames(concurrent));
+        }
+    }
+
+    @Test
+    public void testRepositoryDownloadCap() throws Exception {
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            final List<String> deps = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                remote.artifact("com.acme:lib" + i + ":1.0");
+                deps.add("com.acme:lib" + i + ":1.0");
+            }
+            remote.artifact("com.acme:app:1.0", deps.toArray(new String[0]));
+            remote.serve(20);
+
+            assertEquals(9, fixture().repo("remote", remote).property("capsule.download.threads", "4").resolve("com.acme:app:1.0").size());
+            assertTrue(remote.getMaxConcurrentRequests() > 1);
+
+            remote.resetRequestCount();
+            // capped across the resolver, the download pipeline and the descriptor prefetcher
+            assertEquals(9, fixture().repo("remote", remote).property("capsule.download.threads.remote", "1").resolve("com.acme:app:1.0").size());
+            assertEquals(1, remote.getMaxConcurrentRequests());
+        }
+    }
+
+    @Test
+    public void testLeanGraphAttribution() throws Exception {
+        final Path local = Files.createTempDirectory("capsule-local");
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            remote.artifact("com.acme:c:1.0")
+                    .artifact("com.acme:a:1.0", "com.acme:c:1.0")
+                    .artifact("com.acme:a:2.0", "com.acme:c:1.0")
+                    .artifact("com.acme:x:1.0", "com.acme:a:1.0")
+                    .artifact("com.acme:y:1.0", "com.acme:a:2.0");
+
+            final DependencyManager dm = fixture().local(local).repo("remote", remote).newManager();
+            final Dependency x = dep("com.acme:x:1.0");
+            final Dependency y = dep("com.acme:y:1.0");
+            final Map<Dependency, List<Path>> resolved = dm.resolveDependencies(Arrays.asList(x, y));
+
+            // the losing a:2.0 is pruned, but y is still attributed the winning a, and a's dependencies
+            assertEquals(Arrays.asList("x-1.0.jar", "a-1.0.jar", "c-1.0.jar"), fileNames(resolved.get(x)));
+            assertEquals(Arrays.asList("y-1.0.jar", "a-1.0.jar", "c-1.0.jar"), fileNames(resolved.get(y)));
+
+            // the printed tree retains the loser
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            dm.printDependencyTree(Arrays.asList("com.acme:x:1.0", "com.acme:y:1.0"), "jar", new PrintStream(out, true));
+            assertTrue(out.toString(), out.toString().contains("com.acme:a:2.0 -> 1.0"));
+        } finally {
+            SyntheticRepository.delete(local);
+        }
+    }
+
+    @Test
+    public void testSharedSession() throws Exception {
+        final Path local = Files.createTempDirectory("capsule-local");
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            remote.artifact("com.acme:c:1.0")
+                    .artifact("com.acme:b:1.0", "com.acme:c:1.0")
+                    .artifact("com.acme:app:1.0", "com.acme:b:1.0");
+            remote.serve(0);
+
+            final Fixture fixture = fixture().local(local).repo("remote", remote).routes(Collections.singletonMap("com.acme.*", "remote"));
+            final DependencyManager outer = fixture.newManager();
+            final Dependency app = dep("com.acme:app:1.0");
+            final Map<Dependency, List<Path>> resolved = outer.resolveDependencies(Arrays.asList(app));
+
+            // neither the resolution nor the collected descriptors require the POMs again
+            for (String pom : new String[]{"com/acme/app/1.0/app-1.0.pom", "com/acme/b/1.0/b-1.0.pom", "com/acme/c/1.0/c-1.0.pom"})
+                Files.delete(local.resolve(pom));
+            remote.resetRequestCount();
+
+            final DependencyManager inner = fixture.setUp(new DependencyManager(outer, DependencyManager.LOG_NONE));
+            assertSame(resolved, inner.resolveDependencies(Arrays.asList(app)));
+            final Dependency b = dep("com.acme:b:1.0");
+            assertEquals(Arrays.asList("b-1.0.jar", "c-1.0.jar"), fileNames(inner.resolveDependencies(Arrays.asList(b)).get(b)));
+            assertEquals(0, remote.getRequestCount());
+        } finally {
+            SyntheticRepository.delete(local);
+        }
+    }
+
+    @Test
+    public void testRepositoryRoutes() throws Exception {
+        try (SyntheticRepository internal = SyntheticRepository.temp(); SyntheticRepository central = SyntheticRepository.temp()) {
+            internal.artifact("com.acme:app:1.0", "org.foo:lib:1.0", "com.acme:util:1.0")
+                    .artifact("com.acme:util:1.0");
+            central.artifact("org.foo:lib:1.0", "org.bar:dep:1.0")
+                    .artifact("org.bar:dep:1.0");
+            internal.serve(0);
+            central.serve(0);
+
+            final List<String> routed = fileNames(fixture().repo("internal", internal).repo("central", central).routes(acmeRoutes()).resolve("com.acme:app:1.0"));
+            final int internalRequests = internal.getRequestCount();
+            final int centralRequests = central.getRequestCount();
+            internal.resetRequestCount();
+            central.resetRequestCount();
+
+            final List<String> unrouted = fileNames(fixture().repo("internal", internal).repo("central", central).resolve("com.acme:app:1.0"));
+            assertEquals(unrouted, routed);
+            assertEquals(Arrays.asList("app-1.0.jar", "lib-1.0.jar", "dep-1.0.jar", "util-1.0.jar"), routed);
+            assertTrue(internalRequests < internal.getRequestCount()); // unrouted, org.foo and org.bar are looked for in internal first
+            assertEquals(centralRequests, central.getRequestCount());  // internal is listed first, so com.acme is never looked for in central
+        }
+    }
+
+    @Test
+    public void testRoutedParent() throws Exception {
+        try (SyntheticRepository internal = SyntheticRepository.temp(); SyntheticRepository central = SyntheticRepository.temp()) {
+            internal.artifact("com.acme:app:1.0", Collections.<String>emptyList(),
+                    "<parent><groupId>org.foo</groupId><artifactId>parent</artifactId><version>1.0</version></parent>");
+            central.artifact("org.foo:parent:1.0", Arrays.asList("org.foo:lib:1.0"), "<packaging>pom</packaging>")
+                    .artifact("org.foo:lib:1.0");
+            internal.serve(0);
+            central.serve(0);
+
+            assertEquals(Arrays.asList("app-1.0.jar", "lib-1.0.jar"),
+                    fileNames(fixture().repo("internal", internal).repo("central", central).routes(acmeRoutes()).resolve("com.acme:app:1.0")));
+        }
+    }
+
+    @Test
+    public void testMissingCache() throws Exception {
+        final Path missing = Files.createTempDirectory("capsule-missing");
+        try (SyntheticRepository internal = SyntheticRepository.temp(); SyntheticRepository central = SyntheticRepository.temp()) {
+            internal.artifact("com.acme:util:1.0");
+            central.artifact("org.foo:lib:1.0");
+            internal.serve(0);
+            central.serve(0);
+
+            final MissingCache cache = new MissingCache(missing, -1);
+            assertEquals(Arrays.asList("lib-1.0.jar"),
+                    fileNames(fixture().repo("internal", internal).repo("central", central).forceRefresh().missingCache(cache).resolve("org.foo:lib:1.0")));
+            assertTrue(internal.getRequestCount() > 0);
+            assertEquals(0, cache.getHits());
+
+            internal.resetRequestCount();
+            final MissingCache later = new MissingCache(missing, -1); // a cold, reset launch
+            assertEquals(Arrays.asList("lib-1.0.jar"),
+                    fileNames(fixture().repo("internal", internal).repo("central", central).forceRefresh().missingCache(later).resolve("org.foo:lib:1.0")));
+            assertEquals(0, internal.getRequestCount());
+            assertTrue(later.getHits() > 0);
+        } finally {
+            SyntheticRepository.delete(missing);
+        }
+    }
+
+    @Test
+    public void testAdaptiveRepositoryOrder() throws Exception {
+        final Path stats = Files.createTempFile("capsule-stats", "");
+        try (SyntheticRepository slow = SyntheticRepository.temp(); SyntheticRepository fast = SyntheticRepository.temp()) {
+            for (SyntheticRepository r : Arrays.asList(slow, fast))
+                r.artifact("com.acme:app:1.0", "com.acme:lib:1.0").artifact("com.acme:lib:1.0").serve(0);
+            slow.setLatency(50);
+
+            resolveMirrored(slow, fast, new RepositoryStats(stats), false);
+            assertTrue(slow.getRequestCount() > 0);
+            assertEquals(0, fast.getRequestCount());
+
+            final RepositoryStats observed = new RepositoryStats(stats);
+            for (int i = 0; i < 10; i++)
+                observed.record(fast.getUrl(), 1, false);
+            observed.save();
+
+            slow.resetRequestCount();
+            resolveMirrored(slow, fast, new RepositoryStats(stats), false); // fixed order
+            assertTrue(slow.getRequestCount() > 0);
+            slow.resetRequestCount();
+            resolveMirrored(slow, fast, new RepositoryStats(stats), true);
+            assertEquals(0, slow.getRequestCount());
+            assertTrue(fast.getRequestCount() > 0);
+        } finally {
+            Files.delete(stats);
+        }
+    }
+
+    private static void resolveMirrored(SyntheticRepository first, SyntheticRepository second, RepositoryStats stats, boolean adaptive) throws IOException {
+        assertEquals(Arrays.asList("app-1.0.jar", "lib-1.0.jar"),
+                fileNames(fixture().repo("remote", first).repo("remote", second).stats(stats, adaptive).resolve("com.acme:app:1.0")));
+        stats.save();
+    }
+
+    @Test
+    public void testUpdatePolicy() throws Exception {
+        final Path local = Files.createTempDirectory("capsule-local");
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            remote.artifact("com.acme:foo:1.0");
+            assertEquals(Arrays.asList("foo-1.0.jar"), fileNames(resolveRange(local, remote, Collections.<String, String>emptyMap())));
+
+            remote.artifact("com.acme:foo:1.1");
+            assertEquals(Arrays.asList("foo-1.0.jar"), fileNames(resolveRange(local, remote, Collections.<String, String>emptyMap())));
+            assertEquals(Arrays.asList("foo-1.0.jar"), fileNames(resolveRange(local, remote, Collections.singletonMap("remote", "daily"))));
+            assertEquals(Arrays.asList("foo-1.0.jar"), fileNames(resolveRange(local, remote, Collections.singletonMap("other", "always"))));
+            assertEquals(Arrays.asList("foo-1.1.jar"), fileNames(resolveRange(local, remote, Collections.singletonMap("*", "interval:0"))));
+        } finally {
+            SyntheticRepository.delete(local);
+        }
+    }
+
+    private static List<Path> resolveRange(Path local, SyntheticRepository remote, Map<String, String> policies) throws IOException {
+        return fixture().local(local).repo("remote", remote).updatePolicies(policies).resolve("com.acme:foo:[1.0,2.0)");
+    }
+
+    @Test
+    public void testConditionalRefresh() throws Exception {
+        final Path local = Files.createTempDirectory("capsule-local");
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            remote.artifact("com.acme:foo:1.0");
+            remote.serve(0);
+            final Fixture refresh = fixture().local(local).repo("remote", remote).forceRefresh();
+            assertEquals(Arrays.asList("foo-1.0.jar"), fileNames(refresh.resolve("com.acme:foo:[1.0,2.0)")));
+            assertFalse(Files.exists(local.resolve("com/acme/foo/maven-metadata-remote.xml.validators"))); // a first download
+            assertFalse(Files.exists(local.resolve("com/acme/foo/1.0/foo-1.0.jar.validators")));
+            assertEquals(Arrays.asList("foo-1.0.jar"), fileNames(refresh.resolve("com.acme:foo:[1.0,2.0)")));
+            assertTrue(Files.exists(local.resolve("com/acme/foo/maven-metadata-remote.xml.validators")));
+
+            remote.resetRequestCount();
+            assertEquals(Arrays.asList("foo-1.0.jar"), fileNames(refresh.resolve("com.acme:foo:[1.0,2.0)")));
+            assertTrue(remote.getRequestCount() > 0);
+            assertEquals(0, remote.getBytesServed());
+
+            remote.artifact("com.acme:foo:1.1");
+            assertEquals(Arrays.asList("foo-1.1.jar"), fileNames(refresh.resolve("com.acme:foo:[1.0,2.0)")));
+        } finally {
+            SyntheticRepository.delete(local);
+        }
+    }
+
+    //<editor-fold defaultstate="collapsed" desc="Fixture">
+    /////////// Fixture ///////////////////////////////////
+    private static Fixture fixture() {
+        return new Fixture();
+    }
+
+    /**
+     * Sets up {@link DependencyManager}s over a local repository and the given remote repositories.
+     */
+    private static final class Fixture {
+        private Path local; // if null, each resolution gets a temporary local repository of its own
+        private final List<String> repos = new ArrayList<>();
+        private boolean forceRefresh;
+        private Map<String, String> routes = Collections.emptyMap();
+        private Map<String, String> updatePolicies = Collections.emptyMap();
+        private MissingCache missingCache;
+        private RepositoryStats stats;
+        private boolean adaptive;
+        private final Map<String, String> properties = new HashMap<>();
+
+        Fixture local(Path local) {
+            this.local = local;
+            return this;
+        }
+
+        Fixture repo(String id, SyntheticRepository repo) {
+            repos.add(id + "(" + repo.getUrl() + ")");
+            return this;
+        }
+
+        Fixture forceRefresh() {
+            this.forceRefresh = true;
+            return this;
+        }
+
+        Fixture routes(Map<String, String> routes) {
+            this.routes = routes;
+            return this;
+        }
+
+        Fixture updatePolicies(Map<String, String> policies) {
+            this.updatePolicies = policies;
+            return this;
+        }
+
+        Fixture missingCache(MissingCache cache) {
+            this.missingCache = cache;
+            return this;
+        }
+
+        Fixture stats(RepositoryStats stats, boolean adaptive) {
+            this.stats = stats;
+            this.adaptive = adaptive;
+            return this;
+        }
+
+        /**
+         * Sets a system property for the duration of each {@link #resolve(String) resolution}.
+         */
+        Fixture property(String name, String value) {
+            properties.put(name, value);
+            return this;
+        }
+
+        DependencyManager newManager() {
+            return newManager(local);
+        }
+
+        private DependencyManager newManager(Path local) {
+            return setUp(new DependencyManager(local, forceRefresh, DependencyManager.LOG_NONE));
+        }
+
+        DependencyManager setUp(DependencyManager dm) {
+            if (missingCache != null)
+                dm.setMissingCache(missingCache);
+            if (stats != null)
+                dm.setRepositoryStats(stats, adaptive);
+            return dm.setRepositoryRoutes(routes)
+                    .setUpdatePolicies(updatePolicies)
+                    .setRepositories(repos, false);
+        }
+
+        /**
+         * Resolves the given JAR dependency with a new manager.
+         */
+        List<Path> resolve(String coords) throws IOException {
+            final Path temp = local == null ? Files.createTempDirectory("capsule-local") : null;
+            final Map<String, String> old = new HashMap<>();
+            for (Map.Entry<String, String> p : properties.entrySet())
+                old.put(p.getKey(), System.setProperty(p.getKey(), p.getValue()));
+            try {
+                return newManager(temp != null ? temp : local).resolveDependency(coords, "jar");
+            } finally {
+                for (Map.Entry<String, String> p : old.entrySet()) {
+                    if (p.getValue() != null)
+                        System.setProperty(p.getKey(), p.getValue());
+                    else
+                        System.clearProperty(p.getKey());
+                }
+                if (temp != null)
+                    SyntheticRepository.delete(temp);
+            }
+        }
+    }
+
+    private static List<String> fileNames(List<Path> ps) {
+        final List<String> names = new ArrayList<>();
+        for (Path p : ps)
+            names.add(p.getFileName().toString());
+        return names;
+    }
+
+    private static Dependency dep(String desc) {
+        return DependencyManager.toDependency(desc, "jar");
+    }
+
+    private static Map<String, String> acmeRoutes() {
+        final Map<String, String> routes = new HashMap<>();
+        routes.put("com.acme.*", "internal");
+        routes.put("*", "central");
+        return routes;
+    }
+    //</editor-fold>
+}
@@ -8,6 +8,7 @@
  */
 package capsule;
 
+import java.util.Collections;
 import org.eclipse.aether.graph.Dependency;
 import org.eclipse.aether.graph.Exclusion;
 import org.eclipse.aether.repository.RemoteRepository;
@@ -212,6 +213,11 @@ public class DependencyManagerTest {
         assertEquals("http://foo.com", repo.getUrl());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalUpdatePolicy() throws Exception {
+        new DependencyManager(null, false, DependencyManager.LOG_NONE).setUpdatePolicies(Collections.singletonMap("*", "weekly"));
+    }
+
     private static Dependency dep(String desc) {
         return DependencyManager.toDependency(desc, "jar");
     }
@@ -0,0 +1,65 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A small standalone program measuring cold resolution time as a function of the number of download threads,
+ * with and without pipelined collection and download.
+ * <p>
+ * Resolves an artifact with a flat list of dependencies from a local HTTP repository with simulated latency
+ * into a fresh local repository, for each configuration.
+ * Usage: {@code DownloadBenchmark [artifacts [latency-millis [jar-size]]]}
+ */
+public class DownloadBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int latency = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        final int jarSize = args.length > 2 ? Integer.parseInt(args[2]) : 64 * 1024;
+
+        try (SyntheticRepository remote = SyntheticRepository.temp().setJarSize(jarSize)) {
+            final List<String> deps = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                final String dep = "com.acme.lib:lib" + i + ":1.0";
+                remote.artifact(dep);
+                deps.add(dep);
+            }
+            remote.artifact("com.acme:app:1.0", deps.toArray(new String[deps.size()]));
+            remote.serve(latency);
+
+            System.out.println("Artifacts: " + (n + 1) + " Latency: " + latency + "ms Jar size: " + jarSize);
+            for (int threads : new int[]{1, 2, 4, 8, 16, 32}) {
+                for (boolean pipeline : new boolean[]{false, true})
+                    run(remote, threads, pipeline);
+            }
+        }
+    }
+
+    private static void run(SyntheticRepository remote, int threads, boolean pipeline) throws Exception {
+        System.setProperty("capsule.download.threads", Integer.toString(threads));
+        System.setProperty("capsule.resolve.pipeline", Boolean.toString(pipeline));
+        final Path local = Files.createTempDirectory("capsule-local");
+        try {
+            final DependencyManager dm = new DependencyManager(local, false, DependencyManager.LOG_NONE);
+            dm.setRepositories(Collections.singletonList("remote(" + remote.getUrl() + ")"), false);
+
+            final long start = System.nanoTime();
+            final List<Path> ps = dm.resolveDependency("com.acme:app:1.0", "jar");
+            final long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Threads: " + threads + "\tPipeline: " + pipeline + "\tArtifacts: " + ps.size() + "\tTime: " + millis + "ms");
+        } finally {
+            SyntheticRepository.delete(local);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.aether.graph.Dependency;
+
+/**
+ * A small standalone program measuring cold and warm resolution of an already-flattened dependency list (the complete closure of a
+ * synthetic graph, {@code depth} levels deep and {@code width} artifacts wide), with transitive collection and with direct resolution
+ * (as with {@code Dependencies-Flattened}), from a local HTTP repository with simulated latency.
+ * Usage: {@code FlattenedBenchmark [width [depth [fanout [latency-millis]]]]}
+ */
+public class FlattenedBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int width = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        final int depth = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final int fanout = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        final int latency = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            final List<Dependency> closure = new ArrayList<>();
+            for (String gav : remote.layeredGraph(width, depth, fanout))
+                closure.add(DependencyManager.toDependency(gav, "jar"));
+            remote.serve(latency);
+
+            System.out.println("Artifacts: " + closure.size() + " Latency: " + latency + "ms");
+            for (int round = 0; round < 2; round++) {
+                for (boolean flattened : new boolean[]{false, true}) {
+                    final Path local = Files.createTempDirectory("capsule-local");
+                    try {
+                        final long cold = run(local, remote, closure, flattened);
+                        final int requests = remote.getRequestCount();
+                        final long warm = run(local, remote, closure, flattened);
+                        System.out.println((flattened ? "Flattened" : "Collected") + ":\tcold " + cold + "ms\twarm " + warm + "ms\t"
+                                + requests + " requests (cold)");
+                    } finally {
+                        SyntheticRepository.delete(local);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long run(Path local, SyntheticRepository remote, List<Dependency> deps, boolean flattened) {
+        remote.resetRequestCount();
+        final DependencyManager dm = new DependencyManager(local, false, DependencyManager.LOG_NONE);
+        dm.setRepositories(Collections.singletonList("remote(" + remote.getUrl() + ")"), false);
+        final long start = System.nanoTime();
+        final Map<Dependency, List<Path>> resolved = flattened ? dm.resolveFlattenedDependencies(deps) : dm.resolveDependencies(deps);
+        if (resolved.size() != deps.size())
+            throw new AssertionError(resolved.size());
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
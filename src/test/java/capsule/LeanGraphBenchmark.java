@@ -0,0 +1,150 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.aether.AbstractForwardingRepositorySystemSession;
+import org.eclipse.aether.RepositoryException;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.collection.DependencyGraphTransformationContext;
+import org.eclipse.aether.collection.DependencyGraphTransformer;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.util.graph.transformer.ConflictResolver;
+
+/**
+ * A small standalone program measuring the size of the resolved dependency graph, and the (warm) resolution time, of a synthetic graph
+ * with heavy version conflicts, in the lean mode used for launches and in the verbose mode that retains conflict losers.
+ * <p>
+ * The graph is {@code depth} levels deep and {@code width} artifacts wide; each artifact has {@code versions} versions, and each
+ * depends on {@code fanout} artifacts in the next level, at differing versions. The retained heap is the difference in (post-GC) heap
+ * use between the end of graph transformation and the end of resolution, so it also includes the collector's caches, which are the same
+ * in both modes.
+ * Usage: {@code LeanGraphBenchmark [width [depth [fanout [versions [iterations]]]]]}
+ */
+public class LeanGraphBenchmark {
+    private static long nodes;
+    private static long heap;
+
+    public static void main(String[] args) throws Exception {
+        final int width = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        final int depth = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final int fanout = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        final int versions = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        final int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        final Path local = Files.createTempDirectory("capsule-local");
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            remote.layeredGraph(width, depth, fanout, versions);
+            final List<Dependency> roots = new ArrayList<>();
+            for (int i = 0; i < width; i++)
+                roots.add(DependencyManager.toDependency(SyntheticRepository.layeredGav(0, i, i % versions), "jar"));
+            remote.serve(0);
+
+            System.out.println("Artifacts: " + width * depth * versions + " Roots: " + width + " Iterations: " + iterations);
+            for (int round = 0; round < 3; round++) {
+                for (boolean verbose : new boolean[]{true, false}) {
+                    final DependencyManager dm = newDependencyManager(local, verbose);
+                    dm.setRepositories(Collections.singletonList("remote(" + remote.getUrl() + ")"), false);
+                    final int jars = count(dm.resolveDependencies(roots)); // warm up the local repository
+                    final long retained = heap - used();
+
+                    final long start = System.nanoTime();
+                    for (int i = 0; i < iterations; i++)
+                        dm.resolveDependencies(roots);
+                    System.out.println((verbose ? "Verbose" : "Lean") + ":\t" + (System.nanoTime() - start) / 1_000_000 / iterations + "ms\t"
+                            + nodes + " nodes\t" + retained / 1024 + "KB retained\t" + jars + " attributed jars");
+                }
+            }
+        } finally {
+            SyntheticRepository.delete(local);
+        }
+    }
+
+    private static DependencyManager newDependencyManager(Path local, final boolean verbose) {
+        return new DependencyManager(local, false, DependencyManager.LOG_NONE) {
+            @Override
+            protected DependencyGraphTransformer newDependencyGraphTransformer(DependencyGraphTransformer transformer) {
+                final DependencyGraphTransformer t = super.newDependencyGraphTransformer(transformer);
+                return new DependencyGraphTransformer() {
+                    @Override
+                    public DependencyNode transformGraph(DependencyNode node, DependencyGraphTransformationContext context) throws RepositoryException {
+                        final DependencyNode root = t.transformGraph(node, verbose ? verbose(context) : context);
+                        nodes = count(root, Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>()));
+                        heap = used();
+                        return root;
+                    }
+                };
+            }
+        };
+    }
+
+    private static DependencyGraphTransformationContext verbose(final DependencyGraphTransformationContext context) {
+        final Map<String, Object> props = new HashMap<>(context.getSession().getConfigProperties());
+        props.put(ConflictResolver.CONFIG_PROP_VERBOSE, true);
+        final RepositorySystemSession session = new AbstractForwardingRepositorySystemSession() {
+            @Override
+            protected RepositorySystemSession getSession() {
+                return context.getSession();
+            }
+
+            @Override
+            public Map<String, Object> getConfigProperties() {
+                return props;
+            }
+        };
+        return new DependencyGraphTransformationContext() {
+            @Override
+            public RepositorySystemSession getSession() {
+                return session;
+            }
+
+            @Override
+            public Object get(Object key) {
+                return context.get(key);
+            }
+
+            @Override
+            public Object put(Object key, Object value) {
+                return context.put(key, value);
+            }
+        };
+    }
+
+    private static long count(DependencyNode node, Set<DependencyNode> visited) {
+        if (!visited.add(node))
+            return 0;
+        long n = 1;
+        for (DependencyNode c : node.getChildren())
+            n += count(c, visited);
+        return n;
+    }
+
+    private static int count(Map<Dependency, List<Path>> resolved) {
+        int n = 0;
+        for (List<Path> ps : resolved.values())
+            n += ps.size();
+        return n;
+    }
+
+    private static long used() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import com.google.common.jimfs.Jimfs;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.util.artifact.JavaScopes;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LockfileTest {
+    private final FileSystem fs = Jimfs.newFileSystem();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Lockfile lockfile = new Lockfile()
+                .put("com.acme:foo:1.0", "jar", Arrays.asList(
+                        new Lockfile.Artifact("com.acme", "foo", "jar", null, "1.0", "abcd", "central(https://repo1.maven.org/maven2/)"),
+                        new Lockfile.Artifact("com.acme", "bar", "jar", "jdk8", "2.0", null, null)))
+                .put("com.acme:baz:1.0(org.asd:qqq)", "jar", Collections.<Lockfile.Artifact>emptyList());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        lockfile.write(out);
+        final Lockfile read = Lockfile.read(new ByteArrayInputStream(out.toByteArray()));
+
+        final List<Lockfile.Artifact> foo = read.get("com.acme:foo:1.0", "jar");
+        assertEquals(2, foo.size());
+        assertEquals("com.acme:foo:jar:1.0", foo.get(0).getCoordinates());
+        assertEquals("abcd", foo.get(0).getSha256());
+        assertEquals("central(https://repo1.maven.org/maven2/)", foo.get(0).getRepository());
+        assertEquals("com.acme:bar:jar:jdk8:2.0", foo.get(1).getCoordinates());
+        assertNull(foo.get(1).getSha256());
+        assertNull(foo.get(1).getRepository());
+
+        assertEquals(0, read.get("com.acme:baz:1.0(org.asd:qqq)", "jar").size());
+        assertNull(read.get("com.acme:foo:1.0", "pom"));
+    }
+
+    @Test
+    public void testLocalPath() {
+        final Path repo = fs.getPath("/repo");
+        assertEquals(repo.resolve("com/acme/foo/1.0/foo-1.0.jar"),
+                new Lockfile.Artifact("com.acme", "foo", "jar", null, "1.0", null, null).getLocalPath(repo));
+        assertEquals(repo.resolve("com/acme/foo/1.0/foo-1.0-jdk8.jar"),
+                new Lockfile.Artifact("com.acme", "foo", "jar", "jdk8", "1.0", null, null).getLocalPath(repo));
+        assertEquals(repo.resolve("com/acme/foo/1.0-SNAPSHOT/foo-1.0-20161017.120000-3.jar"),
+                new Lockfile.Artifact("com.acme", "foo", "jar", null, "1.0-20161017.120000-3", null, null).getLocalPath(repo));
+    }
+
+    @Test
+    public void testLock() throws Exception {
+        final Path file = Files.createTempFile("foo-1.0", ".jar");
+        Files.write(file, "foo".getBytes(StandardCharsets.UTF_8));
+        try {
+            final Dependency dep = new Dependency(new DefaultArtifact("com.acme:foo:1.0"), JavaScopes.RUNTIME);
+            final RemoteRepository central = new RemoteRepository.Builder("central", "default", "https://repo1.maven.org/maven2/").build();
+            final ArtifactResult result = new ArtifactResult(new ArtifactRequest(dep.getArtifact(), null, null));
+            result.setArtifact(dep.getArtifact().setFile(file.toFile()));
+            result.setRepository(central);
+
+            final Lockfile lockfile = Dependencies.lock(new Lockfile(), dep, Arrays.asList(result));
+            final Lockfile.Artifact a = lockfile.get("com.acme:foo:1.0", "jar").get(0);
+            assertEquals("central(https://repo1.maven.org/maven2/)", a.getRepository());
+            assertEquals("2c26b46b68ffc68ff99b453c1d30413413422d706483bfa0f98a5e886266e7ae", a.getSha256()); // sha256("foo")
+            assertTrue(a.matches(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
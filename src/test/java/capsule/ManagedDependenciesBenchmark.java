@@ -0,0 +1,156 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
+import org.eclipse.aether.util.graph.manager.ClassicDependencyManager;
+
+/**
+ * A small standalone program measuring the cost of a large set of managed dependencies (e.g. a platform BOM).
+ * <p>
+ * Compares (warm) dependency collection with Aether's {@code ClassicDependencyManager} and with the {@link ManagedDependencies} index,
+ * and the reading of POMs whose parent manages all of those dependencies, where each child either shares its parent's management
+ * or copies it (as all POMs did before, and as those that manage dependencies of their own still do).
+ * Usage: {@code ManagedDependenciesBenchmark [managed [width [depth [iterations]]]]}
+ */
+public class ManagedDependenciesBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int managed = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int width = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        final int depth = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        final int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        final List<String> bom = new ArrayList<>();
+        for (int i = 0; i < managed; i++) // the graph's artifacts are managed to the versions they have anyway
+            bom.add(i < width * depth ? SyntheticRepository.layeredGav(i / width, i % width, 0).replace(":1.0", ":jar::1.0") : "com.acme.platform:lib" + i + ":jar::1." + i);
+
+        System.out.println("Managed: " + managed + " Artifacts: " + (width * depth + 1) + " Iterations: " + iterations);
+        collect(bom, width, depth, iterations);
+        poms(managed, iterations);
+    }
+
+    private static void collect(List<String> bom, int width, int depth, int iterations) throws Exception {
+        final Path local = Files.createTempDirectory("capsule-local");
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            remote.layeredGraph(width, depth, 3);
+            final List<String> roots = new ArrayList<>();
+            for (int i = 0; i < width; i++)
+                roots.add(SyntheticRepository.layeredGav(0, i, 0));
+            remote.serve(0);
+
+            for (int round = 0; round < 3; round++) {
+                for (final boolean classic : new boolean[]{true, false}) {
+                    final DependencyManager dm = new DependencyManager(local, false, DependencyManager.LOG_NONE) {
+                        @Override
+                        protected org.eclipse.aether.collection.DependencyManager newDependencyManager() {
+                            return classic ? new ClassicDependencyManager() : super.newDependencyManager();
+                        }
+                    };
+                    dm.setRepositories(Collections.singletonList("remote(" + remote.getUrl() + ")"), false);
+                    dm.setManagedDependencies(bom);
+                    dm.printDependencyTree(roots, "jar", nullStream()); // warm up the local repository
+
+                    final long start = System.nanoTime();
+                    for (int i = 0; i < iterations; i++)
+                        dm.printDependencyTree(roots, "jar", nullStream());
+                    System.out.println("Collect (" + (classic ? "classic" : "indexed") + "):\t" + (System.nanoTime() - start) / 1_000_000 / iterations + "ms");
+                }
+            }
+        } finally {
+            SyntheticRepository.delete(local);
+        }
+    }
+
+    private static void poms(int managed, int iterations) throws Exception {
+        final Path dir = Files.createTempDirectory("capsule-poms");
+        try {
+            final Model parent = PomTest.model("com.acme", "platform", "1", null);
+            parent.setDependencyManagement(new DependencyManagement());
+            for (int i = 0; i < managed; i++)
+                parent.getDependencyManagement().addDependency(PomTest.dep("com.acme.platform", "lib" + i, "1." + i));
+            PomTest.write(parent, dir.resolve("platform.pom"));
+            final Pom.ParentCache parents = new Pom.ParentCache();
+            final MavenCapsule capsule = new MavenCapsule() {
+                @Override
+                public Path resolveArtifact(String coords, String type) {
+                    return dir.resolve("platform.pom");
+                }
+
+                @Override
+                public BomCache getBomCache() {
+                    return null;
+                }
+
+
+                @Override
+
+                public Pom.ParentCache getParentCache() {
+
+                    return parents;
+
+                }
+
+                @Override
+                public boolean isLogging1(int level) {
+                    return false;
+                }
+
+                @Override
+                public void log1(int level, String str) {
+                }
+
+                @Override
+                public void log1(int level, Throwable t) {
+                }
+            };
+
+            final int children = 200;
+            for (int round = 0; round < 3; round++) {
+                for (boolean own : new boolean[]{true, false}) {
+                    final List<Pom> poms = new ArrayList<>();
+                    for (int i = 0; i < children; i++) {
+                        final Model child = PomTest.model("com.acme", "child" + i, "1.0", "com.acme:platform:1");
+                        child.addDependency(PomTest.dep("com.acme.platform", "lib" + i, null));
+                        if (own) {
+                            child.setDependencyManagement(new DependencyManagement());
+                            child.getDependencyManagement().addDependency(PomTest.dep("com.acme", "own" + i, "1.0"));
+                        }
+                        poms.add(PomTest.pom(child, capsule));
+                    }
+
+                    parents.clear();
+                    final long start = System.nanoTime();
+                    for (Pom p : poms) {
+                        if (p.getDependencies("jar").size() != 1)
+                            throw new AssertionError();
+                    }
+                    System.out.println("POMs (" + (own ? "copied" : "shared") + "):\t" + (System.nanoTime() - start) / 1000 / children + "us per POM");
+                }
+            }
+        } finally {
+            SyntheticRepository.delete(dir);
+        }
+    }
+
+    private static PrintStream nullStream() {
+        return new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        });
+    }
+}
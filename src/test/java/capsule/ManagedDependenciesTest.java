@@ -0,0 +1,109 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.ArtifactProperties;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.DependencyCollectionContext;
+import org.eclipse.aether.collection.DependencyManagement;
+import org.eclipse.aether.collection.DependencyManager;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.util.artifact.JavaScopes;
+import org.eclipse.aether.util.graph.manager.ClassicDependencyManager;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ManagedDependenciesTest {
+    @Test
+    public void testLikeClassicDependencyManager() {
+        final List<Dependency> managed = Arrays.asList(
+                dep("com.acme:foo:jar:2.0", "", null),
+                dep("com.acme:foo:jar:3.0", JavaScopes.PROVIDED, true), // version ignored, scope and optionality used
+                dep("com.acme:bar:jar:jdk8:1.5", JavaScopes.RUNTIME, null, new Exclusion("org.asd", "qqq", "*", "*")),
+                new Dependency(new DefaultArtifact("com.acme", "bar", "jdk8", "jar", ""), "", null, Arrays.asList(new Exclusion("com.gogo", "bad", "*", "*"))),
+                dep("com.acme:baz:jar:1.0", JavaScopes.SYSTEM, null).setArtifact(new DefaultArtifact("com.acme:baz:jar:1.0")
+                        .setProperties(Collections.singletonMap(ArtifactProperties.LOCAL_PATH, "/opt/baz.jar"))));
+        final List<Dependency> deps = Arrays.asList(
+                dep("com.acme:foo:jar:1.0", JavaScopes.COMPILE, null),
+                dep("com.acme:foo:pom:1.0", JavaScopes.COMPILE, null),
+                dep("com.acme:bar:jar:1.0", JavaScopes.COMPILE, null),
+                dep("com.acme:bar:jar:jdk8:1.0", JavaScopes.COMPILE, null, new Exclusion("com.wha", "*", "*", "*")),
+                dep("com.acme:baz:jar:0.9", JavaScopes.COMPILE, null),
+                dep("com.acme:qux:jar:1.0", JavaScopes.COMPILE, false));
+
+        DependencyManager classic = new ClassicDependencyManager();
+        DependencyManager indexed = new ManagedDependencies.Manager();
+        for (int depth = 0; depth < 4; depth++) {
+            for (Dependency d : deps)
+                assertManagement(d.toString() + " at " + depth, classic.manageDependency(d), indexed.manageDependency(d));
+            classic = classic.deriveChildManager(context(managed));
+            indexed = indexed.deriveChildManager(context(depth == 0 ? managed : Collections.<Dependency>emptyList()));
+        }
+    }
+
+    @Test
+    public void testSharedIndex() {
+        final List<Dependency> managed = Arrays.asList(dep("com.acme:foo:jar:2.0", "", null));
+        final DependencyManager m1 = new ManagedDependencies.Manager().deriveChildManager(context(managed));
+        final DependencyManager m2 = new ManagedDependencies.Manager().deriveChildManager(context(managed));
+        assertEquals(m1, m2);
+        assertEquals(m1.hashCode(), m2.hashCode());
+        assertEquals(m1.deriveChildManager(context(managed)), m2.deriveChildManager(context(managed)));
+        assertNotEquals(m1, m1.deriveChildManager(context(managed)));
+        assertSame(ManagedDependencies.of(managed), ManagedDependencies.of(managed));
+        assertEquals("2.0", ManagedDependencies.of(managed).getVersion(new DefaultArtifact("com.acme:foo:jar:1.0")));
+    }
+
+    private static void assertManagement(String message, DependencyManagement expected, DependencyManagement actual) {
+        if (expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertNotNull(message, actual);
+        assertEquals(message, expected.getVersion(), actual.getVersion());
+        assertEquals(message, expected.getScope(), actual.getScope());
+        assertEquals(message, expected.getOptional(), actual.getOptional());
+        assertEquals(message, expected.getExclusions(), actual.getExclusions());
+        assertEquals(message, expected.getProperties(), actual.getProperties());
+    }
+
+    private static Dependency dep(String coords, String scope, Boolean optional, Exclusion... exclusions) {
+        return new Dependency(new DefaultArtifact(coords), scope, optional, Arrays.asList(exclusions));
+    }
+
+    private static DependencyCollectionContext context(final List<Dependency> managed) {
+        return new DependencyCollectionContext() {
+            @Override
+            public RepositorySystemSession getSession() {
+                return null;
+            }
+
+            @Override
+            public Artifact getArtifact() {
+                return null;
+            }
+
+            @Override
+            public Dependency getDependency() {
+                return null;
+            }
+
+            @Override
+            public List<Dependency> getManagedDependencies() {
+                return managed;
+            }
+        };
+    }
+}
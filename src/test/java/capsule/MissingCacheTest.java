@@ -0,0 +1,101 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MissingCacheTest {
+    private static final String CENTRAL = "https://repo1.maven.org/maven2/";
+    private static final String INTERNAL = "https://nexus.acme.com/repository/internal/";
+    private static final String POM = "com/acme/foo/1.0/foo-1.0.pom";
+
+    private final FileSystem fs = Jimfs.newFileSystem();
+    private final Path dir = fs.getPath("/repo/.capsule/missing");
+
+    @Test
+    public void testPersistence() throws Exception {
+        final MissingCache cache = new MissingCache(dir, -1);
+        assertFalse(cache.isMissing(INTERNAL, POM));
+        cache.putMissing(INTERNAL, POM);
+        assertTrue(cache.isMissing(INTERNAL, POM));
+        assertFalse(cache.isMissing(CENTRAL, POM));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        final MissingCache other = new MissingCache(dir, -1); // e.g. a later launch
+        assertTrue(other.isMissing(INTERNAL, POM));
+        assertFalse(other.isMissing(INTERNAL, "com/acme/bar/1.0/bar-1.0.pom"));
+
+        other.putFound(INTERNAL, POM);
+        assertFalse(other.isMissing(INTERNAL, POM));
+        assertFalse(new MissingCache(dir, -1).isMissing(INTERNAL, POM));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        new MissingCache(dir, -1).putMissing(INTERNAL, POM);
+        Thread.sleep(20);
+        assertTrue(new MissingCache(dir, 60_000).isMissing(INTERNAL, POM));
+        assertFalse(new MissingCache(dir, 10).isMissing(INTERNAL, POM));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        final MissingCache cache = new MissingCache(dir, -1);
+        cache.putMissing(INTERNAL, POM);
+        cache.putMissing(CENTRAL, POM);
+        new MissingCache(dir, -1).clear();
+        assertFalse(new MissingCache(dir, -1).isMissing(INTERNAL, POM));
+        assertFalse(new MissingCache(dir, -1).isMissing(CENTRAL, POM));
+        new MissingCache(fs.getPath("/nonexistent"), -1).clear();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        final MissingCache cache = new MissingCache(dir, -1);
+        for (int i = 0; i < 50; i++) {
+            cache.putMissing(INTERNAL, POM);
+            cache.putFound(INTERNAL, POM);
+        }
+        cache.putMissing(INTERNAL, POM);
+        final Path file = dir.resolve(ResolutionCache.key(Collections.singleton(INTERNAL)));
+        final long size = Files.size(file);
+
+        assertTrue(new MissingCache(dir, -1).isMissing(INTERNAL, POM));
+        assertTrue(Files.size(file) < size);
+        assertTrue(new MissingCache(dir, -1).isMissing(INTERNAL, POM));
+    }
+
+    @Test
+    public void whenLockHeldInThisJvmThenIOException() throws Exception {
+        final Path tmp = Files.createTempDirectory("missing");
+        final Path file = tmp.resolve(ResolutionCache.key(Collections.singleton(INTERNAL)));
+        try (FileChannel lock = FileChannel.open(file.resolveSibling(file.getFileName() + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            lock.lock();
+            final MissingCache cache = new MissingCache(tmp, -1);
+            try {
+                cache.putMissing(INTERNAL, POM);
+                fail();
+            } catch (IOException e) {
+            }
+            assertTrue(cache.isMissing(INTERNAL, POM)); // still recorded for this launch
+        } finally {
+            SyntheticRepository.delete(tmp);
+        }
+    }
+}
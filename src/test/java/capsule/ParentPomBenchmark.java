@@ -0,0 +1,129 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.model.Model;
+
+/**
+ * A small standalone program measuring the time to read the POMs of a capsule's embedded dependencies, which all share a chain of parent POMs.
+ * <p>
+ * Compares the shared parent cache, filled by direct single-artifact fetches, with the previous behavior, where each POM resolved (transitively)
+ * and read its parents on its own. Parents are fetched from a local HTTP repository with simulated latency into a fresh local repository.
+ * Usage: {@code ParentPomBenchmark [poms [depth [latency-millis]]]}
+ */
+public class ParentPomBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int poms = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final int depth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        final int latency = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        final Path dir = Files.createTempDirectory("capsule-poms");
+        try (SyntheticRepository remote = SyntheticRepository.temp()) {
+            for (int i = 0; i < 5; i++)
+                remote.artifact("com.acme.common:lib" + i + ":1.0");
+            for (int level = 0; level < depth; level++) {
+                final StringBuilder extra = new StringBuilder("<packaging>pom</packaging>");
+                if (level > 0)
+                    extra.append("<parent><groupId>com.acme</groupId><artifactId>parent").append(level - 1).append("</artifactId><version>1</version></parent>");
+                extra.append("<properties>");
+                for (int j = 0; j < 100; j++)
+                    extra.append("<p").append(level).append('.').append(j).append(">").append(j).append("</p").append(level).append('.').append(j).append(">");
+                extra.append("</properties>");
+                final List<String> deps = new ArrayList<>();
+                if (level == 0) {
+                    for (int i = 0; i < 5; i++)
+                        deps.add("com.acme.common:lib" + i + ":1.0");
+                }
+                remote.artifact("com.acme:parent" + level + ":1", deps, extra.toString());
+            }
+            remote.serve(latency);
+
+            final List<Path> files = new ArrayList<>();
+            for (int i = 0; i < poms; i++) {
+                final Model m = PomTest.model("com.acme.lib", "lib" + i, "1.0", "com.acme:parent" + (depth - 1) + ":1");
+                m.addDependency(PomTest.dep("com.acme.common", "lib" + (i % 5), "${p0." + i % 100 + "}.0"));
+                final Path file = dir.resolve("lib" + i + ".pom");
+                PomTest.write(m, file);
+                files.add(file);
+            }
+
+            System.out.println("POMs: " + poms + " Parent chain: " + depth + " Latency: " + latency + "ms");
+            for (int round = 0; round < 2; round++) {
+                run("Transitive, per POM", remote, files, false);
+                run("Direct, shared", remote, files, true);
+            }
+        } finally {
+            SyntheticRepository.delete(dir);
+        }
+    }
+
+    private static void run(String name, SyntheticRepository remote, List<Path> files, final boolean direct) throws Exception {
+        final Path local = Files.createTempDirectory("capsule-local");
+        try {
+            final DependencyManager dm = new DependencyManager(local, false, DependencyManager.LOG_NONE);
+            dm.setRepositories(Collections.singletonList("remote(" + remote.getUrl() + ")"), false);
+            final Pom.ParentCache parents = new Pom.ParentCache();
+            final MavenCapsule capsule = new MavenCapsule() {
+                @Override
+                public Path resolveArtifact(String coords, String type) {
+                    return direct ? dm.resolveArtifact(coords, type) : dm.resolveDependency(coords, type).get(0);
+                }
+
+                @Override
+                public BomCache getBomCache() {
+                    return null;
+                }
+
+
+                @Override
+
+                public Pom.ParentCache getParentCache() {
+
+                    return parents;
+
+                }
+
+                @Override
+                public boolean isLogging1(int level) {
+                    return false;
+                }
+
+                @Override
+                public void log1(int level, String str) {
+                }
+
+                @Override
+                public void log1(int level, Throwable t) {
+                }
+            };
+
+            parents.clear();
+            remote.resetRequestCount();
+            final long start = System.nanoTime();
+            for (Path file : files) {
+                if (!direct)
+                    parents.clear();
+                try (InputStream is = Files.newInputStream(file)) {
+                    if (new Pom(is, null, capsule).getDependencies("jar").size() != 1)
+                        throw new AssertionError(file);
+                }
+            }
+            final long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println(name + ":\tRequests: " + remote.getRequestCount() + "\tTime: " + millis + "ms");
+        } finally {
+            SyntheticRepository.delete(local);
+        }
+    }
+}
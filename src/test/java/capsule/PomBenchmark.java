@@ -0,0 +1,76 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+
+/**
+ * A small standalone program comparing the property interpolation of {@link Pom} with the previous approach of one
+ * {@code String.replace} per property, on a POM with many properties and dependencies.
+ * <p>
+ * Each run reads the POM afresh, so property values are interpolated (and memoized) anew.
+ * Usage: {@code PomBenchmark [properties [dependencies [iterations]]]}
+ */
+public class PomBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int properties = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        final int dependencies = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        final Model model = new Model();
+        model.setGroupId("com.acme");
+        model.setArtifactId("app");
+        model.setVersion("1.0");
+        for (int i = 0; i < properties; i++)
+            model.addProperty("lib" + i + ".version", i % 10 == 0 ? "${project.version}" : "1." + i);
+        for (int i = 0; i < dependencies; i++)
+            model.addDependency(PomTest.dep("${project.groupId}", "lib" + i, "${lib" + (i * properties / dependencies) + ".version}"));
+
+        System.out.println("Properties: " + properties + " Dependencies: " + dependencies + " Iterations: " + iterations);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                check(PomTest.pom(model).getDependencies("jar"), dependencies);
+            final long singlePass = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                check(replaceAll(PomTest.pom(model), model), dependencies);
+            final long replace = System.nanoTime() - start;
+
+            System.out.println("Single pass: " + singlePass / 1000 / iterations + "us\tString.replace: " + replace / 1000 / iterations + "us");
+        }
+    }
+
+    /**
+     * The previous implementation of {@code Pom.resolve}, applied to the dependencies' coordinates.
+     */
+    private static List<String> replaceAll(Pom pom, Model model) {
+        final List<String> deps = new ArrayList<>();
+        final Map<String, String> ps = pom.getProperties();
+        for (Dependency d : model.getDependencies()) {
+            String ret = d.getGroupId() + ":" + d.getArtifactId() + ":" + d.getVersion();
+            ret = ret.replace("${project.groupId}", pom.getGroupId()).replace("${pom.groupId}", pom.getGroupId());
+            ret = ret.replace("${project.version}", pom.getVersion()).replace("${pom.version}", pom.getVersion()).replace("${version}", pom.getVersion());
+            for (String pName : ps.keySet())
+                ret = ret.replace("${" + pName + "}", ps.get(pName));
+            deps.add(ret);
+        }
+        return deps;
+    }
+
+    private static void check(List<String> deps, int n) {
+        if (deps.size() != n)
+            throw new AssertionError(deps.size());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import com.google.common.jimfs.Jimfs;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PomCacheTest {
+    private final FileSystem fs = Jimfs.newFileSystem();
+    private final Path file = fs.getPath("/repo/.capsule/poms/index");
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Path capsule = write("/capsule.jar", "capsule");
+        final Path foo = write("/cache/foo.jar", "foo");
+        final Path bar = write("/cache/bar.jar", "bar");
+
+        PomCache cache = new PomCache(file, PomCache.stamp(capsule));
+        assertNull(cache.get(PomCache.key(foo, "jar")));
+        cache.put(PomCache.key(foo, "jar"), Arrays.asList("com.acme:baz:1.0", "com.acme:qux:2.0(org.asd:qqq)"));
+        cache.put(PomCache.key(bar, "jar"), Collections.<String>emptyList());
+        cache.save();
+
+        cache = new PomCache(file, PomCache.stamp(capsule));
+        assertEquals(Arrays.asList("com.acme:baz:1.0", "com.acme:qux:2.0(org.asd:qqq)"), cache.get(PomCache.key(foo, "jar")));
+        assertEquals(Collections.emptyList(), cache.get(PomCache.key(bar, "jar")));
+        assertNull(cache.get(PomCache.key(foo, "so")));
+
+        // a changed JAR misses
+        Files.setLastModifiedTime(foo, FileTime.fromMillis(Files.getLastModifiedTime(foo).toMillis() + 1000));
+        assertNull(cache.get(PomCache.key(foo, "jar")));
+    }
+
+    @Test
+    public void whenCapsuleChangedThenIndexDiscarded() throws Exception {
+        final Path capsule = write("/capsule.jar", "capsule");
+        final Path foo = write("/cache/foo.jar", "foo");
+
+        final PomCache cache = new PomCache(file, PomCache.stamp(capsule));
+        cache.put(PomCache.key(foo, "jar"), Arrays.asList("com.acme:baz:1.0"));
+        cache.save();
+
+        write("/capsule.jar", "capsule, rebuilt");
+        assertNull(new PomCache(file, PomCache.stamp(capsule)).get(PomCache.key(foo, "jar")));
+    }
+
+    @Test
+    public void whenNotModifiedThenNotWritten() throws Exception {
+        final Path capsule = write("/capsule.jar", "capsule");
+        final Path foo = write("/cache/foo.jar", "foo");
+
+        PomCache cache = new PomCache(file, PomCache.stamp(capsule));
+        cache.save();
+        assertFalse(Files.exists(file));
+
+        cache.put(PomCache.key(foo, "jar"), Arrays.asList("com.acme:baz:1.0"));
+        cache.save();
+        Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+
+        cache = new PomCache(file, PomCache.stamp(capsule));
+        cache.put(PomCache.key(foo, "jar"), Arrays.asList("com.acme:baz:1.0"));
+        cache.save();
+        assertEquals(0, Files.getLastModifiedTime(file).toMillis());
+    }
+
+    private Path write(String path, String content) throws Exception {
+        final Path p = fs.getPath(path);
+        Files.createDirectories(p.getParent());
+        return Files.write(p, content.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+
+/**
+ * A small standalone program comparing the parse time, and the bytes allocated, per POM, of {@link PomReader} and {@link MavenXpp3Reader}.
+ * <p>
+ * The POM has the given number of dependencies and properties, and a build section with as many plugins, which {@code PomReader} skips.
+ * Allocation is measured with HotSpot's {@code com.sun.management.ThreadMXBean}.
+ * Usage: {@code PomReaderBenchmark [dependencies [iterations]]}
+ */
+public class PomReaderBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int dependencies = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        final byte[] pom = pom(dependencies);
+
+        System.out.println("POM: " + pom.length + " bytes, " + dependencies + " dependencies. Iterations: " + iterations);
+        for (int round = 0; round < 3; round++) {
+            measure("PomReader", iterations, new Parser() {
+                @Override
+                public Object parse() throws Exception {
+                    return PomReader.read(new ByteArrayInputStream(pom));
+                }
+            });
+            measure("MavenXpp3Reader", iterations, new Parser() {
+                @Override
+                public Object parse() throws Exception {
+                    return new MavenXpp3Reader().read(new ByteArrayInputStream(pom));
+                }
+            });
+        }
+    }
+
+    private interface Parser {
+        Object parse() throws Exception;
+    }
+
+    private static void measure(String name, int iterations, Parser parser) throws Exception {
+        final long allocated0 = allocatedBytes();
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (parser.parse() == null)
+                throw new AssertionError();
+        }
+        final long micros = (System.nanoTime() - start) / 1000;
+        final long allocated = allocatedBytes() - allocated0;
+        System.out.println(name + ":\t" + micros / iterations + "us\t" + (allocated0 >= 0 ? allocated / iterations + " bytes" : "") + " per POM");
+    }
+
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    private static byte[] pom(int n) {
+        final StringBuilder sb = new StringBuilder()
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n")
+                .append("  <modelVersion>4.0.0</modelVersion>\n")
+                .append("  <parent><groupId>com.acme</groupId><artifactId>parent</artifactId><version>1.0</version></parent>\n")
+                .append("  <artifactId>app</artifactId>\n")
+                .append("  <name>App</name>\n  <description>A synthetic POM for benchmarking.</description>\n")
+                .append("  <licenses><license><name>EPL</name><url>http://www.eclipse.org/legal/epl-v10.html</url></license></licenses>\n")
+                .append("  <properties>\n");
+        for (int i = 0; i < n; i++)
+            sb.append("    <lib").append(i).append(".version>1.").append(i).append("</lib").append(i).append(".version>\n");
+        sb.append("  </properties>\n  <dependencies>\n");
+        for (int i = 0; i < n; i++) {
+            sb.append("    <dependency>\n      <groupId>com.acme.lib").append(i).append("</groupId>\n")
+                    .append("      <artifactId>lib").append(i).append("</artifactId>\n")
+                    .append("      <version>${lib").append(i).append(".version}</version>\n");
+            if (i % 5 == 0)
+                sb.append("      <exclusions><exclusion><groupId>org.asd</groupId><artifactId>qqq</artifactId></exclusion></exclusions>\n");
+            sb.append("    </dependency>\n");
+        }
+        sb.append("  </dependencies>\n  <build>\n    <plugins>\n");
+        for (int i = 0; i < n; i++) {
+            sb.append("      <plugin>\n        <groupId>org.apache.maven.plugins</groupId>\n        <artifactId>maven-plugin").append(i).append("</artifactId>\n")
+                    .append("        <configuration><source>1.7</source><target>1.7</target><argLine>-Xmx1g</argLine></configuration>\n")
+                    .append("        <executions><execution><id>default</id><phase>package</phase><goals><goal>run</goal></goals></execution></executions>\n")
+                    .append("      </plugin>\n");
+        }
+        sb.append("    </plugins>\n  </build>\n</project>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PomTest {
+    @Test
+    public void testInterpolation() throws Exception {
+        final Model model = new Model();
+        model.setGroupId("com.acme");
+        model.setArtifactId("app");
+        model.setVersion("1.0");
+        model.addProperty("foo.version", "${base.version}.3");
+        model.addProperty("base.version", "${major}.2");
+        model.addProperty("major", "1");
+        model.addProperty("self", "x${self}");
+        model.addProperty("a", "${b}");
+        model.addProperty("b", "${a}");
+        model.addProperty("sibling", "${project.version}");
+        final Pom pom = pom(model);
+
+        assertEquals("com.acme:foo:1.2.3", pom.resolve("${project.groupId}:foo:${foo.version}"));
+        assertEquals("1.0-1.0-1.0", pom.resolve("${version}-${pom.version}-${sibling}"));
+        assertEquals("${missing}:1:${unterminated", pom.resolve("${missing}:${major}:${unterminated"));
+        assertEquals("xx${self}", pom.resolve("x${self}"));
+        assertEquals("${b}", pom.resolve("${b}"));
+        assertNull(pom.resolve(null));
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        final Model model = new Model();
+        model.setGroupId("com.acme");
+        model.setArtifactId("app");
+        model.setVersion("1.0");
+        model.addProperty("bar.version", "2.${minor}");
+        model.addProperty("minor", "5");
+        model.addDependency(dep("${project.groupId}", "foo", "${project.version}"));
+        model.addDependency(dep("com.acme", "bar", "${bar.version}"));
+        assertEquals(Arrays.asList("com.acme:foo:1.0", "com.acme:bar:2.5"), pom(model).getDependencies("jar"));
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">"
+                + "<modelVersion>4.0.0</modelVersion>"
+                + "<parent><groupId>com.acme</groupId><artifactId>parent</artifactId><version>3</version></parent>"
+                + "<artifactId>app</artifactId>"
+                + "<description><![CDATA[An <app>]]></description>"
+                + "<properties><foo.version> 1.2 </foo.version></properties>"
+                + "<repositories><repository><id>acme</id><name>Acme</name><url>https://repo.acme.com/</url></repository></repositories>"
+                + "<dependencyManagement><dependencies>"
+                + "<dependency><groupId>com.acme</groupId><artifactId>bar</artifactId><version>2.0</version></dependency>"
+                + "</dependencies></dependencyManagement>"
+                + "<dependencies>"
+                + "<dependency><groupId>com.acme</groupId><artifactId>foo</artifactId><version>${foo.version}</version><classifier>jdk8</classifier>"
+                + "<exclusions><exclusion><groupId>org.asd</groupId><artifactId>qqq</artifactId></exclusion></exclusions></dependency>"
+                + "<dependency><groupId>com.acme</groupId><artifactId>bar</artifactId></dependency>"
+                + "<dependency><groupId>com.acme</groupId><artifactId>baz</artifactId><version>1.0</version><optional>true</optional></dependency>"
+                + "<dependency><groupId>junit</groupId><artifactId>junit</artifactId><version>4.12</version><scope>test</scope></dependency>"
+                + "</dependencies>"
+                + "<build><plugins><plugin><artifactId>maven-foo-plugin</artifactId>"
+                + "<dependencies><dependency><groupId>com.acme</groupId><artifactId>plugin-dep</artifactId><version>1.0</version></dependency></dependencies>"
+                + "</plugin></plugins></build>"
+                + "</project>";
+        final byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        final PomReader.Project parsed = PomReader.parse(bytes, bytes.length);
+        assertEquals("parent", parsed.parent.artifactId);
+        assertEquals(1, parsed.managedDependencies.size());
+        assertEquals(4, parsed.dependencies.size());
+
+        for (String s : new String[]{xml, xml.replace("An <app>", "An&nbsp;app")}) {
+            final Pom pom = new Pom(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)), null, null);
+            assertEquals("com.acme", pom.getGroupId());
+            assertEquals("3", pom.getVersion());
+            assertEquals(Arrays.asList("acme(https://repo.acme.com/)"), pom.getRepositories());
+            assertEquals(Arrays.asList("com.acme:foo:1.2:jdk8(org.asd:qqq)", "com.acme:bar:2.0"), pom.getDependencies("jar"));
+            assertEquals(Arrays.asList("com.acme:bar:jar::2.0"), pom.getManagedDependencies());
+        }
+    }
+
+    @Test
+    public void testSharedParents() throws Exception {
+        final Path dir = Files.createTempDirectory("capsule-poms");
+        try {
+            final Model grandparent = model("com.acme", "grandparent", "1", null);
+            grandparent.addProperty("bar.version", "2.${minor}");
+            grandparent.addProperty("minor", "0");
+            grandparent.setDependencyManagement(new DependencyManagement());
+            grandparent.getDependencyManagement().addDependency(dep("com.acme", "bar", "${bar.version}"));
+            final Model parent = model("com.acme", "parent", "1", "com.acme:grandparent:1");
+            parent.addProperty("minor", "5");
+            write(grandparent, dir.resolve("grandparent.pom"));
+            write(parent, dir.resolve("parent.pom"));
+
+            final List<String> resolved = new ArrayList<>();
+            final Pom.ParentCache parents = new Pom.ParentCache();
+            final MavenCapsule capsule = new MavenCapsule() {
+                @Override
+                public Path resolveArtifact(String coords, String type) {
+                    resolved.add(coords);
+                    return dir.resolve(new Coordinates(coords, type).getArtifactId() + "." + type);
+                }
+
+                @Override
+                public BomCache getBomCache() {
+                    return null;
+                }
+
+
+                @Override
+
+                public Pom.ParentCache getParentCache() {
+
+                    return parents;
+
+                }
+
+                @Override
+                public boolean isLogging1(int level) {
+                    return false;
+                }
+
+                @Override
+                public void log1(int level, String str) {
+                }
+
+                @Override
+                public void log1(int level, Throwable t) {
+                }
+            };
+
+            for (String artifactId : new String[]{"foo", "baz"}) {
+                final Model child = model("com.acme", artifactId, "1.0", "com.acme:parent:1");
+                child.addDependency(dep("com.acme", "bar", null));
+                assertEquals(Arrays.asList("com.acme:bar:2.5"), pom(child, capsule).getDependencies("jar"));
+            }
+            assertEquals(Arrays.asList("com.acme:parent:1", "com.acme:grandparent:1"), resolved);
+
+            // a child's own management doesn't leak into the (shared) management of its parents
+            final Model qux = model("com.acme", "qux", "1.0", "com.acme:parent:1");
+            qux.setDependencyManagement(new DependencyManagement());
+            qux.getDependencyManagement().addDependency(dep("com.acme", "bar", "3.0"));
+            qux.addDependency(dep("com.acme", "bar", null));
+            assertEquals(Arrays.asList("com.acme:bar:3.0"), pom(qux, capsule).getDependencies("jar"));
+            final Model foo = model("com.acme", "foo", "1.0", "com.acme:parent:1");
+            foo.addDependency(dep("com.acme", "bar", null));
+            assertEquals(Arrays.asList("com.acme:bar:2.5"), pom(foo, capsule).getDependencies("jar"));
+        } finally {
+            SyntheticRepository.delete(dir);
+        }
+    }
+
+    @Test
+    public void testImportedBoms() throws Exception {
+        final Path dir = Files.createTempDirectory("capsule-poms");
+        try {
+            final Model platform = model("com.acme", "platform", "2", null);
+            platform.setDependencyManagement(new DependencyManagement());
+            platform.getDependencyManagement().addDependency(dep("com.acme", "baz", "0.9")); // the importing BOM's own management wins
+            platform.getDependencyManagement().addDependency(dep("com.acme", "quux", "0.9"));
+            final Model bom = model("com.acme", "bom", "1", null);
+            bom.addProperty("acme.version", "1.${minor}");
+            bom.addProperty("minor", "4");
+            bom.setDependencyManagement(new DependencyManagement());
+            bom.getDependencyManagement().addDependency(dep("com.acme", "bar", "${acme.version}"));
+            bom.getDependencyManagement().addDependency(dep("com.acme", "baz", "${acme.version}"));
+            bom.getDependencyManagement().addDependency(dep("com.acme", "qux", "${acme.version}"));
+            bom.getDependencyManagement().addDependency(bomDep("com.acme", "platform", "${platform.version}"));
+            bom.addProperty("platform.version", "2");
+            write(platform, dir.resolve("platform.pom"));
+            write(bom, dir.resolve("bom.pom"));
+
+            final List<String> resolved = new ArrayList<>();
+            final BomCache cache = new BomCache(dir.resolve("cache"), false);
+            final Pom.ParentCache parents = new Pom.ParentCache();
+            final MavenCapsule capsule = new MavenCapsule() {
+                @Override
+                public Path resolveArtifact(String coords, String type) {
+                    resolved.add(coords);
+                    return dir.resolve(new Coordinates(coords, type).getArtifactId() + "." + type);
+                }
+
+                @Override
+                public BomCache getBomCache() {
+                    return cache;
+                }
+
+
+                @Override
+
+                public Pom.ParentCache getParentCache() {
+
+                    return parents;
+
+                }
+
+                @Override
+                public boolean isLogging1(int level) {
+                    return false;
+                }
+
+                @Override
+                public void log1(int level, String str) {
+                }
+
+                @Override
+                public void log1(int level, Throwable t) {
+                }
+            };
+
+            final Model app = model("com.acme", "app", "1.0", null);
+            app.addProperty("minor", "9"); // not used by the BOM's versions
+            app.setDependencyManagement(new DependencyManagement());
+            app.getDependencyManagement().addDependency(bomDep("com.acme", "bom", "1"));
+            app.getDependencyManagement().addDependency(dep("com.acme", "qux", "3.0")); // own management wins
+            for (String artifactId : new String[]{"bar", "baz", "qux", "quux"})
+                app.addDependency(dep("com.acme", artifactId, null));
+            final List<String> expected = Arrays.asList("com.acme:bar:1.4", "com.acme:baz:1.4", "com.acme:qux:3.0", "com.acme:quux:0.9");
+
+            assertEquals(expected, pom(app, capsule).getDependencies("jar"));
+            assertEquals(Arrays.asList("com.acme:bom:1", "com.acme:platform:2"), resolved);
+            assertTrue(pom(app, capsule).getManagedDependencies().contains("com.acme:bar:jar::1.4"));
+
+            // a later launch reads the BOM's management from the cache
+            parents.clear();
+            resolved.clear();
+            Files.delete(dir.resolve("bom.pom"));
+            assertEquals(expected, pom(app, capsule).getDependencies("jar"));
+            assertEquals(Collections.emptyList(), resolved);
+            assertEquals(4, cache.get("com.acme:bom:1").size());
+        } finally {
+            SyntheticRepository.delete(dir);
+        }
+    }
+
+    static Pom pom(Model model) throws Exception {
+        return pom(model, null);
+    }
+
+    static Pom pom(Model model, MavenCapsule capsule) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MavenXpp3Writer().write(out, model);
+        return new Pom(new ByteArrayInputStream(out.toByteArray()), null, capsule);
+    }
+
+    static Model model(String groupId, String artifactId, String version, String parent) {
+        final Model model = new Model();
+        model.setModelVersion("4.0.0");
+        model.setGroupId(groupId);
+        model.setArtifactId(artifactId);
+        model.setVersion(version);
+        if (parent != null) {
+            final String[] c = parent.split(":");
+            final Parent p = new Parent();
+            p.setGroupId(c[0]);
+            p.setArtifactId(c[1]);
+            p.setVersion(c[2]);
+            model.setParent(p);
+        }
+        return model;
+    }
+
+    static void write(Model model, Path file) throws Exception {
+        try (OutputStream os = Files.newOutputStream(file)) {
+            new MavenXpp3Writer().write(os, model);
+        }
+    }
+
+    static Dependency dep(String groupId, String artifactId, String version) {
+        final Dependency d = new Dependency();
+        d.setGroupId(groupId);
+        d.setArtifactId(artifactId);
+        d.setVersion(version);
+        return d;
+    }
+
+    static Dependency bomDep(String groupId, String artifactId, String version) {
+        final Dependency d = dep(groupId, artifactId, version);
+        d.setType("pom");
+        d.setScope("import");
+        return d;
+    }
+}
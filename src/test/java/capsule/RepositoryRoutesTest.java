@@ -0,0 +1,87 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RepositoryRoutesTest {
+    @Test
+    public void testRoute() {
+        final Map<String, String> rs = new LinkedHashMap<>();
+        rs.put("com.acme.*", "internal");
+        rs.put("com.acme.oss.*", "central, internal");
+        rs.put("com.acme.legacy", "legacy");
+        rs.put("*", "central");
+        final RepositoryRoutes routes = new RepositoryRoutes(rs);
+
+        assertEquals(Arrays.asList("internal"), routes.route("com.acme"));
+        assertEquals(Arrays.asList("internal"), routes.route("com.acme.foo.bar"));
+        assertEquals(Arrays.asList("central", "internal"), routes.route("com.acme.oss"));
+        assertEquals(Arrays.asList("central", "internal"), routes.route("com.acme.oss.util"));
+        assertEquals(Arrays.asList("legacy"), routes.route("com.acme.legacy"));
+        assertEquals(Arrays.asList("internal"), routes.route("com.acme.legacy.sub"));
+        assertEquals(Arrays.asList("central"), routes.route("com.acmecorp"));
+        assertEquals(Arrays.asList("central"), routes.route("org.slf4j"));
+    }
+
+    @Test
+    public void testNoDefaultRoute() {
+        final RepositoryRoutes routes = new RepositoryRoutes(Collections.singletonMap("com.acme.*", "internal"));
+        assertEquals(Arrays.asList("internal"), routes.route("com.acme.foo"));
+        assertNull(routes.route("org.slf4j"));
+    }
+
+    @Test
+    public void testRouteRepositories() {
+        final RemoteRepository internal = repo("internal");
+        final RemoteRepository central = repo("central");
+        final RemoteRepository mirror = new RemoteRepository.Builder("mirror", "default", "http://mirror.acme.com")
+                .setMirroredRepositories(Arrays.asList(central)).build();
+        final Map<String, String> rs = new LinkedHashMap<>();
+        rs.put("com.acme.*", "internal");
+        rs.put("org.missing.*", "missing");
+        rs.put("*", "central");
+        final RepositoryRoutes routes = new RepositoryRoutes(rs);
+
+        final List<RemoteRepository> repos = Arrays.asList(internal, mirror);
+        assertEquals(Arrays.asList(internal), routes.route("com.acme.foo", repos));
+        assertEquals(Arrays.asList(mirror), routes.route("org.slf4j", repos));
+        assertSame(repos, routes.route("org.missing", repos)); // routed to none of the repositories
+    }
+
+    @Test
+    public void testEquals() {
+        final Map<String, String> rs = new LinkedHashMap<>();
+        rs.put("com.acme.*", "internal");
+        rs.put("*", "central");
+        final Map<String, String> same = new LinkedHashMap<>();
+        same.put("*", " central");
+        same.put("com.acme.* ", "internal,");
+
+        assertEquals(new RepositoryRoutes(rs), new RepositoryRoutes(same));
+        assertEquals(new RepositoryRoutes(rs).hashCode(), new RepositoryRoutes(same).hashCode());
+        assertNotEquals(new RepositoryRoutes(rs), new RepositoryRoutes(Collections.singletonMap("*", "central")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalPattern() {
+        new RepositoryRoutes(Collections.singletonMap("com.*.foo", "internal"));
+    }
+
+    private static RemoteRepository repo(String id) {
+        return new RemoteRepository.Builder(id, "default", "http://" + id + ".acme.com").build();
+    }
+}
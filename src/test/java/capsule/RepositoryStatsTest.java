@@ -0,0 +1,118 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import com.google.common.jimfs.Jimfs;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RepositoryStatsTest {
+    private static final String FAST = "https://fast.acme.com/maven2/";
+    private static final String SLOW = "https://slow.acme.com/maven2/";
+
+    private final FileSystem fs = Jimfs.newFileSystem();
+    private final Path file = fs.getPath("/repo/.capsule/repository-stats");
+
+    @Test
+    public void testPercentiles() throws Exception {
+        final RepositoryStats stats = new RepositoryStats(file);
+        assertNull(stats.get(FAST));
+        for (int i = 0; i < 80; i++)
+            stats.record(FAST, 10, false);
+        for (int i = 0; i < 20; i++)
+            stats.record(FAST, 300, true);
+
+        final RepositoryStats.Entry e = stats.get(FAST);
+        assertEquals(100, e.getRequests());
+        assertEquals(0.8, e.successRate(), 1e-9);
+        assertEquals(16, e.percentile(0.5));  // 10ms falls in [8, 16)
+        assertEquals(512, e.percentile(0.9)); // 300ms falls in [256, 512)
+        assertEquals(-1, new RepositoryStats(file).cost(SLOW), 0); // none recorded
+        assertTrue(stats.cost(FAST) > 0);
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        final RepositoryStats stats = new RepositoryStats(file);
+        stats.save(); // nothing recorded
+        assertFalse(Files.exists(file));
+
+        for (int i = 0; i < 10; i++)
+            stats.record(SLOW, 100, i == 0);
+        stats.save();
+
+        final RepositoryStats.Entry e = new RepositoryStats(file).get(SLOW);
+        assertEquals(10, e.getRequests());
+        assertEquals(0.9, e.successRate(), 1e-9);
+        assertEquals(128, e.percentile(0.5));
+        assertEquals(stats.cost(SLOW), new RepositoryStats(file).cost(SLOW), 1e-9);
+    }
+
+    @Test
+    public void whenSavedConcurrentlyThenMerged() throws Exception {
+        final RepositoryStats first = new RepositoryStats(file);
+        final RepositoryStats second = new RepositoryStats(file); // e.g. a concurrent launch
+        assertNull(first.get(FAST));
+        assertNull(second.get(FAST));
+
+        for (int i = 0; i < 10; i++)
+            first.record(FAST, 10, false);
+        for (int i = 0; i < 5; i++)
+            second.record(FAST, 10, true);
+        first.save();
+        second.save();
+        assertEquals(15, second.get(FAST).getRequests());
+
+        first.record(SLOW, 100, false);
+        first.save(); // only the new request is added
+        final RepositoryStats.Entry e = new RepositoryStats(file).get(FAST);
+        assertEquals(15, e.getRequests());
+        assertEquals(10.0 / 15, e.successRate(), 1e-9);
+        assertEquals(1, new RepositoryStats(file).get(SLOW).getRequests());
+    }
+
+    @Test
+    public void testDecay() throws Exception {
+        final RepositoryStats stats = new RepositoryStats(file);
+        for (int i = 0; i < 1000; i++)
+            stats.record(FAST, 1000, false);
+        for (int i = 0; i < 1000; i++)
+            stats.record(FAST, 1, false);
+        assertTrue(stats.get(FAST).getRequests() <= 1024);
+        assertEquals(2, stats.get(FAST).percentile(0.5)); // recent requests dominate
+    }
+
+    @Test
+    public void testOrderMirrors() throws Exception {
+        final RepositoryStats stats = new RepositoryStats(file);
+        for (int i = 0; i < 10; i++) {
+            stats.record(SLOW, 200, false);
+            stats.record(FAST, 5, false);
+        }
+        final RemoteRepository slow = repo("central", SLOW);
+        final RemoteRepository fast = repo("central", FAST);
+        final RemoteRepository internal = repo("internal", "https://nexus.acme.com/");
+        final RemoteRepository unknown = repo("central", "https://unknown.acme.com/");
+
+        assertEquals(Arrays.asList(internal, fast, slow), DependencyManager.orderMirrors(Arrays.asList(internal, slow, fast), stats));
+        assertEquals(Arrays.asList(fast, internal, slow), DependencyManager.orderMirrors(Arrays.asList(slow, internal, fast), stats));
+        final List<RemoteRepository> partial = Arrays.asList(slow, unknown, fast);
+        assertEquals(partial, DependencyManager.orderMirrors(partial, stats)); // the cost of a member is unknown
+    }
+
+    private static RemoteRepository repo(String id, String url) {
+        return new RemoteRepository.Builder(id, "default", url).build();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import com.google.common.jimfs.Jimfs;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ResolutionCacheTest {
+    private final FileSystem fs = Jimfs.newFileSystem();
+    private final Path repo = fs.getPath("/repo");
+    private ResolutionCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new ResolutionCache(repo.resolve(".capsule").resolve("resolved"));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Map<String, List<Path>> resolved = new LinkedHashMap<>();
+        resolved.put("com.acme:foo:1.0 jar", Arrays.asList(file("foo-1.0.jar"), file("bar-2.0.jar")));
+        resolved.put("com.acme:baz:1.0(org.asd:qqq) jar", Arrays.asList(file("baz-1.0.jar")));
+
+        final String key = ResolutionCache.key(Arrays.asList("dependency com.acme:foo:1.0 jar", "repository central"));
+        assertNull(cache.get(key));
+
+        cache.put(key, resolved);
+        assertEquals(resolved, cache.get(key));
+
+        cache.remove(key);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void whenFileMissingThenStale() throws Exception {
+        final Map<String, List<Path>> resolved = new LinkedHashMap<>();
+        resolved.put("com.acme:foo:1.0 jar", Arrays.asList(file("foo-1.0.jar"), file("bar-2.0.jar")));
+
+        final String key = ResolutionCache.key(Arrays.asList("dependency com.acme:foo:1.0 jar"));
+        cache.put(key, resolved);
+
+        Files.delete(repo.resolve("bar-2.0.jar"));
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testKey() {
+        final String k1 = ResolutionCache.key(Arrays.asList("dependency com.acme:foo:1.0 jar", "allow-snapshots false"));
+        assertEquals(k1, ResolutionCache.key(Arrays.asList("dependency com.acme:foo:1.0 jar", "allow-snapshots false")));
+        assertNotEquals(k1, ResolutionCache.key(Arrays.asList("dependency com.acme:foo:1.0 jar", "allow-snapshots true")));
+        assertNotEquals(k1, ResolutionCache.key(Arrays.asList("dependency com.acme:foo:1.1 jar", "allow-snapshots false")));
+    }
+
+    private Path file(String name) throws Exception {
+        Files.createDirectories(repo);
+        final Path p = repo.resolve(name);
+        if (!Files.exists(p))
+            Files.createFile(p);
+        return p;
+    }
+}
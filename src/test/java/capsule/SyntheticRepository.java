@@ -0,0 +1,307 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * A Maven repository of generated artifacts (and their metadata), on disk, optionally served over HTTP with simulated latency.
+ * Used by tests and benchmarks as a stand-in for a remote repository.
+ */
+public final class SyntheticRepository implements AutoCloseable {
+    private final Path dir;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Map<String, List<String>> versions = new HashMap<>();
+    private HttpServer server;
+    private volatile int latency;
+    private int jarSize = 1024;
+
+    public SyntheticRepository(Path dir) {
+        this.dir = dir;
+    }
+
+    public static SyntheticRepository temp() throws IOException {
+        return new SyntheticRepository(Files.createTempDirectory("capsule-repo"));
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    public SyntheticRepository setJarSize(int jarSize) {
+        this.jarSize = jarSize;
+        return this;
+    }
+
+    /**
+     * Adds an artifact and its POM.
+     *
+     * @param gav  the artifact's {@code group:artifact:version}
+     * @param deps the artifact's dependencies, each formatted as {@code group:artifact:version}
+     */
+    public SyntheticRepository artifact(String gav, String... deps) throws IOException {
+        return artifact(gav, Arrays.asList(deps), "");
+    }
+
+    /**
+     * Adds a layered graph, {@code depth} levels deep and {@code width} artifacts wide, where each artifact depends on {@code fanout}
+     * artifacts in the next level (see {@link #layeredGraph(int, int, int, int) layeredGraph}).
+     *
+     * @return the artifacts added, from the bottom level up
+     */
+    public List<String> layeredGraph(int width, int depth, int fanout) throws IOException {
+        return layeredGraph(width, depth, fanout, 1);
+    }
+
+    /**
+     * Adds a layered graph, {@code depth} levels deep and {@code width} artifacts wide, with {@code versions} versions of each artifact
+     * (see {@link #layeredGav(int, int, int) layeredGav}). Each artifact depends on {@code fanout} artifacts in the next level, at differing versions.
+     *
+     * @return the artifacts added, from the bottom level up
+     */
+    public List<String> layeredGraph(int width, int depth, int fanout, int versions) throws IOException {
+        final List<String> gavs = new ArrayList<>();
+        for (int level = depth - 1; level >= 0; level--) {
+            for (int i = 0; i < width; i++) {
+                for (int v = 0; v < versions; v++) {
+                    final List<String> deps = new ArrayList<>();
+                    if (level < depth - 1) {
+                        for (int j = 0; j < fanout; j++)
+                            deps.add(layeredGav(level + 1, (i + j) % width, (i + j + v) % versions));
+                    }
+                    artifact(layeredGav(level, i, v), deps.toArray(new String[deps.size()]));
+                    gavs.add(layeredGav(level, i, v));
+                }
+            }
+        }
+        return gavs;
+    }
+
+    /**
+     * The {@code group:artifact:version} of the given artifact of a {@link #layeredGraph(int, int, int, int) layered graph}.
+     */
+    public static String layeredGav(int level, int i, int version) {
+        return "com.acme.l" + level + ":lib" + i + ":1." + version;
+    }
+
+    /**
+     * Adds an artifact and its POM.
+     *
+     * @param gav   the artifact's {@code group:artifact:version}
+     * @param deps  the artifact's dependencies, each formatted as {@code group:artifact:version}
+     * @param extra additional XML inserted into the POM's {@code project} element
+     */
+    public SyntheticRepository artifact(String gav, List<String> deps, String extra) throws IOException {
+        final String[] c = gav.split(":");
+        final StringBuilder pom = new StringBuilder()
+                .append("<project><modelVersion>4.0.0</modelVersion>")
+                .append("<groupId>").append(c[0]).append("</groupId>")
+                .append("<artifactId>").append(c[1]).append("</artifactId>")
+                .append("<version>").append(c[2]).append("</version>")
+                .append(extra)
+                .append("<dependencies>");
+        for (String d : deps) {
+            final String[] dc = d.split(":");
+            pom.append("<dependency><groupId>").append(dc[0]).append("</groupId>")
+                    .append("<artifactId>").append(dc[1]).append("</artifactId>")
+                    .append("<version>").append(dc[2]).append("</version></dependency>");
+        }
+        pom.append("</dependencies></project>");
+
+        final Path d = Files.createDirectories(dir.resolve(c[0].replace('.', '/')).resolve(c[1]).resolve(c[2]));
+        Files.write(d.resolve(c[1] + "-" + c[2] + ".pom"), pom.toString().getBytes(StandardCharsets.UTF_8));
+        writeJar(d.resolve(c[1] + "-" + c[2] + ".jar"));
+        writeMetadata(c[0], c[1], c[2]);
+        return this;
+    }
+
+    private void writeJar(Path file) throws IOException {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        final byte[] data = new byte[jarSize];
+        new Random(file.getFileName().hashCode()).nextBytes(data); // incompressible
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(file), manifest)) {
+            jar.putNextEntry(new ZipEntry("data"));
+            jar.write(data);
+            jar.closeEntry();
+        }
+    }
+
+    private void writeMetadata(String groupId, String artifactId, String version) throws IOException {
+        final String ga = groupId + ":" + artifactId;
+        if (!versions.containsKey(ga))
+            versions.put(ga, new ArrayList<String>());
+        final List<String> vs = versions.get(ga);
+        vs.add(version);
+
+        final StringBuilder metadata = new StringBuilder()
+                .append("<metadata><groupId>").append(groupId).append("</groupId>")
+                .append("<artifactId>").append(artifactId).append("</artifactId>")
+                .append("<versioning><latest>").append(version).append("</latest>")
+                .append("<release>").append(version).append("</release><versions>");
+        for (String v : vs)
+            metadata.append("<version>").append(v).append("</version>");
+        metadata.append("</versions><lastUpdated>").append(new SimpleDateFormat("yyyyMMddHHmmss").format(new Date())).append("</lastUpdated>")
+                .append("</versioning></metadata>");
+        Files.write(dir.resolve(groupId.replace('.', '/')).resolve(artifactId).resolve("maven-metadata.xml"),
+                metadata.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Serves the repository over HTTP, delaying each response by the given latency.
+     * Responses carry an {@code ETag}, and requests whose {@code If-None-Match} matches it get a {@code 304 Not Modified}.
+     */
+    public SyntheticRepository serve(int latencyMillis) throws IOException {
+        this.latency = latencyMillis;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                final int n = active.incrementAndGet(); // counted until the response starts, which is when the client may move on
+                for (int max; (max = maxActive.get()) < n && !maxActive.compareAndSet(max, n);)
+                    ;
+                try {
+                    if (latency > 0)
+                        Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    active.decrementAndGet();
+                }
+                final Path file = dir.resolve(exchange.getRequestURI().getPath().substring(1));
+                if (!Files.isRegularFile(file)) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                final byte[] body = Files.readAllBytes(file);
+                final String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                final boolean head = "HEAD".equals(exchange.getRequestMethod());
+                exchange.sendResponseHeaders(200, head ? -1 : body.length);
+                if (!head) {
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                    bytes.addAndGet(body.length);
+                }
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return this;
+    }
+
+    public void setLatency(int latencyMillis) {
+        this.latency = latencyMillis;
+    }
+
+    /**
+     * The repository's URL; an HTTP URL if it is being served, or a file URL otherwise.
+     */
+    public String getUrl() {
+        return server != null
+                ? "http://localhost:" + server.getAddress().getPort() + "/"
+                : dir.toUri().toString();
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public void resetRequestCount() {
+        requests.set(0);
+        bytes.set(0);
+        maxActive.set(0);
+    }
+
+    /**
+     * The largest number of requests served at once since the last {@link #resetRequestCount() reset}.
+     */
+    public int getMaxConcurrentRequests() {
+        return maxActive.get();
+    }
+
+    /**
+     * The number of response body bytes served since the last {@link #resetRequestCount() reset}.
+     */
+    public long getBytesServed() {
+        return bytes.get();
+    }
+
+    /**
+     * Stops serving the repository, so that it can no longer be reached.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        delete(dir);
+    }
+
+    public static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir))
+            return;
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
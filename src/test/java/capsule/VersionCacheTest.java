@@ -0,0 +1,57 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import com.google.common.jimfs.Jimfs;
+import java.nio.file.FileSystem;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class VersionCacheTest {
+    private final FileSystem fs = Jimfs.newFileSystem();
+    private final VersionCache cache = new VersionCache(fs.getPath("/repo/.capsule/versions"));
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final String key = ResolutionCache.key(Arrays.asList("version com.acme:foo:[1.0,2.0) jar", "repository central"));
+        assertNull(cache.get(key));
+
+        cache.put(key, "1.5", 1000);
+        assertEquals("1.5", cache.get(key).getVersion());
+        assertEquals(1000, cache.get(key).getTimestamp());
+
+        cache.put(key, "1.6", 2000);
+        assertEquals("1.6", cache.get(key).getVersion());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        final String key = ResolutionCache.key(Arrays.asList("version com.acme:foo:LATEST jar"));
+        cache.put(key, "1.5", 1000);
+        final VersionCache.Entry e = cache.get(key);
+
+        assertFalse(e.isExpired(10, 10999));
+        assertTrue(e.isExpired(10, 11000));
+        assertTrue(e.isExpired(0, 1000));
+        assertFalse(e.isExpired(-1, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testCoordinates() {
+        assertTrue(new Coordinates("com.acme:foo:[1.0,2.0)", "jar").isDynamic());
+        assertTrue(new Coordinates("com.acme:foo:(,2.0):jdk8", "jar").isDynamic());
+        assertTrue(new Coordinates("com.acme:foo:LATEST", "jar").isDynamic());
+        assertFalse(new Coordinates("com.acme:foo:1.0", "jar").isDynamic());
+        assertFalse(new Coordinates("com.acme:foo", "jar").isDynamic());
+
+        assertEquals(new Coordinates("com.acme:foo:1.5:jdk8(org.asd:qqq)", "jar"),
+                new Coordinates("com.acme:foo:[1.0,2.0):jdk8(org.asd:qqq)", "jar").withVersion("1.5"));
+    }
+}
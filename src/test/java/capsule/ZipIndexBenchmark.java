@@ -0,0 +1,120 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A small standalone program measuring the time to look up entries in a large capsule JAR.
+ * <p>
+ * Compares a sequential {@link ZipInputStream} scan per lookup (as done by {@code Capsule.getEntryInputStream}) with a lookup
+ * through the JAR's {@link ZipIndex}, both with the index built for the first time and already built.
+ * Usage: {@code ZipIndexBenchmark [entries [lookups [iterations]]]}
+ */
+public class ZipIndexBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int entries = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        final List<Path> files = new ArrayList<>();
+        try {
+            final List<String> names = new ArrayList<>();
+            for (int i = 0; i < iterations * 2; i++)
+                files.add(jar(entries, names));
+            final List<String> targets = new ArrayList<>();
+            for (int i = 0; i < lookups; i++)
+                targets.add(names.get((int) ((long) i * (names.size() - 1) / Math.max(1, lookups - 1))));
+
+            System.out.println("Entries: " + entries + " Lookups: " + lookups + " JAR size: " + Files.size(files.get(0)) / 1024 + "KB");
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                long bytes = 0;
+                for (int i = 0; i < iterations; i++) {
+                    for (String t : targets)
+                        bytes += scan(files.get(i), t);
+                }
+                report("Scan", start, iterations, bytes);
+
+                start = System.nanoTime();
+                bytes = 0;
+                for (int i = 0; i < iterations; i++) { // in the first round each JAR is indexed for the first time
+                    for (String t : targets)
+                        bytes += indexed(files.get(iterations + i), t);
+                }
+                report(round == 0 ? "Index (build)" : "Index (built)", start, iterations, bytes);
+            }
+        } finally {
+            for (Path f : files)
+                Files.deleteIfExists(f);
+        }
+    }
+
+    private static void report(String name, long start, int iterations, long bytes) {
+        final long micros = (System.nanoTime() - start) / 1000 / iterations;
+        System.out.println(name + ":\t" + micros + "us per capsule (" + bytes / iterations + " bytes read)");
+    }
+
+    private static long scan(Path jar, String entry) throws IOException {
+        try (ZipInputStream zis = new JarInputStream(Files.newInputStream(jar))) {
+            for (ZipEntry e; (e = zis.getNextEntry()) != null;) {
+                if (e.getName().equals(entry))
+                    return drain(zis);
+            }
+        }
+        throw new AssertionError(entry);
+    }
+
+    private static long indexed(Path jar, String entry) throws IOException {
+        try (InputStream is = ZipIndex.of(jar).getInputStream(entry)) {
+            return drain(is);
+        }
+    }
+
+    private static long drain(InputStream is) throws IOException {
+        final byte[] buf = new byte[8192];
+        long n = 0;
+        for (int k; (k = is.read(buf)) >= 0;)
+            n += k;
+        return n;
+    }
+
+    private static Path jar(int entries, List<String> names) throws IOException {
+        final boolean record = names.isEmpty();
+        final Path file = Files.createTempFile("capsule-bench", ".jar");
+        try (OutputStream os = Files.newOutputStream(file);
+             ZipOutputStream zos = new ZipOutputStream(os)) {
+            for (int i = 0; i < entries; i++) {
+                final String name = (i % 10 == 0)
+                        ? "META-INF/maven/com.acme.g" + i + "/a" + i + "/pom.xml"
+                        : "com/acme/p" + i / 100 + "/C" + i + ".class";
+                zos.putNextEntry(new ZipEntry(name));
+                final StringBuilder sb = new StringBuilder();
+                for (int j = 0; j < 20; j++)
+                    sb.append("<dependency>").append(name).append(j).append("</dependency>\n");
+                zos.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+                if (record && i % 10 == 0)
+                    names.add(name);
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Capsule
+ * Copyright (c) 2014-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under the terms
+ * of the Eclipse Public License v1.0, available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package capsule;
+
+import com.google.common.jimfs.Jimfs;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ZipIndexTest {
+    @Test
+    public void testRead() throws Exception {
+        final Map<String, String> contents = new LinkedHashMap<>();
+        contents.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n");
+        contents.put("META-INF/maven/com.acme/foo/pom.xml", repeat("<project></project>\n", 100));
+        contents.put("empty.txt", "");
+        contents.put("lib/été.txt", "summer");
+
+        final Path file = Files.createTempFile("capsule-test", ".jar");
+        try {
+            write(file, "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n", contents, "a comment", true);
+            final ZipIndex index = ZipIndex.of(file);
+            assertNotNull(index);
+            assertEquals(contents.size(), index.size());
+            for (Map.Entry<String, String> e : contents.entrySet())
+                assertEquals(e.getValue(), read(index.getInputStream(e.getKey())));
+            assertNull(index.getInputStream("missing.txt"));
+            assertFalse(index.contains("missing.txt"));
+            assertSame(index, ZipIndex.of(file));
+
+            // a changed file is indexed again
+            contents.put("new.txt", "new");
+            write(file, null, contents, null, false);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+            final ZipIndex index2 = ZipIndex.of(file);
+            assertNotSame(index, index2);
+            assertEquals("new", read(index2.getInputStream("new.txt")));
+            assertEquals(contents.get("META-INF/maven/com.acme/foo/pom.xml"), read(index2.getInputStream("META-INF/maven/com.acme/foo/pom.xml")));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void whenNotZipThenNotIndexed() throws Exception {
+        final Path file = Files.createTempFile("capsule-test", ".jar");
+        try {
+            Files.write(file, "not a zip".getBytes(StandardCharsets.UTF_8));
+            assertNull(ZipIndex.of(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testNonDefaultFileSystem() throws Exception {
+        final Map<String, String> contents = new LinkedHashMap<>();
+        contents.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n");
+        final Path jimfs = Jimfs.newFileSystem().getPath("/capsule.jar");
+        write(jimfs, null, contents, null, true);
+        final ZipIndex index = ZipIndex.of(jimfs);
+        assertNotNull(index);
+        assertEquals("Manifest-Version: 1.0\n", read(index.getInputStream("META-INF/MANIFEST.MF")));
+
+        ZipIndex.clear();
+        assertNotSame(index, ZipIndex.of(jimfs));
+    }
+
+    private static void write(Path file, String prefix, Map<String, String> contents, String comment, boolean deflate) throws IOException {
+        try (OutputStream os = Files.newOutputStream(file)) {
+            if (prefix != null)
+                os.write(prefix.getBytes(StandardCharsets.UTF_8));
+            final ZipOutputStream zos = new ZipOutputStream(os);
+            boolean stored = false;
+            for (Map.Entry<String, String> e : contents.entrySet()) {
+                final byte[] bytes = e.getValue().getBytes(StandardCharsets.UTF_8);
+                final ZipEntry ze = new ZipEntry(e.getKey());
+                if (!deflate || (stored = !stored)) { // alternate methods
+                    final CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    ze.setMethod(ZipEntry.STORED);
+                    ze.setSize(bytes.length);
+                    ze.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(ze);
+                zos.write(bytes);
+                zos.closeEntry();
+            }
+            if (comment != null)
+                zos.setComment(comment);
+            zos.finish();
+        }
+    }
+
+    private static String read(InputStream is) throws IOException {
+        try (InputStream in = is) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[1024];
+            for (int n; (n = in.read(buf)) >= 0;)
+                out.write(buf, 0, n);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String repeat(String s, int n) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append(s);
+        return sb.toString();
+    }
+}